@@ -132,9 +132,9 @@ class Infractions implements PlayerConnectivityListener, CommandListener {
             infract(targetPlayer, targetAttributes, attributes, cmd, applicationDate, expirationDate)
         } catch (IndexOutOfBoundsException e) { // load from file
             try {
-                targetAttributes = Server.getInstance().getPlayerFileHandler().load(targetUsername)
+                targetAttributes = Server.getInstance().getSaveService().load(targetUsername)
                 infract(null, targetAttributes, attributes, cmd, applicationDate, expirationDate)
-                Server.getInstance().getPlayerFileHandler().save(targetAttributes)
+                Server.getInstance().getSaveService().save(targetAttributes)
             } catch (Exception ex) {
                 player.sendMessage("player with username '$username' does not exist")
             }
@@ -152,6 +152,7 @@ class Infractions implements PlayerConnectivityListener, CommandListener {
         // Apply infraction
         PlayerInfractions infractions = targetAttributes.getInfractions()
         cmd.apply(targetPlayer, infractions, expirationDate)
+        targetAttributes.markDirty(PlayerAttributes.DIRTY_ACCOUNT)
 
         // Log
         log(targetAttributes.getUsername(), authorAttributes.getUsername(), cmd, applicationDate, expirationDate)
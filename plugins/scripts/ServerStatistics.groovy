@@ -0,0 +1,115 @@
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import com.rs.Server
+import com.rs.WorldHandler
+import com.rs.entity.player.AppearanceBlock
+import com.rs.entity.player.Player
+import com.rs.entity.player.UpdateBudget
+import com.rs.io.PlayerJournal
+import com.rs.net.BufferPool
+import com.rs.net.packet.PacketBudget
+import com.rs.net.packet.PacketDecoderRegistry
+import com.rs.plugin.event.CommandEvent
+import com.rs.plugin.listener.CommandListener
+import com.rs.service.SaveService
+
+/**
+ * Commands which report server performance statistics to administrators.
+ */
+class ServerStatistics implements CommandListener {
+
+    void command(CommandEvent evt) {
+        Player player = evt.getPlayer()
+
+        if (!player.getAttributes().getPrivilege().gte(Player.Privilege.ADMINISTRATOR)) {
+            return
+        }
+
+        if (evt.getCommandName() == "bufferpool") {
+            player.sendMessage String.format("Buffer pool: %.1f%% hit rate (%d hits, %d misses), %d outstanding.",
+                    BufferPool.getHitRate() * 100, BufferPool.getHits(), BufferPool.getMisses(),
+                    BufferPool.getOutstanding())
+        }
+
+        if (evt.getCommandName() == "packetstats") {
+            if (evt.getArgs().length > 0 && !evt.getArgs()[0].isInteger()) {
+                player.sendMessage("Syntax: ::packetstats [count]")
+                return
+            }
+            int count = evt.getArgs().length > 0 ? evt.getArgs()[0].toInteger() : 5
+            List<PacketDecoderRegistry.Entry> entries = PacketDecoderRegistry.getEntries()
+                    .findAll { it.getInvocations() > 0 }
+                    .sort { -it.getDecodeTime() }
+                    .take(count)
+
+            for (PacketDecoderRegistry.Entry entry : entries) {
+                player.sendMessage String.format("Packet %d: %d received, %d bytes, %.2fms decoding, %d deferred%s",
+                        entry.getOpcode(), entry.getInvocations(), entry.getBytes(), entry.getDecodeTime() / 1e6,
+                        entry.getDeferrals(), entry.getDecoder() == null ? " (no decoder)" : "")
+            }
+        }
+
+        if (evt.getCommandName() == "packetbudget") {
+            player.sendMessage String.format("Packet budget: %d packets deferred, %d clients disconnected.",
+                    PacketBudget.getDeferredPackets(), PacketBudget.getFloodingClients())
+        }
+
+        if (evt.getCommandName() == "appearance") {
+            player.sendMessage String.format("Appearance blocks: %d reused, %d encoded.",
+                    AppearanceBlock.getHits(), AppearanceBlock.getRebuilds())
+        }
+
+        if (evt.getCommandName() == "updatebudget") {
+            long packets = UpdateBudget.getPackets()
+            double averageSize = packets == 0 ? 0d : UpdateBudget.getBytes() / (double) packets
+            player.sendMessage String.format("Player updates: %d sent, %.1f bytes on average, " +
+                    "%d blocks and %d additions deferred, %d blocks dropped.", packets, averageSize,
+                    UpdateBudget.getDeferredBlocks(), UpdateBudget.getDeferredAdditions(),
+                    UpdateBudget.getDroppedBlocks())
+            player.sendMessage String.format("Your updates: %d bytes last tick, %d bytes at most.",
+                    player.getUpdateBudget().getLastPacketSize(), player.getUpdateBudget().getPeakPacketSize())
+        }
+
+        if (evt.getCommandName() == "ticktimes") {
+            WorldHandler world = WorldHandler.getInstance()
+
+            for (WorldHandler.Phase phase : WorldHandler.Phase.values()) {
+                player.sendMessage String.format("%s: %.2fms last tick, %.2fms on average.", phase.name().toLowerCase(),
+                        world.getLastPhaseTime(phase) / 1e6, world.getAveragePhaseTime(phase) / 1e6)
+            }
+            player.sendMessage String.format("Update worker skew: %.2f last tick, %.2f on average.",
+                    world.getLastUpdateSkew(), world.getAverageUpdateSkew())
+        }
+
+        if (evt.getCommandName() == "saves") {
+            SaveService saves = Server.getInstance().getSaveService()
+            player.sendMessage String.format("Saves: %d queued, %d written in %.1fms on average, " +
+                    "%d coalesced, %d failed.", saves.getQueueDepth(), saves.getCompletedSaves(),
+                    saves.getAverageLatency() / 1e6, saves.getCoalescedSaves(), saves.getFailedSaves())
+            player.sendMessage String.format("Autosave: %d saved, %d waiting in this pass, %d ticks behind, " +
+                    "last pass took %d ticks.", saves.getAutosaves(), saves.getAutosaveBacklog(),
+                    saves.getAutosaveLag(), saves.getLastAutosavePassTicks())
+            PlayerJournal journal = saves.getJournal()
+
+            if (journal != null) {
+                player.sendMessage String.format("Journal: %d KB, %d accounts, %d records, %d unchanged saves, " +
+                        "%d checkpoints.", journal.getSize().intdiv(1024), journal.getJournaledAccounts(),
+                        journal.getRecords(), journal.getUnchangedSaves(), journal.getCheckpoints())
+            }
+        }
+    }
+}
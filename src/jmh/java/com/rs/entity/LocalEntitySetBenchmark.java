@@ -0,0 +1,116 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.npc.Npc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Compares filling the local entities of every entity in a crowded area in region order, with filling them nearest
+ * first through {@link LocalEntitySet#discover(Entity, RegionIndex, java.util.function.Predicate)}. Run it with
+ * {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class LocalEntitySetBenchmark {
+
+    /**
+     * The amount of entities in the world.
+     */
+    @Param({"500", "1000"})
+    private int entities;
+
+    /**
+     * The side of the square the entities are spread over, in tiles.
+     */
+    @Param({"32"})
+    private int area;
+
+    private Npc[] slots;
+    private RegionIndex<Npc> index;
+    private LocalEntitySet<Npc> set;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(317);
+        slots = new Npc[2048];
+        index = new RegionIndex<>(slots.length);
+        set = new LocalEntitySet<>(slots.length);
+
+        for (int i = 1; i <= entities; i++) {
+            Npc npc = new Npc(0);
+            npc.setSlot(i);
+            npc.getPosition().setAs(new Position(2000 + random.nextInt(area), 2000 + random.nextInt(area)));
+            slots[i] = npc;
+            index.add(npc);
+        }
+    }
+
+    @Benchmark
+    public int firstFit() {
+        int local = 0;
+
+        for (int i = 1; i <= entities; i++) {
+            Position position = slots[i].getPosition();
+            clear();
+
+            for (int regionX = (position.getX() - 14) >> 3; regionX <= (position.getX() + 15) >> 3; regionX++) {
+                for (int regionY = (position.getY() - 14) >> 3; regionY <= (position.getY() + 15) >> 3; regionY++) {
+                    RegionIndex.Region<Npc> region = index.getRegion(regionX, regionY, 0);
+
+                    if (region == null) {
+                        continue;
+                    }
+
+                    for (int j = 0; j < region.size() && set.size() < LocalEntitySet.CAPACITY; j++) {
+                        Npc npc = region.get(j);
+
+                        if (npc != slots[i] && npc.isVisible() && npc.getPosition().isViewableFrom(position)) {
+                            set.add(npc);
+                        }
+                    }
+                }
+            }
+            local += set.size();
+        }
+        return local;
+    }
+
+    @Benchmark
+    public int nearestFirst() {
+        int local = 0;
+
+        for (int i = 1; i <= entities; i++) {
+            clear();
+            set.discover(slots[i], index, Npc::isVisible);
+            local += set.size();
+        }
+        return local;
+    }
+
+    private void clear() {
+        for (int i = 0; i < set.size(); i++) {
+            set.remove(i);
+        }
+        set.compact();
+    }
+}
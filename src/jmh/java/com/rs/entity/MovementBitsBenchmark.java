@@ -0,0 +1,113 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.net.StreamBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares writing the movement of 255 local players with {@link MovementBits}, with writing it one section at a time
+ * as the updaters did before. Run it with {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class MovementBitsBenchmark {
+
+    private static final int PLAYERS = 255;
+    /**
+     * The capacity of the packet, as it is estimated by PlayerUpdating.
+     */
+    private static final int CAPACITY = 128 + PLAYERS * 3;
+
+    private final int[] primaryDirections = new int[PLAYERS];
+    private final int[] secondaryDirections = new int[PLAYERS];
+    private final boolean[] updateRequired = new boolean[PLAYERS];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(317);
+
+        // A mix of standing, walking and running players
+        for (int i = 0; i < PLAYERS; i++) {
+            primaryDirections[i] = random.nextInt(9) - 1;
+            secondaryDirections[i] = random.nextBoolean() ? random.nextInt(8) : -1;
+            updateRequired[i] = random.nextInt(4) == 0;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer sections() {
+        StreamBuffer.WriteBuffer out = start();
+
+        for (int i = 0; i < PLAYERS; i++) {
+            int primaryDirection = primaryDirections[i];
+            int secondaryDirection = secondaryDirections[i];
+
+            if (primaryDirection != -1) {
+                out.writeBit(true);
+
+                if (secondaryDirection != -1) {
+                    out.writeBits(2, 2);
+                    out.writeBits(3, primaryDirection);
+                    out.writeBits(3, secondaryDirection);
+                } else {
+                    out.writeBits(2, 1);
+                    out.writeBits(3, primaryDirection);
+                }
+                out.writeBit(updateRequired[i]);
+            } else if (updateRequired[i]) {
+                out.writeBit(true);
+                out.writeBits(2, 0);
+            } else {
+                out.writeBit(false);
+            }
+        }
+        return finish(out);
+    }
+
+    @Benchmark
+    public ByteBuffer table() {
+        StreamBuffer.WriteBuffer out = start();
+
+        for (int i = 0; i < PLAYERS; i++) {
+            MovementBits.write(out, primaryDirections[i], secondaryDirections[i], updateRequired[i]);
+        }
+        return finish(out);
+    }
+
+    private StreamBuffer.WriteBuffer start() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(CAPACITY);
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        out.writeBit(false); // This player.
+        out.writeBits(8, PLAYERS);
+        return out;
+    }
+
+    private ByteBuffer finish(StreamBuffer.WriteBuffer out) {
+        out.writeBits(11, 2047);
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+
+        ByteBuffer result = out.getBuffer();
+        out.release();
+        return result;
+    }
+}
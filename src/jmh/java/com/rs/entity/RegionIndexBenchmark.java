@@ -0,0 +1,107 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.npc.Npc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Compares discovering the viewable entities of every entity by scanning all slots, with searching the surrounding
+ * regions of a {@link RegionIndex}, for entities packed into one area and spread across the map. Run it with
+ * {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class RegionIndexBenchmark {
+
+    /**
+     * The amount of entities in the world.
+     */
+    @Param({"250", "1000", "2000"})
+    private int entities;
+
+    /**
+     * The side of the square the entities are spread over, in tiles.
+     */
+    @Param({"32", "2048"})
+    private int area;
+
+    private Npc[] slots;
+    private RegionIndex<Npc> index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(317);
+        slots = new Npc[2048];
+        index = new RegionIndex<>(slots.length);
+
+        for (int i = 1; i <= entities; i++) {
+            Npc npc = new Npc(0);
+            npc.setSlot(i);
+            npc.getPosition().setAs(new Position(2000 + random.nextInt(area), 2000 + random.nextInt(area)));
+            slots[i] = npc;
+            index.add(npc);
+        }
+    }
+
+    @Benchmark
+    public int scanAllSlots() {
+        int viewable = 0;
+
+        for (int i = 1; i <= entities; i++) {
+            Position position = slots[i].getPosition();
+
+            for (Npc other : slots) {
+                if (other != null && other.getPosition().isViewableFrom(position)) {
+                    viewable++;
+                }
+            }
+        }
+        return viewable;
+    }
+
+    @Benchmark
+    public int searchRegions() {
+        int viewable = 0;
+
+        for (int i = 1; i <= entities; i++) {
+            Position position = slots[i].getPosition();
+
+            for (int regionX = (position.getX() - 14) >> 3; regionX <= (position.getX() + 15) >> 3; regionX++) {
+                for (int regionY = (position.getY() - 14) >> 3; regionY <= (position.getY() + 15) >> 3; regionY++) {
+                    RegionIndex.Region<Npc> region = index.getRegion(regionX, regionY, 0);
+
+                    if (region == null) {
+                        continue;
+                    }
+
+                    for (int j = 0; j < region.size(); j++) {
+                        if (region.get(j).getPosition().isViewableFrom(position)) {
+                            viewable++;
+                        }
+                    }
+                }
+            }
+        }
+        return viewable;
+    }
+}
@@ -0,0 +1,120 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.Position;
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.entity.player.skills.SkillType;
+import com.rs.entity.player.skills.Skills;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares saving and loading a player file with {@link JsonPlayerFileHandler} and {@link BinaryPlayerFileHandler}.
+ * The size of both files is printed during setup. Saves include syncing the file to disk, as they do in the server.
+ * Run it with {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class PlayerFileHandlerBenchmark {
+
+    private Path directory;
+    private PlayerFileHandler json;
+    private PlayerFileHandler binary;
+    private PlayerAttributes attributes;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("characters");
+        json = new JsonPlayerFileHandler(directory + File.separator);
+        binary = new BinaryPlayerFileHandler(directory + File.separator);
+        attributes = account("player");
+        json.save(attributes);
+        binary.save(attributes);
+        System.out.println("JSON file: " + Files.size(directory.resolve("player.json")) + " bytes, binary file: "
+                + Files.size(directory.resolve("player.dat")) + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.delete(directory.resolve("player.json"));
+        Files.delete(directory.resolve("player.dat"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void jsonSave() throws Exception {
+        json.save(attributes);
+    }
+
+    @Benchmark
+    public PlayerAttributes jsonLoad() throws Exception {
+        return json.load("player");
+    }
+
+    @Benchmark
+    public void binarySave() throws Exception {
+        binary.save(attributes);
+    }
+
+    @Benchmark
+    public PlayerAttributes binaryLoad() throws Exception {
+        return binary.load("player");
+    }
+
+    /**
+     * Creates a well played account, with trained skills, full inventory and equipment, and friends.
+     */
+    static PlayerAttributes account(String username) {
+        Random random = new Random(username.hashCode());
+        PlayerAttributes attributes = new PlayerAttributes();
+        attributes.setUsername(username);
+        attributes.setPassword("password");
+        attributes.setPosition(new Position(3222, 3222));
+        attributes.setSkills(new Skills());
+
+        for (SkillType type : SkillType.values()) {
+            attributes.getSkills().addExperience(type, random.nextInt(Skills.MAX_EXPERIENCE / 20));
+        }
+
+        for (int i = 0; i < attributes.getInventory().length; i++) {
+            attributes.getInventory()[i] = random.nextInt(5000);
+            attributes.getInventoryN()[i] = 1 + random.nextInt(1000);
+        }
+
+        for (int i = 0; i < attributes.getEquipment().length; i++) {
+            attributes.getEquipment()[i] = random.nextInt(5000);
+            attributes.getEquipmentN()[i] = 1;
+        }
+
+        for (int i = 0; i < 100; i++) {
+            attributes.getFriends().put(random.nextLong() & Long.MAX_VALUE, "friend" + i);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            attributes.getIgnored().put(random.nextLong() & Long.MAX_VALUE, "ignored" + i);
+        }
+        return attributes;
+    }
+}
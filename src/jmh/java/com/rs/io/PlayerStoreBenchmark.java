@@ -0,0 +1,112 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.PlayerAttributes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of loading an account on login from the store of {@link MappedPlayerFileHandler}, with loading
+ * it from a binary player file per account ({@link BinaryPlayerFileHandler}). A cold login is the first login after the
+ * server starts, which includes opening the store and reading its index, a warm login loads a random account. Run it
+ * with {@code gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerStoreBenchmark {
+
+    @Param({"1000", "10000"})
+    private int accounts;
+
+    private final Random random = new Random(317);
+    private Path directory;
+    private BinaryPlayerFileHandler files;
+    private MappedPlayerFileHandler store;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("characters");
+        files = new BinaryPlayerFileHandler(directory + File.separator);
+        store = new MappedPlayerFileHandler(directory + File.separator, "players");
+        store.init();
+
+        for (int i = 0; i < accounts; i++) {
+            PlayerAttributes attributes = PlayerFileHandlerBenchmark.account("player" + i);
+            files.save(attributes);
+            store.save(attributes);
+        }
+
+        // Reopened, so that cold logins read the index file
+        store.close();
+        store.init();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        store.close();
+
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public PlayerAttributes coldFileLogin() throws Exception {
+        return new BinaryPlayerFileHandler(directory + File.separator).load(username());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public PlayerAttributes coldStoreLogin() throws Exception {
+        MappedPlayerFileHandler opened = new MappedPlayerFileHandler(directory + File.separator, "players");
+        opened.init();
+        PlayerAttributes attributes = opened.load(username());
+        opened.close();
+        return attributes;
+    }
+
+    @Benchmark
+    public PlayerAttributes warmFileLogin() throws Exception {
+        return files.load(username());
+    }
+
+    @Benchmark
+    public PlayerAttributes warmStoreLogin() throws Exception {
+        return store.load(username());
+    }
+
+    private String username() {
+        return "player" + random.nextInt(accounts);
+    }
+}
@@ -0,0 +1,122 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the bit writer of {@link StreamBuffer.WriteBuffer} with the byte at a time writer it replaced, by writing
+ * the bit section of a player update packet for 255 local players. Run it with {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class BitWriterBenchmark {
+
+    private static final int PLAYERS = 255;
+    /**
+     * The capacity of the packet, as it is estimated by PlayerUpdating.
+     */
+    private static final int CAPACITY = 128 + PLAYERS * 3;
+
+    private final int[] directions = new int[PLAYERS];
+    private final boolean[] updateRequired = new boolean[PLAYERS];
+    private ByteBuffer legacy;
+    private int legacyBitPosition;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(317);
+
+        for (int i = 0; i < PLAYERS; i++) {
+            directions[i] = random.nextInt(8);
+            updateRequired[i] = random.nextBoolean();
+        }
+        legacy = ByteBuffer.allocate(CAPACITY);
+    }
+
+    @Benchmark
+    public ByteBuffer accumulator() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(CAPACITY);
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        out.writeBit(false); // This player.
+        out.writeBits(8, PLAYERS);
+
+        for (int i = 0; i < PLAYERS; i++) {
+            out.writeBit(true);
+            out.writeBits(2, 1);
+            out.writeBits(3, directions[i]);
+            out.writeBit(updateRequired[i]);
+        }
+        out.writeBits(11, 2047);
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+
+        ByteBuffer result = out.getBuffer();
+        out.release();
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer byteAtATime() {
+        legacy.clear();
+        legacyBitPosition = 0;
+        writeBitsLegacy(1, 0);
+        writeBitsLegacy(8, PLAYERS);
+
+        for (int i = 0; i < PLAYERS; i++) {
+            writeBitsLegacy(1, 1);
+            writeBitsLegacy(2, 1);
+            writeBitsLegacy(3, directions[i]);
+            writeBitsLegacy(1, updateRequired[i] ? 1 : 0);
+        }
+        writeBitsLegacy(11, 2047);
+        legacy.position((legacyBitPosition + 7) / 8);
+        return legacy;
+    }
+
+    /**
+     * The previous implementation of {@link StreamBuffer.WriteBuffer#writeBits(int, int)}.
+     */
+    private void writeBitsLegacy(int amount, int value) {
+        int bytePos = legacyBitPosition >> 3;
+        int bitOffset = 8 - (legacyBitPosition & 7);
+        legacyBitPosition += amount;
+
+        for (; amount > bitOffset; bitOffset = 8) {
+            byte tmp = bitOffset == 8 ? 0 : legacy.get(bytePos);
+            tmp &= ~StreamBuffer.BIT_MASKS[bitOffset];
+            tmp |= (value >> (amount - bitOffset)) & StreamBuffer.BIT_MASKS[bitOffset];
+            legacy.put(bytePos++, tmp);
+            amount -= bitOffset;
+        }
+        if (amount == bitOffset) {
+            byte tmp = bitOffset == 8 ? 0 : legacy.get(bytePos);
+            tmp &= ~StreamBuffer.BIT_MASKS[bitOffset];
+            tmp |= value & StreamBuffer.BIT_MASKS[bitOffset];
+            legacy.put(bytePos, tmp);
+        } else {
+            byte tmp = bitOffset == 8 ? 0 : legacy.get(bytePos);
+            tmp &= ~(StreamBuffer.BIT_MASKS[amount] << (bitOffset - amount));
+            tmp |= (value & StreamBuffer.BIT_MASKS[amount]) << (bitOffset - amount);
+            legacy.put(bytePos, tmp);
+        }
+    }
+}
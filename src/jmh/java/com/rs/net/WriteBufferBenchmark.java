@@ -0,0 +1,121 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares copying appearance blocks into an update packet byte by byte, with the bulk copies of
+ * {@link StreamBuffer.WriteBuffer}. Run it with {@code gradlew jmh}.
+ */
+@State(Scope.Thread)
+public class WriteBufferBenchmark {
+
+    /**
+     * The size of an appearance block, see PlayerUpdating.
+     */
+    private static final int BLOCK_SIZE = 56;
+
+    /**
+     * The amount of blocks written per packet, one for each local player.
+     */
+    @Param({"1", "25", "255"})
+    private int blocks;
+
+    /**
+     * If the packet is written to a pooled direct buffer, rather than a heap buffer.
+     */
+    @Param({"false", "true"})
+    private boolean pooled;
+
+    private ByteBuffer block;
+    private byte[] chat;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(317);
+        byte[] data = new byte[BLOCK_SIZE];
+        random.nextBytes(data);
+        block = ByteBuffer.allocate(BLOCK_SIZE);
+        block.put(data);
+
+        chat = new byte[BLOCK_SIZE];
+        random.nextBytes(chat);
+    }
+
+    @Benchmark
+    public ByteBuffer writeBytesPerByte() {
+        StreamBuffer.WriteBuffer out = createBuffer();
+
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < block.position(); j++) {
+                out.writeByte(block.get(j));
+            }
+        }
+        return finish(out);
+    }
+
+    @Benchmark
+    public ByteBuffer writeBytesBulk() {
+        StreamBuffer.WriteBuffer out = createBuffer();
+
+        for (int i = 0; i < blocks; i++) {
+            out.writeBytes(block);
+        }
+        return finish(out);
+    }
+
+    @Benchmark
+    public ByteBuffer writeBytesReversePerByte() {
+        StreamBuffer.WriteBuffer out = createBuffer();
+
+        for (int i = 0; i < blocks; i++) {
+            for (int j = chat.length - 1; j >= 0; j--) {
+                out.writeByte(chat[j]);
+            }
+        }
+        return finish(out);
+    }
+
+    @Benchmark
+    public ByteBuffer writeBytesReverseBulk() {
+        StreamBuffer.WriteBuffer out = createBuffer();
+
+        for (int i = 0; i < blocks; i++) {
+            out.writeBytesReverse(chat);
+        }
+        return finish(out);
+    }
+
+    private StreamBuffer.WriteBuffer createBuffer() {
+        int size = blocks * BLOCK_SIZE;
+        return pooled ? StreamBuffer.acquireWriteBuffer(size) : StreamBuffer.createWriteBuffer(size);
+    }
+
+    private ByteBuffer finish(StreamBuffer.WriteBuffer out) {
+        ByteBuffer result = out.getBuffer();
+        out.release();
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package com.rs;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.npc.NpcUpdating;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerUpdating;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Updates a range of players on a fork join pool. Ranges are split in two halves of about the same weight, where the
+ * weight of a player is its amount of local players and NPCs, until they are small enough to update at once. The time
+ * each worker spends updating is recorded, to tell how evenly the work was spread.
+ */
+final class PlayerUpdateTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * The amount of leaves the work is split into, per worker.
+     */
+    private static final int LEAVES_PER_WORKER = 4;
+    private final Batch batch;
+    private final int from;
+    private final int to;
+
+    private PlayerUpdateTask(Batch batch, int from, int to) {
+        this.batch = batch;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= 1 || batch.weight(from, to) <= batch.leafWeight) {
+            update();
+            return;
+        }
+
+        // Split where the weight of the range is halved
+        long middleWeight = batch.cumulativeWeights[from] + batch.weight(from, to) / 2;
+        int middle = Arrays.binarySearch(batch.cumulativeWeights, from + 1, to, middleWeight);
+        middle = Math.max(from + 1, Math.min(to - 1, middle < 0 ? -middle - 1 : middle));
+        invokeAll(new PlayerUpdateTask(batch, from, middle), new PlayerUpdateTask(batch, middle, to));
+    }
+
+    private void update() {
+        long start = System.nanoTime();
+
+        for (int i = from; i < to; i++) {
+            Player player = batch.players[i];
+
+            synchronized (player) {
+                try {
+                    PlayerUpdating.update(player);
+                    NpcUpdating.update(player);
+                    player.flush();
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+        batch.addWorkerTime(System.nanoTime() - start);
+    }
+
+    /**
+     * The players updated in a tick, along with their weights and the time each worker spent on them.
+     */
+    static final class Batch {
+
+        private final Player[] players;
+        /**
+         * The total weight of the players before each index, the last element holds the total weight.
+         */
+        private final long[] cumulativeWeights;
+        private final AtomicLongArray workerTimes;
+        private int size;
+        private long leafWeight;
+
+        /**
+         * Creates a new Batch.
+         *
+         * @param capacity the maximum amount of players
+         * @param parallelism the amount of workers
+         */
+        Batch(int capacity, int parallelism) {
+            players = new Player[capacity];
+            cumulativeWeights = new long[capacity + 1];
+            workerTimes = new AtomicLongArray(parallelism);
+        }
+
+        /**
+         * Adds a player to be updated.
+         */
+        void add(Player player) {
+            long weight = 1 + player.getPlayers().size() + player.getNpcs().size();
+            cumulativeWeights[size + 1] = cumulativeWeights[size] + weight;
+            players[size++] = player;
+        }
+
+        /**
+         * Creates the task which updates all added players.
+         */
+        PlayerUpdateTask createTask() {
+            for (int i = 0; i < workerTimes.length(); i++) {
+                workerTimes.set(i, 0);
+            }
+            leafWeight = Math.max(1, weight(0, size) / ((long) workerTimes.length() * LEAVES_PER_WORKER));
+            return new PlayerUpdateTask(this, 0, size);
+        }
+
+        /**
+         * Removes all players, once they were updated.
+         */
+        void clear() {
+            Arrays.fill(players, 0, size, null);
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        private long weight(int from, int to) {
+            return cumulativeWeights[to] - cumulativeWeights[from];
+        }
+
+        /**
+         * Adds time spent by the current worker.
+         */
+        private void addWorkerTime(long time) {
+            Thread thread = Thread.currentThread();
+            int index = thread instanceof ForkJoinWorkerThread
+                    ? ((ForkJoinWorkerThread) thread).getPoolIndex() % workerTimes.length() : 0;
+            workerTimes.addAndGet(index, time);
+        }
+
+        /**
+         * Gets the time the busiest worker spent updating, relative to the average time of the workers. A value of 1
+         * means the work was spread evenly.
+         */
+        double getSkew() {
+            long total = 0;
+            long max = 0;
+
+            for (int i = 0; i < workerTimes.length(); i++) {
+                long time = workerTimes.get(i);
+                total += time;
+                max = Math.max(max, time);
+            }
+            return total == 0 ? 1 : max / (total / (double) workerTimes.length());
+        }
+    }
+}
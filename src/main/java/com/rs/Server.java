@@ -21,7 +21,9 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.name.Named;
 import com.rs.io.PlayerFileHandler;
+import com.rs.net.packet.DefaultPacketDecoders;
 import com.rs.plugin.PluginHandler;
+import com.rs.service.SaveService;
 import com.rs.service.Service;
 import com.rs.util.AbstractCredentialValidator;
 import com.rs.util.EquipmentHelper;
@@ -50,6 +52,7 @@ public final class Server implements Runnable, Service {
     private final Set<Service> services;
     private final PlayerFileHandler playerFileHandler;
     private final AbstractCredentialValidator credentialValidator;
+    private final SaveService saveService;
 
     private Settings settings;
     private InetSocketAddress address;
@@ -63,15 +66,16 @@ public final class Server implements Runnable, Service {
      * @param tickRate the tick rate
      */
     @Inject
-    private Server(@Named("host") String host, @Named("port") int port, @Named("tickRate") int tickRate,
-                   Set<Service> services, PlayerFileHandler playerFileHandler,
-                   AbstractCredentialValidator credentialValidator) {
+    Server(@Named("host") String host, @Named("port") int port, @Named("tickRate") int tickRate,
+           Set<Service> services, PlayerFileHandler playerFileHandler,
+           AbstractCredentialValidator credentialValidator, SaveService saveService) {
         this.host = host;
         this.port = port;
         this.tickRate = tickRate;
         this.services = services;
         this.playerFileHandler = playerFileHandler;
         this.credentialValidator = credentialValidator;
+        this.saveService = saveService;
     }
 
     /**
@@ -133,6 +137,9 @@ public final class Server implements Runnable, Service {
             EquipmentHelper.loadStackableItems("./data/stackable.dat");
             System.out.println("Loaded all configuration in " + timer.elapsed() + "ms");
 
+            // Loading packet decoders, plugins may replace them
+            DefaultPacketDecoders.register();
+
             // Loading plugins
             timer.reset();
             PluginHandler.load();
@@ -203,6 +210,10 @@ public final class Server implements Runnable, Service {
         return playerFileHandler;
     }
 
+    public SaveService getSaveService() {
+        return saveService;
+    }
+
     public AbstractCredentialValidator getCredentialValidator() {
         return credentialValidator;
     }
@@ -211,6 +222,13 @@ public final class Server implements Runnable, Service {
         return settings;
     }
 
+    /**
+     * Sets the settings, which are otherwise loaded when the server is run.
+     */
+    void setSettings(Settings settings) {
+        this.settings = settings;
+    }
+
     /**
      * Gets the server instance.
      */
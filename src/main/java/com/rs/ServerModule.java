@@ -24,6 +24,8 @@ import com.rs.io.JsonPlayerFileHandler;
 import com.rs.io.PlayerFileHandler;
 import com.rs.service.NetworkService;
 import com.rs.service.GameService;
+import com.rs.service.LoginService;
+import com.rs.service.SaveService;
 import com.rs.service.Service;
 import com.rs.util.AbstractCredentialValidator;
 import com.rs.util.LenientCredentialValidator;
@@ -42,12 +44,17 @@ public class ServerModule extends AbstractModule {
 
     protected void configure() {
         Multibinder<Service> serviceBinder = Multibinder.newSetBinder(binder(), Service.class);
+        bind(LoginService.class).in(Singleton.class);
+        bind(SaveService.class).in(Singleton.class);
         serviceBinder.addBinding().to(NetworkService.class).in(Singleton.class);
+        serviceBinder.addBinding().to(LoginService.class);
         serviceBinder.addBinding().to(GameService.class).in(Singleton.class);
+        serviceBinder.addBinding().to(SaveService.class); // Last, so that it saves the players logged out on cleanup
         bind(String.class).annotatedWith(Names.named("host")).toInstance(host);
         bind(Integer.class).annotatedWith(Names.named("port")).toInstance(port);
         bind(Integer.class).annotatedWith(Names.named("tickRate")).toInstance(tickRate);
 
+        // Or BinaryPlayerFileHandler, or MappedPlayerFileHandler, see USEGUIDE
         bind(PlayerFileHandler.class).to(JsonPlayerFileHandler.class).in(Singleton.class);
         bind(AbstractCredentialValidator.class).to(LenientCredentialValidator.class).in(Singleton.class);
     }
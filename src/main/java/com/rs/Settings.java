@@ -33,6 +33,22 @@ public final class Settings {
     private int maxConsPerHost;
     private boolean hashPasswords;
     private String dateFormat;
+    private boolean networkReactor;
+    private int networkWorkers;
+    private int packetsPerTick;
+    private int opcodePacketsPerTick;
+    private int packetFloodTicks;
+    private int loginWorkers;
+    private int loginsPerTick;
+    private int playerUpdateBudget;
+    private boolean parallelWorldTick;
+    private int updateParallelism;
+    private int saveWorkers;
+    private int savesPerBatch;
+    private boolean saveJournal;
+    private int saveJournalSize;
+    private int autosaveInterval;
+    private int autosavesPerTick;
 
     public static Settings load(String fileName) throws Exception {
         // Checking if file exists
@@ -68,4 +84,68 @@ public final class Settings {
     public String getDateFormat() {
         return dateFormat;
     }
+
+    public boolean isUsingNetworkReactor() {
+        return networkReactor;
+    }
+
+    public int getNetworkWorkers() {
+        return networkWorkers;
+    }
+
+    public int getPacketsPerTick() {
+        return packetsPerTick;
+    }
+
+    public int getOpcodePacketsPerTick() {
+        return opcodePacketsPerTick;
+    }
+
+    public int getPacketFloodTicks() {
+        return packetFloodTicks;
+    }
+
+    public int getLoginWorkers() {
+        return loginWorkers;
+    }
+
+    public int getLoginsPerTick() {
+        return loginsPerTick;
+    }
+
+    public int getPlayerUpdateBudget() {
+        return playerUpdateBudget;
+    }
+
+    public boolean isParallelWorldTick() {
+        return parallelWorldTick;
+    }
+
+    public int getUpdateParallelism() {
+        return updateParallelism;
+    }
+
+    public int getSaveWorkers() {
+        return saveWorkers;
+    }
+
+    public int getSavesPerBatch() {
+        return savesPerBatch;
+    }
+
+    public boolean isSaveJournal() {
+        return saveJournal;
+    }
+
+    public int getSaveJournalSize() {
+        return saveJournalSize;
+    }
+
+    public int getAutosaveInterval() {
+        return autosaveInterval;
+    }
+
+    public int getAutosavesPerTick() {
+        return autosavesPerTick;
+    }
 }
@@ -16,6 +16,7 @@ package com.rs;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.rs.entity.RegionIndex;
 import com.rs.entity.npc.Npc;
 import com.rs.entity.npc.NpcUpdating;
 import com.rs.entity.player.Player;
@@ -24,8 +25,11 @@ import com.rs.plugin.PluginHandler;
 import com.rs.task.TaskHandler;
 import com.rs.util.Tickable;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Phaser;
 
 /**
@@ -39,6 +43,14 @@ public final class WorldHandler implements Tickable {
      * Singleton instance.
      */
     private static final WorldHandler instance = new WorldHandler();
+    /**
+     * The amount of player slots in each chunk of a parallel phase.
+     */
+    private static final int PLAYER_CHUNK_SIZE = 128;
+    /**
+     * The amount of NPC slots in each chunk of a parallel phase.
+     */
+    private static final int NPC_CHUNK_SIZE = 512;
 
 
     /**
@@ -49,11 +61,36 @@ public final class WorldHandler implements Tickable {
      * All registered NPCs.
      */
     private final Npc[] npcs = new Npc[8192];
+    /**
+     * The slots of all registered NPCs, so that empty ranges of slots can be skipped.
+     */
+    private final BitSet npcSlots = new BitSet(npcs.length);
+    /**
+     * All registered players by the region they stand in.
+     */
+    private final RegionIndex<Player> playerRegions = new RegionIndex<>(players.length);
+    /**
+     * All registered NPCs by the region they stand in.
+     */
+    private final RegionIndex<Npc> npcRegions = new RegionIndex<>(npcs.length);
+    /**
+     * All registered players by username, this may be read from the login workers.
+     */
+    private final Map<String, Player> playersByName = new ConcurrentHashMap<>();
+    /**
+     * The usernames of players which are being logged in.
+     */
+    private final Set<String> reservedUsernames = ConcurrentHashMap.newKeySet();
 
     /**
-     * A thread pool that allows tasks to be executed in parallel.
+     * A thread pool that allows tasks to be executed in parallel, it is created on the first tick with the parallelism
+     * from the settings.
+     */
+    private ForkJoinPool threadPool;
+    /**
+     * The players to update in the current tick.
      */
-    private final ExecutorService threadPool = Executors.newFixedThreadPool(Server.CPU_CORES);
+    private PlayerUpdateTask.Batch updateBatch;
 
     /**
      * A synchronization barrier that allows a group of threads to wait for each other to
@@ -61,6 +98,23 @@ public final class WorldHandler implements Tickable {
      */
     private final Phaser barrier = new Phaser(1);
 
+    /**
+     * The players and NPCs which failed in a phase, they are removed after the phase in slot order.
+     */
+    private final boolean[] failedPlayers = new boolean[players.length];
+    private final boolean[] failedNpcs = new boolean[npcs.length];
+    /**
+     * The time each phase took, in the last tick and in total.
+     */
+    private final long[] lastPhaseTimes = new long[Phase.values().length];
+    private final long[] totalPhaseTimes = new long[Phase.values().length];
+    private long ticks;
+    /**
+     * The skew of the time the update workers spent, see {@link PlayerUpdateTask.Batch#getSkew()}.
+     */
+    private double lastUpdateSkew = 1;
+    private double totalUpdateSkew;
+
     private int playerAmount = 0;
     private int npcAmount = 0;
 
@@ -76,94 +130,252 @@ public final class WorldHandler implements Tickable {
      * Performs the processing of all world functions.
      */
     public void tick() throws Exception {
-        // XXX: Maybe we could implement loop fusion to speed this up.
+        Settings settings = Server.getInstance().getSettings();
+        boolean parallel = settings.isParallelWorldTick();
+
+        if (threadPool == null) {
+            int parallelism = settings.getUpdateParallelism() > 0 ? settings.getUpdateParallelism() : Server.CPU_CORES;
+            threadPool = new ForkJoinPool(parallelism);
+            updateBatch = new PlayerUpdateTask.Batch(players.length, parallelism);
+        }
+        long time = System.nanoTime();
+
+        // Handle all packets received since the last tick.
+        for (Player player : players) {
+            if (player == null) {
+                continue;
+            }
+            player.processInboundPackets();
+        }
+        time = recordPhase(Phase.PACKETS, time);
+
+        // Perform any logic processing for players and NPCs, then re-index the ones which moved.
+        runPhase(parallel, this::tickPlayers, this::tickNpcs);
+        removeFailedEntities();
+
+        for (Player player : players) {
+            if (player == null) {
+                continue;
+            }
+            playerRegions.update(player);
+        }
+
+        for (int slot = npcSlots.nextSetBit(0); slot >= 0; slot = npcSlots.nextSetBit(slot + 1)) {
+            npcRegions.update(npcs[slot]);
+        }
+        time = recordPhase(Phase.LOGIC, time);
+
+        // Process all plugins.
+        PluginHandler.dispatchTick();
+
+        // Process all tasks
+        TaskHandler.tick();
+        time = recordPhase(Phase.PLUGINS, time);
 
-        // Perform any logic processing for players.
+        // Re-index players and NPCs which were moved by plugins or tasks, and encode their state blocks once, so that
+        // the viewers only have to copy them.
         for (Player player : players) {
             if (player == null) {
                 continue;
             }
+            playerRegions.update(player);
 
             try {
-                player.tick();
+                PlayerUpdating.encodeStateBlocks(player);
             } catch (Exception ex) {
                 ex.printStackTrace();
                 player.disconnect();
             }
         }
 
-        // Perform any logic processing for NPCs.
-        for (Npc npc : npcs) {
-            if (npc == null) {
-                continue;
-            }
+        for (int slot = npcSlots.nextSetBit(0); slot >= 0; slot = npcSlots.nextSetBit(slot + 1)) {
+            Npc npc = npcs[slot];
+            npcRegions.update(npc);
 
             try {
-                npc.tick();
+                NpcUpdating.encodeStateBlock(npc);
             } catch (Exception ex) {
                 ex.printStackTrace();
                 unregister(npc);
             }
         }
+        time = recordPhase(Phase.ENCODE, time);
 
-        // Process all plugins.
-        PluginHandler.dispatchTick();
-
-        // Process all tasks
-        TaskHandler.tick();
-
-        // Update all players.
-        barrier.bulkRegister(playerAmount);
+        // Update all players, the work is split by the amount of entities each player sees.
         for (Player player : players) {
             if (player == null) {
                 continue;
             }
-            threadPool.execute(() -> {
-                synchronized (player) {
-                    try {
-                        PlayerUpdating.update(player);
-                        NpcUpdating.update(player);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    } finally {
-                        barrier.arriveAndDeregister();
-                    }
-                }
-            });
+            updateBatch.add(player);
+        }
 
+        if (!updateBatch.isEmpty()) {
+            threadPool.invoke(updateBatch.createTask());
+            lastUpdateSkew = updateBatch.getSkew();
+            totalUpdateSkew += lastUpdateSkew;
+            updateBatch.clear();
+        }
+        time = recordPhase(Phase.UPDATE, time);
+
+        // Reset all players and NPCs after tick.
+        runPhase(parallel, this::resetPlayers, this::resetNpcs);
+        removeFailedEntities();
+        recordPhase(Phase.RESET, time);
+        ticks++;
+    }
+
+    /**
+     * Runs a phase over the slots of all players and NPCs. The phase must only change the entities in its range, and
+     * flag the ones which fail, so that they are removed afterwards in slot order.
+     *
+     * @param parallel if the slots should be split into chunks which run on the thread pool
+     */
+    private void runPhase(boolean parallel, SlotRange playerPhase, SlotRange npcPhase) {
+        if (!parallel) {
+            playerPhase.run(0, players.length);
+            npcPhase.run(0, npcs.length);
+            return;
+        }
+        int playerChunks = (players.length + PLAYER_CHUNK_SIZE - 1) / PLAYER_CHUNK_SIZE;
+        int npcChunks = (npcs.length + NPC_CHUNK_SIZE - 1) / NPC_CHUNK_SIZE;
+        barrier.bulkRegister(playerChunks + npcChunks);
+
+        for (int from = 0; from < players.length; from += PLAYER_CHUNK_SIZE) {
+            runChunk(playerPhase, from, Math.min(from + PLAYER_CHUNK_SIZE, players.length));
+        }
+
+        for (int from = 0; from < npcs.length; from += NPC_CHUNK_SIZE) {
+            runChunk(npcPhase, from, Math.min(from + NPC_CHUNK_SIZE, npcs.length));
         }
         barrier.arriveAndAwaitAdvance();
+    }
 
+    private void runChunk(SlotRange phase, int from, int to) {
+        threadPool.execute(() -> {
+            try {
+                phase.run(from, to);
+            } finally {
+                barrier.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void tickPlayers(int from, int to) {
+        for (int slot = from; slot < to; slot++) {
+            Player player = players[slot];
 
-        // Reset all players after tick.
-        for (Player player : players) {
             if (player == null) {
                 continue;
             }
 
             try {
-                player.reset();
+                player.tick();
             } catch (Exception ex) {
                 ex.printStackTrace();
-                player.disconnect();
+                failedPlayers[slot] = true;
+            }
+        }
+    }
+
+    private void tickNpcs(int from, int to) {
+        for (int slot = npcSlots.nextSetBit(from); slot >= 0 && slot < to; slot = npcSlots.nextSetBit(slot + 1)) {
+            try {
+                npcs[slot].tick();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                failedNpcs[slot] = true;
             }
         }
+    }
+
+    private void resetPlayers(int from, int to) {
+        for (int slot = from; slot < to; slot++) {
+            Player player = players[slot];
 
-        // Reset all NPCs after tick.
-        for (Npc npc : npcs) {
-            if (npc == null) {
+            if (player == null) {
                 continue;
             }
 
             try {
-                npc.reset();
+                player.reset();
             } catch (Exception ex) {
                 ex.printStackTrace();
-                unregister(npc);
+                failedPlayers[slot] = true;
             }
         }
     }
 
+    private void resetNpcs(int from, int to) {
+        for (int slot = npcSlots.nextSetBit(from); slot >= 0 && slot < to; slot = npcSlots.nextSetBit(slot + 1)) {
+            try {
+                npcs[slot].reset();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                failedNpcs[slot] = true;
+            }
+        }
+    }
+
+    /**
+     * Disconnects the players and unregisters the NPCs which failed in the last phase, in slot order.
+     */
+    private void removeFailedEntities() {
+        for (int slot = 0; slot < players.length; slot++) {
+            if (failedPlayers[slot]) {
+                failedPlayers[slot] = false;
+                players[slot].disconnect();
+            }
+        }
+
+        for (int slot = 0; slot < npcs.length; slot++) {
+            if (failedNpcs[slot]) {
+                failedNpcs[slot] = false;
+                unregister(npcs[slot]);
+            }
+        }
+    }
+
+    /**
+     * Records the time a phase of the last tick took.
+     *
+     * @param start the time the phase started, from {@link System#nanoTime()}
+     * @return the time the phase ended
+     */
+    private long recordPhase(Phase phase, long start) {
+        long end = System.nanoTime();
+        lastPhaseTimes[phase.ordinal()] = end - start;
+        totalPhaseTimes[phase.ordinal()] += end - start;
+        return end;
+    }
+
+    /**
+     * Gets the time a phase took in the last tick, in nanoseconds.
+     */
+    public long getLastPhaseTime(Phase phase) {
+        return lastPhaseTimes[phase.ordinal()];
+    }
+
+    /**
+     * Gets the average time a phase took since the server started, in nanoseconds.
+     */
+    public long getAveragePhaseTime(Phase phase) {
+        return ticks == 0 ? 0 : totalPhaseTimes[phase.ordinal()] / ticks;
+    }
+
+    /**
+     * Gets the time the busiest update worker spent in the last tick, relative to the average of all update workers.
+     */
+    public double getLastUpdateSkew() {
+        return lastUpdateSkew;
+    }
+
+    /**
+     * Gets the average of {@link #getLastUpdateSkew()} since the server started.
+     */
+    public double getAverageUpdateSkew() {
+        return ticks == 0 ? 1 : totalUpdateSkew / ticks;
+    }
+
     /**
      * Registers a player for processing.
      */
@@ -173,6 +385,8 @@ public final class WorldHandler implements Tickable {
                 players[i] = player;
                 player.setSlot(i);
                 playerAmount++;
+                playerRegions.add(player);
+                playersByName.put(player.getAttributes().getUsername(), player);
                 return;
             }
         }
@@ -183,15 +397,16 @@ public final class WorldHandler implements Tickable {
      * Registers an NPC for processing.
      */
     public void register(Npc npc) {
-        for (int i = 1; i < npcs.length; i++) {
-            if (npcs[i] == null) {
-                npcs[i] = npc;
-                npc.setSlot(i);
-                npcAmount++;
-                return;
-            }
+        int slot = npcSlots.nextClearBit(1);
+
+        if (slot >= npcs.length) {
+            throw new IllegalStateException("Server is full!");
         }
-        throw new IllegalStateException("Server is full!");
+        npcs[slot] = npc;
+        npc.setSlot(slot);
+        npcSlots.set(slot);
+        npcAmount++;
+        npcRegions.add(npc);
     }
 
     /**
@@ -203,6 +418,8 @@ public final class WorldHandler implements Tickable {
         }
         players[player.getSlot()] = null;
         playerAmount--;
+        playerRegions.remove(player);
+        playersByName.remove(player.getAttributes().getUsername(), player);
     }
 
     /**
@@ -213,37 +430,47 @@ public final class WorldHandler implements Tickable {
             return;
         }
         npcs[npc.getSlot()] = null;
+        npcSlots.clear(npc.getSlot());
         npcAmount--;
+        npcRegions.remove(npc);
     }
 
     public boolean isPlayerOnline(String username) {
-        if (playerAmount == 0)
-            return false;
-
-        for (Player player : players) {
-            if (player == null)
-                continue;
-
-            if (player.getAttributes().getUsername().equals(username)) {
-                return true;
-            }
-        }
-        return false;
+        return playersByName.containsKey(username);
     }
 
     public Player getPlayer(String username) {
-        if (playerAmount == 0)
+        Player player = playersByName.get(username);
+
+        if (player == null)
             throw new IndexOutOfBoundsException();
+        return player;
+    }
 
-        for (Player player : players) {
-            if (player == null)
-                continue;
+    /**
+     * Reserves a username for a player which is logging in, so no other login for it can succeed meanwhile.
+     * This is called by the login workers.
+     *
+     * @return false if the username is online or already reserved
+     */
+    public boolean reserveUsername(String username) {
+        if (!reservedUsernames.add(username)) {
+            return false;
+        }
 
-            if (player.getAttributes().getUsername().equals(username)) {
-                return player;
-            }
+        // Checked after reserving it, as a player is registered before its reservation is released
+        if (isPlayerOnline(username)) {
+            reservedUsernames.remove(username);
+            return false;
         }
-        throw new IndexOutOfBoundsException();
+        return true;
+    }
+
+    /**
+     * Releases a username reserved by {@link #reserveUsername(String)}.
+     */
+    public void releaseUsername(String username) {
+        reservedUsernames.remove(username);
     }
 
     public static void trySendMessage(String username, String message) {
@@ -275,6 +502,20 @@ public final class WorldHandler implements Tickable {
         return players;
     }
 
+    /**
+     * Gets the spatial index of all registered players.
+     */
+    public RegionIndex<Player> getPlayerRegions() {
+        return playerRegions;
+    }
+
+    /**
+     * Gets the spatial index of all registered NPCs.
+     */
+    public RegionIndex<Npc> getNpcRegions() {
+        return npcRegions;
+    }
+
     /**
      * Gets all registered NPCs.
      */
@@ -282,4 +523,17 @@ public final class WorldHandler implements Tickable {
         return npcs;
     }
 
+    /**
+     * The phases of a tick, which are timed.
+     */
+    public enum Phase {
+        PACKETS, LOGIC, PLUGINS, ENCODE, UPDATE, RESET
+    }
+
+    /**
+     * A phase which handles a range of slots.
+     */
+    private interface SlotRange {
+        void run(int from, int to);
+    }
 }
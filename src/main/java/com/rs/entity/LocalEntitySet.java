@@ -0,0 +1,251 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * The entities a player can see, in the order the client knows them. Membership is kept in a bitset of entity slots,
+ * so it can be tested in constant time. Removed entities leave a hole until {@link #compact()} is called, so the
+ * set can be changed while it is being iterated over by index.
+ *
+ * @param <E> the type of entity
+ */
+public final class LocalEntitySet<E extends Entity> {
+
+    /**
+     * The maximum amount of entities, the client reads the amount of local entities as 8 bits.
+     */
+    public static final int CAPACITY = 255;
+    /**
+     * The largest distance at which an entity is viewable, see {@link Position#isViewableFrom(Position)}.
+     */
+    public static final int VIEW_DISTANCE = 15;
+    private final long[] members;
+    private final Entity[] entities = new Entity[CAPACITY];
+    private final int[] slots = new int[CAPACITY];
+    private int size;
+    /**
+     * Scratch space for {@link #discover(Entity, RegionIndex, Predicate)}, the arrays grow as needed.
+     */
+    private final int[] viewableCounts = new int[VIEW_DISTANCE + 1];
+    private final int[] candidateOffsets = new int[VIEW_DISTANCE + 2];
+    private Entity[] found = new Entity[CAPACITY];
+    private int[] foundDistances = new int[CAPACITY];
+    private Entity[] candidates = new Entity[CAPACITY];
+
+    /**
+     * Creates a new LocalEntitySet.
+     *
+     * @param slotCount the amount of entity slots
+     */
+    public LocalEntitySet(int slotCount) {
+        members = new long[(slotCount + 63) >> 6];
+    }
+
+    /**
+     * Gets the distance between two positions, as the largest difference of their coordinates.
+     */
+    public static int distance(Position a, Position b) {
+        return Math.max(Math.abs(a.getX() - b.getX()), Math.abs(a.getY() - b.getY()));
+    }
+
+    /**
+     * Appends the viewable entities around a viewer which are not in this set yet. If they do not all fit, the
+     * nearest ones are appended, and the distance returned tells which entities should be removed to make room for
+     * nearer ones in the next tick.
+     *
+     * @param viewer the entity which sees this set
+     * @param index the entities to search
+     * @param discoverable if an entity may be seen at all
+     * @return the distance up to which the entities in this set should be kept
+     */
+    @SuppressWarnings("unchecked")
+    public int discover(Entity viewer, RegionIndex<E> index, Predicate<E> discoverable) {
+        // Collect the candidates, and count the viewable entities and the candidates by distance
+        Arrays.fill(viewableCounts, 0);
+        Arrays.fill(candidateOffsets, 0);
+        int foundCount = find(viewer, index, discoverable);
+
+        try {
+            // If everything fits, the candidates are appended in the order they were found
+            if (size + foundCount <= CAPACITY) {
+                for (int i = 0; i < foundCount; i++) {
+                    add((E) found[i]);
+                }
+                return VIEW_DISTANCE;
+            }
+
+            // Otherwise, sort the candidates by distance and append the nearest ones
+            for (int distance = 1; distance < candidateOffsets.length; distance++) {
+                candidateOffsets[distance] += candidateOffsets[distance - 1];
+            }
+
+            if (candidates.length < foundCount) {
+                candidates = new Entity[found.length];
+            }
+
+            for (int i = 0; i < foundCount; i++) {
+                candidates[candidateOffsets[foundDistances[i]]++] = found[i];
+            }
+            int added = 0;
+
+            while (added < foundCount && size < CAPACITY) {
+                add((E) candidates[added++]);
+            }
+            int nearestMissing = added < foundCount
+                    ? distance(viewer.getPosition(), candidates[added].getPosition()) : VIEW_DISTANCE + 1;
+            Arrays.fill(candidates, 0, foundCount, null);
+
+            // Keep the entities at the nearest distances which all fit, and those at the next distance which are
+            // shown, unless they take the room of nearer entities
+            int keepDistance = -1;
+            int shown = 0;
+
+            while (keepDistance < VIEW_DISTANCE && shown + viewableCounts[keepDistance + 1] <= CAPACITY) {
+                shown += viewableCounts[++keepDistance];
+            }
+            int partialDistance = Math.min(keepDistance + 1, VIEW_DISTANCE);
+            return nearestMissing < partialDistance ? partialDistance - 1 : partialDistance;
+        } finally {
+            Arrays.fill(found, 0, foundCount, null);
+        }
+    }
+
+    /**
+     * Collects the viewable entities around a viewer which are not in this set yet, and counts the viewable entities
+     * and those candidates by distance.
+     *
+     * @return the amount of candidates found
+     */
+    private int find(Entity viewer, RegionIndex<E> index, Predicate<E> discoverable) {
+        Position position = viewer.getPosition();
+        int minRegionX = (position.getX() - VIEW_DISTANCE) >> 3;
+        int maxRegionX = (position.getX() + VIEW_DISTANCE) >> 3;
+        int minRegionY = (position.getY() - VIEW_DISTANCE) >> 3;
+        int maxRegionY = (position.getY() + VIEW_DISTANCE) >> 3;
+        int foundCount = 0;
+
+        for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+            for (int regionY = minRegionY; regionY <= maxRegionY; regionY++) {
+                RegionIndex.Region<E> region = index.getRegion(regionX, regionY, position.getZ());
+
+                if (region == null) {
+                    continue;
+                }
+
+                for (int i = 0; i < region.size(); i++) {
+                    E entity = region.get(i);
+
+                    if (entity == viewer || !entity.getPosition().isViewableFrom(position)
+                            || !discoverable.test(entity)) {
+                        continue;
+                    }
+                    int distance = distance(position, entity.getPosition());
+                    viewableCounts[distance]++;
+
+                    if (contains(entity)) {
+                        continue;
+                    }
+
+                    if (foundCount == found.length) {
+                        found = Arrays.copyOf(found, foundCount * 2);
+                        foundDistances = Arrays.copyOf(foundDistances, foundCount * 2);
+                    }
+                    found[foundCount] = entity;
+                    foundDistances[foundCount++] = distance;
+                    candidateOffsets[distance + 1]++;
+                }
+            }
+        }
+        return foundCount;
+    }
+
+    /**
+     * Checks if the entity in the slot of the given entity is in this set.
+     */
+    public boolean contains(E entity) {
+        int slot = entity.getSlot();
+        return (members[slot >> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Appends an entity to this set.
+     *
+     * @throws IllegalStateException if the set is full
+     */
+    public void add(E entity) {
+        if (size == CAPACITY) {
+            throw new IllegalStateException("Local entity set is full!");
+        }
+        int slot = entity.getSlot();
+        members[slot >> 6] |= 1L << slot;
+        entities[size] = entity;
+        slots[size++] = slot;
+    }
+
+    /**
+     * Removes the entity at an index, leaving a hole until {@link #compact()} is called.
+     */
+    public void remove(int index) {
+        int slot = slots[index];
+        members[slot >> 6] &= ~(1L << slot);
+        entities[index] = null;
+    }
+
+    /**
+     * Closes the holes left by {@link #remove(int)}, keeping the order of the remaining entities.
+     */
+    public void compact() {
+        int kept = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (entities[i] != null) {
+                entities[kept] = entities[i];
+                slots[kept++] = slots[i];
+            }
+        }
+
+        for (int i = kept; i < size; i++) {
+            entities[i] = null;
+        }
+        size = kept;
+    }
+
+    /**
+     * Gets the entity at an index, or null if it was removed since the last {@link #compact()}.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) entities[index];
+    }
+
+    /**
+     * Gets the slot of the entity at an index.
+     */
+    public int getSlot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Gets the amount of entities, including removed ones until {@link #compact()} is called.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,83 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.net.StreamBuffer;
+
+/**
+ * The bits of the movement of a local entity in an update packet, for every combination of walking direction, running
+ * direction and update flag. Each combination is packed as its bits shifted left by 8, along with its length in the
+ * lowest 8 bits, so it can be written at once.
+ */
+public final class MovementBits {
+
+    /**
+     * The packed bits, by {@link #index(int, int, boolean)}.
+     */
+    private static final int[] BITS = new int[9 * 9 * 2];
+
+    static {
+        for (int primaryDirection = -1; primaryDirection < 8; primaryDirection++) {
+            for (int secondaryDirection = -1; secondaryDirection < 8; secondaryDirection++) {
+                BITS[index(primaryDirection, secondaryDirection, false)]
+                        = encode(primaryDirection, secondaryDirection, false);
+                BITS[index(primaryDirection, secondaryDirection, true)]
+                        = encode(primaryDirection, secondaryDirection, true);
+            }
+        }
+    }
+
+    /**
+     * Writes the movement of a local entity.
+     *
+     * @param primaryDirection the walking direction, or -1
+     * @param secondaryDirection the running direction, or -1
+     * @param updateRequired if a state block follows for the entity
+     */
+    public static void write(StreamBuffer.WriteBuffer out, int primaryDirection, int secondaryDirection,
+                             boolean updateRequired) {
+        int bits = BITS[index(primaryDirection, secondaryDirection, updateRequired)];
+        out.writeBits(bits & 0xFF, bits >>> 8);
+    }
+
+    private static int index(int primaryDirection, int secondaryDirection, boolean updateRequired) {
+        return ((primaryDirection + 1) * 9 + secondaryDirection + 1) * 2 + (updateRequired ? 1 : 0);
+    }
+
+    /**
+     * Packs the movement bits, in the same way they were once written one section at a time.
+     */
+    private static int encode(int primaryDirection, int secondaryDirection, boolean updateRequired) {
+        int update = updateRequired ? 1 : 0;
+
+        if (primaryDirection == -1) {
+            if (updateRequired) {
+                return pack(0b1_00, 3); // Update, standing
+            }
+            return pack(0, 1); // No update
+        }
+
+        if (secondaryDirection == -1) {
+            return pack(0b1_01 << 4 | primaryDirection << 1 | update, 7); // Update, walking
+        }
+        return pack(0b1_10 << 7 | primaryDirection << 4 | secondaryDirection << 1 | update, 10); // Update, running
+    }
+
+    private static int pack(int bits, int length) {
+        return bits << 8 | length;
+    }
+}
@@ -19,9 +19,6 @@ package com.rs.entity;
 import com.rs.entity.player.Player;
 import com.rs.util.Tickable;
 
-import java.util.Deque;
-import java.util.LinkedList;
-
 /**
  * Handles the movement of an {@link Entity}.
  *
@@ -29,8 +26,19 @@ import java.util.LinkedList;
  */
 public final class MovementHandler implements Tickable {
 
+    /**
+     * The maximum amount of waypoints.
+     */
+    private static final int MAX_WAYPOINTS = 100;
     private final Entity entity;
-    private final Deque<Point> waypoints = new LinkedList<>();
+    /**
+     * The waypoints, stored as a ring of coordinates and the direction to each waypoint.
+     */
+    private final int[] waypointX = new int[MAX_WAYPOINTS];
+    private final int[] waypointY = new int[MAX_WAYPOINTS];
+    private final int[] waypointDirection = new int[MAX_WAYPOINTS];
+    private int head = 0;
+    private int size = 0;
     private boolean runPath = false;
 
     /**
@@ -41,11 +49,11 @@ public final class MovementHandler implements Tickable {
     }
 
     public void tick() {
-        Point walkPoint;
-        Point runPoint = null;
+        int walkDirection;
+        int runDirection = -1;
 
         // Handle the movement.
-        walkPoint = waypoints.poll();
+        walkDirection = poll();
 
         // Handling run toggling
         if (entity instanceof Player) {
@@ -53,28 +61,28 @@ public final class MovementHandler implements Tickable {
 
             if (player.getAttributes().getSettings().isRunToggled() || isRunPath()) {
                 if (player.getAttributes().hasRunEnergy()) {
-                    runPoint = waypoints.poll();
+                    runDirection = poll();
                 } else { // Player is out of energy
                     player.sendClientSetting(173, 0);
                     player.getAttributes().getSettings().setRunToggled(false);
                     setRunPath(false);
-                    runPoint = null;
+                    runDirection = -1;
                 }
             }
         } else if (isRunPath()) {
-            runPoint = waypoints.poll();
+            runDirection = poll();
         }
 
         // Walking
-        if (walkPoint != null && walkPoint.getDirection() != -1) {
-            entity.getPosition().move(Position.DIRECTION_DELTA_X[walkPoint.getDirection()], Position.DIRECTION_DELTA_Y[walkPoint.getDirection()]);
-            entity.setPrimaryDirection(walkPoint.getDirection());
+        if (walkDirection != -1) {
+            entity.getPosition().move(Position.DIRECTION_DELTA_X[walkDirection], Position.DIRECTION_DELTA_Y[walkDirection]);
+            entity.setPrimaryDirection(walkDirection);
         }
 
         // Running
-        if (runPoint != null && runPoint.getDirection() != -1) {
-            entity.getPosition().move(Position.DIRECTION_DELTA_X[runPoint.getDirection()], Position.DIRECTION_DELTA_Y[runPoint.getDirection()]);
-            entity.setSecondaryDirection(runPoint.getDirection());
+        if (runDirection != -1) {
+            entity.getPosition().move(Position.DIRECTION_DELTA_X[runDirection], Position.DIRECTION_DELTA_Y[runDirection]);
+            entity.setSecondaryDirection(runDirection);
 
             // Reducing energy
             if (entity instanceof Player) {
@@ -110,18 +118,19 @@ public final class MovementHandler implements Tickable {
      */
     public void reset() {
         setRunPath(false);
-        waypoints.clear();
+        head = 0;
+        size = 0;
 
         // Set the base point as this position.
         Position p = entity.getPosition();
-        waypoints.add(new Point(p.getX(), p.getY(), -1));
+        add(p.getX(), p.getY(), -1);
     }
 
     /**
      * Finishes the current path.
      */
     public void finish() {
-        waypoints.removeFirst();
+        poll();
     }
 
     /**
@@ -130,12 +139,22 @@ public final class MovementHandler implements Tickable {
      * @param position the position
      */
     public void addToPath(Position position) {
-        if (waypoints.size() == 0) {
+        addToPath(position.getX(), position.getY());
+    }
+
+    /**
+     * Adds a position to the path.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     */
+    public void addToPath(int x, int y) {
+        if (size == 0) {
             reset();
         }
-        Point last = waypoints.peekLast();
-        int deltaX = position.getX() - last.getX();
-        int deltaY = position.getY() - last.getY();
+        int last = last();
+        int deltaX = x - waypointX[last];
+        int deltaY = y - waypointY[last];
 
         int max = Math.max(Math.abs(deltaX), Math.abs(deltaY));
 
@@ -151,7 +170,7 @@ public final class MovementHandler implements Tickable {
             } else if (deltaY > 0) {
                 deltaY--;
             }
-            addStep(position.getX() - deltaX, position.getY() - deltaY);
+            addStep(x - deltaX, y - deltaY);
         }
     }
 
@@ -162,72 +181,64 @@ public final class MovementHandler implements Tickable {
      * @param y the Y coordinate
      */
     private void addStep(int x, int y) {
-        if (waypoints.size() >= 100) {
+        if (size >= MAX_WAYPOINTS) {
             return;
         }
-        Point last = waypoints.peekLast();
-        int deltaX = x - last.getX();
-        int deltaY = y - last.getY();
+        int last = last();
+        int deltaX = x - waypointX[last];
+        int deltaY = y - waypointY[last];
         int direction = Position.direction(deltaX, deltaY);
 
         if (direction > -1) {
-            waypoints.add(new Point(x, y, direction));
+            add(x, y, direction);
         }
     }
 
     /**
-     * Gets whether or not we're running for the current path.
+     * Appends a waypoint to the ring.
      */
-    public boolean isRunPath() {
-        return runPath;
+    private void add(int x, int y, int direction) {
+        int index = (head + size) % MAX_WAYPOINTS;
+        waypointX[index] = x;
+        waypointY[index] = y;
+        waypointDirection[index] = direction;
+        size++;
     }
 
     /**
-     * Toggles running for the current path only.
+     * Removes the first waypoint from the ring.
+     *
+     * @return the direction to the waypoint, or -1 if there is none
      */
-    public void setRunPath(boolean runPath) {
-        this.runPath = runPath;
+    private int poll() {
+        if (size == 0) {
+            return -1;
+        }
+        int direction = waypointDirection[head];
+        head = (head + 1) % MAX_WAYPOINTS;
+        size--;
+        return direction;
     }
 
     /**
-     * An internal Position type class with support for direction.
-     *
-     * @author blakeman8192
+     * Gets the index of the last waypoint in the ring.
      */
-    private class Point extends Position {
-
-        private int direction;
-
-        /**
-         * Creates a new Point.
-         *
-         * @param x         the X coordinate
-         * @param y         the Y coordinate
-         * @param direction the direction to this point
-         */
-        public Point(int x, int y, int direction) {
-            super(x, y);
-            setDirection(direction);
-        }
-
-        /**
-         * Gets the direction.
-         *
-         * @return the direction
-         */
-        public int getDirection() {
-            return direction;
-        }
+    private int last() {
+        return (head + size - 1) % MAX_WAYPOINTS;
+    }
 
-        /**
-         * Sets the direction.
-         *
-         * @param direction the direction
-         */
-        public void setDirection(int direction) {
-            this.direction = direction;
-        }
+    /**
+     * Gets whether or not we're running for the current path.
+     */
+    public boolean isRunPath() {
+        return runPath;
+    }
 
+    /**
+     * Toggles running for the current path only.
+     */
+    public void setRunPath(boolean runPath) {
+        this.runPath = runPath;
     }
 
 }
@@ -262,8 +262,9 @@ public class Position {
      * @return true if it is viewable, false otherwise
      */
     public boolean isViewableFrom(Position other) {
-        Position p = delta(this, other);
-        return p.z == 0 && p.x <= 14 && p.x >= -15 && p.y <= 14 && p.y >= -15;
+        int deltaX = other.x - x;
+        int deltaY = other.y - y;
+        return other.z == z && deltaX <= 14 && deltaX >= -15 && deltaY <= 14 && deltaY >= -15;
     }
 
 }
@@ -0,0 +1,212 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A spatial index of entities, which groups them by the 8x8 region they stand in. Entities are indexed by their slot,
+ * and must be re-indexed with {@link #update(Entity)} after they move. This is not thread-safe, it is modified on
+ * the game thread and may only be read concurrently while the world is being updated.
+ *
+ * @param <E> the type of entity
+ */
+public final class RegionIndex<E extends Entity> {
+
+    /**
+     * The amount of tiles along one side of a region.
+     */
+    public static final int REGION_SIZE = 8;
+    /**
+     * The amount of hash buckets, this must be a power of two.
+     */
+    private static final int BUCKETS = 4096;
+    private final Region<E>[] buckets;
+    /**
+     * The region and the position within it of each indexed slot.
+     */
+    private final Region<E>[] slotRegions;
+    private final int[] slotIndices;
+
+    /**
+     * Creates a new RegionIndex.
+     *
+     * @param capacity the amount of entity slots
+     */
+    public RegionIndex(int capacity) {
+        buckets = newRegionArray(BUCKETS);
+        slotRegions = newRegionArray(capacity);
+        slotIndices = new int[capacity];
+    }
+
+    /**
+     * Creates an array of regions, which cannot be done directly as the region class is generic.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E extends Entity> Region<E>[] newRegionArray(int length) {
+        return (Region<E>[]) new Region[length];
+    }
+
+    /**
+     * Adds an entity to the region it stands in.
+     */
+    public void add(E entity) {
+        Position position = entity.getPosition();
+        Region<E> region = getOrCreateRegion(position.getX() >> 3, position.getY() >> 3, position.getZ());
+        slotRegions[entity.getSlot()] = region;
+        slotIndices[entity.getSlot()] = region.add(entity);
+    }
+
+    /**
+     * Removes an entity from the index.
+     */
+    public void remove(E entity) {
+        int slot = entity.getSlot();
+
+        if (!isIndexed(entity)) {
+            return;
+        }
+        E moved = slotRegions[slot].remove(slotIndices[slot]);
+
+        // The last entity of the region took the place of the removed one
+        if (moved != null) {
+            slotIndices[moved.getSlot()] = slotIndices[slot];
+        }
+        slotRegions[slot] = null;
+    }
+
+    /**
+     * Moves an entity to another region, if it left the one it is indexed in.
+     */
+    public void update(E entity) {
+        Position position = entity.getPosition();
+
+        if (!isIndexed(entity) || slotRegions[entity.getSlot()].contains(position.getX() >> 3,
+                position.getY() >> 3, position.getZ())) {
+            return;
+        }
+        remove(entity);
+        add(entity);
+    }
+
+    /**
+     * Checks if an entity is in the index, its slot may have been taken over by another entity since it was removed.
+     */
+    private boolean isIndexed(E entity) {
+        int slot = entity.getSlot();
+        return slot >= 0 && slotRegions[slot] != null && slotRegions[slot].get(slotIndices[slot]) == entity;
+    }
+
+    /**
+     * Gets a region.
+     *
+     * @param regionX the X coordinate of the region, the tile X coordinate divided by {@link #REGION_SIZE}
+     * @param regionY the Y coordinate of the region, the tile Y coordinate divided by {@link #REGION_SIZE}
+     * @param z the height level
+     * @return the region, or null if no entity has entered it yet
+     */
+    public Region<E> getRegion(int regionX, int regionY, int z) {
+        Region<E> region = buckets[hash(regionX, regionY, z)];
+
+        while (region != null && !region.contains(regionX, regionY, z)) {
+            region = region.next;
+        }
+        return region;
+    }
+
+    private Region<E> getOrCreateRegion(int regionX, int regionY, int z) {
+        Region<E> region = getRegion(regionX, regionY, z);
+
+        if (region == null) {
+            int bucket = hash(regionX, regionY, z);
+            region = new Region<>(regionX, regionY, z, buckets[bucket]);
+            buckets[bucket] = region;
+        }
+        return region;
+    }
+
+    private static int hash(int regionX, int regionY, int z) {
+        int hash = (regionX * 31 + regionY) * 31 + z;
+        return (hash ^ (hash >>> 12)) & (BUCKETS - 1);
+    }
+
+    /**
+     * The entities standing in one region. Regions are kept once created, as entities tend to revisit them.
+     *
+     * @param <E> the type of entity
+     */
+    public static final class Region<E extends Entity> {
+
+        private final int regionX;
+        private final int regionY;
+        private final int z;
+        private final Region<E> next;
+        private Entity[] entities = new Entity[8];
+        private int size;
+
+        private Region(int regionX, int regionY, int z, Region<E> next) {
+            this.regionX = regionX;
+            this.regionY = regionY;
+            this.z = z;
+            this.next = next;
+        }
+
+        private boolean contains(int regionX, int regionY, int z) {
+            return this.regionX == regionX && this.regionY == regionY && this.z == z;
+        }
+
+        private int add(E entity) {
+            if (size == entities.length) {
+                entities = Arrays.copyOf(entities, size * 2);
+            }
+            entities[size] = entity;
+            return size++;
+        }
+
+        /**
+         * Removes the entity at an index, by moving the last entity into its place.
+         *
+         * @return the entity which was moved, or null if the last entity was removed
+         */
+        @SuppressWarnings("unchecked")
+        private E remove(int index) {
+            E last = (E) entities[--size];
+            entities[size] = null;
+
+            if (index == size) {
+                return null;
+            }
+            entities[index] = last;
+            return last;
+        }
+
+        /**
+         * Gets the amount of entities in this region.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets the entity at an index, from 0 to {@link #size()}.
+         */
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            return (E) entities[index];
+        }
+    }
+}
@@ -74,9 +74,15 @@ public final class NpcUpdateContext extends EntityUpdateContext {
         npcDefinitionUpdateRequired = true;
     }
 
+    /**
+     * Resets all update flags. The buffer is only outdated if an update was required, as it does not change
+     * otherwise.
+     */
     public void resetFlags() {
+        if (isUpdateRequired()) {
+            bufferCache.setOutdated();
+        }
         super.resetFlags();
-        bufferCache.setOutdated();
     }
 
     public boolean isNpcDefinitionUpdateRequired() {
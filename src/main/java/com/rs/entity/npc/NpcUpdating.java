@@ -17,13 +17,13 @@ package com.rs.entity.npc;
  */
 
 import com.rs.WorldHandler;
+import com.rs.entity.LocalEntitySet;
+import com.rs.entity.MovementBits;
 import com.rs.entity.Position;
 import com.rs.entity.player.Player;
 import com.rs.net.StreamBuffer;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Provides static utility methods for updating NPCs.
@@ -33,104 +33,97 @@ import java.util.List;
 public final class NpcUpdating {
 
     /**
-     * Regional player limit.
+     * Checks if an NPC may be added to the local NPCs of a player.
      */
-    private static final int REGION_NPCS_LIMIT = 255;
+    private static final Predicate<Npc> DISCOVERABLE = Npc::isVisible;
 
     /**
      * Updates all NPCs for the given Player.
      */
     public static void update(Player player) {
-        // TODO prioritise updating NPCs based on distance to you
-        // Find other NPCs in local region
-        List<Npc> regionalNpcs = NpcUpdating.updateLocalNpcs(player);
+        // Find other NPCs in local region, they are appended after the current local NPCs, nearest first
+        LocalEntitySet<Npc> localNpcs = player.getNpcs();
+        int localNpcCount = localNpcs.size();
+        int keepDistance = localNpcs.discover(player, WorldHandler.getInstance().getNpcRegions(), DISCOVERABLE);
+        int regionalNpcCount = localNpcs.size() - localNpcCount;
 
         // Calculate state block size
-        int localNpcCount = player.getNpcs().size();
-        int stateBlockSize = NpcUpdating.totalStateBlockSize(player, regionalNpcs);
-        int totalBlockSize = 6 + stateBlockSize + 2*localNpcCount + 5*regionalNpcs.size();
+        int stateBlockSize = NpcUpdating.totalStateBlockSize(player, localNpcCount);
+        int totalBlockSize = 6 + stateBlockSize + 2*localNpcCount + 5*regionalNpcCount;
 
         // Create write buffers
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(totalBlockSize);
-        StreamBuffer.WriteBuffer stateBlock = StreamBuffer.createWriteBuffer(stateBlockSize);
-
-        // Initialize the update packet.
-        out.writeVariableShortHeader(player.getEncryptor(), 65);
-        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
-
-        // Update the NPCs in the local list.
-        out.writeBits(8, localNpcCount);
-
-        for (Iterator<Npc> i = player.getNpcs().iterator(); i.hasNext(); ) {
-            Npc npc = i.next();
-
-            if (npc.getPosition().isViewableFrom(player.getPosition()) && npc.isVisible()) {
-                NpcUpdating.updateNpcMovement(out, npc);
-
-                if (npc.getUpdateContext().isUpdateRequired()) {
-                    NpcUpdating.updateState(stateBlock, npc);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(totalBlockSize);
+        StreamBuffer.WriteBuffer stateBlock = StreamBuffer.acquireWriteBuffer(stateBlockSize);
+
+        try {
+            // Initialize the update packet.
+            out.writeVariableShortHeader(player.getEncryptor(), 65);
+            out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+
+            // Update the NPCs in the local list.
+            out.writeBits(8, localNpcCount);
+            Npc[] npcs = WorldHandler.getInstance().getNpcs();
+
+            for (int i = 0; i < localNpcCount; i++) {
+                Npc npc = localNpcs.get(i);
+
+                if (npc.getPosition().isViewableFrom(player.getPosition()) && npc.isVisible()
+                        && npcs[npc.getSlot()] == npc
+                        && LocalEntitySet.distance(player.getPosition(), npc.getPosition()) <= keepDistance) {
+                    NpcUpdating.updateNpcMovement(out, npc);
+
+                    if (npc.getUpdateContext().isUpdateRequired()) {
+                        NpcUpdating.updateState(stateBlock, npc);
+                    }
+                } else {
+                    // Remove the NPC from the local list.
+                    out.writeBit(true);
+                    out.writeBits(2, 3);
+                    localNpcs.remove(i);
                 }
-            } else {
-                // Remove the NPC from the local list.
-                out.writeBit(true);
-                out.writeBits(2, 3);
-                i.remove();
             }
-        }
-
-        // Update the local NPC list itself.
-        for (Npc npc : regionalNpcs) {
-            player.getNpcs().add(npc);
-            addNpc(out, player, npc);
-            NpcUpdating.updateState(stateBlock, npc);
-        }
 
-        // Append the update block to the packet if need be.
-        if (stateBlock.getBuffer().position() > 0) {
-            out.writeBits(14, 16383);
-            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
-            out.writeBytes(stateBlock.getBuffer());
-        } else {
-            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
-        }
-
-        // Ship the packet out to the client.
-        out.finishVariableShortHeader();
-        player.send(out.getBuffer());
-    }
-
-    /**
-     * Update local NPC list for the given player.
-     */
-    private static List<Npc> updateLocalNpcs(Player player) {
-        List<Npc> npcs = new ArrayList<>();
-
-        for (Npc npc : WorldHandler.getInstance().getNpcs()) {
-            if (player.getNpcs().size() + npcs.size() >= REGION_NPCS_LIMIT) {
-                break; // Local player limit has been reached.
+            // Add the NPCs found in the local region.
+            for (int i = localNpcCount; i < localNpcs.size(); i++) {
+                Npc npc = localNpcs.get(i);
+                addNpc(out, player, npc);
+                NpcUpdating.updateState(stateBlock, npc);
             }
+            localNpcs.compact();
 
-            if (npc == null || player.getNpcs().contains(npc) || !npc.isVisible()
-                    ||!npc.getPosition().isViewableFrom(player.getPosition())) {
-                continue;
+            // Append the update block to the packet if need be.
+            if (stateBlock.getBuffer().position() > 0) {
+                out.writeBits(14, 16383);
+                out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+                out.writeBytes(stateBlock.getBuffer());
+            } else {
+                out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
             }
-            npcs.add(npc);
+
+            // Finish the packet.
+            out.finishVariableShortHeader();
+        } catch (RuntimeException ex) {
+            out.release();
+            throw ex;
+        } finally {
+            stateBlock.release();
         }
-        return npcs;
+
+        // Ship the packet out to the client, this releases it.
+        player.send(out);
     }
 
     /**
      * The total size in bytes of the state block for the given player.
+     *
+     * @param localNpcCount the amount of local NPCs, the NPCs after them were just found in the local region
      */
-    private static int totalStateBlockSize(Player player, List<Npc> regionalNpcs) {
+    private static int totalStateBlockSize(Player player, int localNpcCount) {
+        LocalEntitySet<Npc> localNpcs = player.getNpcs();
         int stateBlockSize = 0;
 
-        for (Npc npc : player.getNpcs()) {
-            stateBlockSize += NpcUpdating.stateBlockSize(player, npc, false);
-        }
-
-        for (Npc npc : regionalNpcs) {
-            stateBlockSize += NpcUpdating.stateBlockSize(player, npc, true);
+        for (int i = 0; i < localNpcs.size(); i++) {
+            stateBlockSize += NpcUpdating.stateBlockSize(player, localNpcs.get(i), i >= localNpcCount);
         }
         return stateBlockSize;
     }
@@ -142,9 +135,9 @@ public final class NpcUpdating {
         NpcUpdateContext ctx = npc.getUpdateContext();
 
         if (!forceAccept)
-            if (!ctx.isUpdateRequired() || !npc.getPosition().isViewableFrom(player.getPosition()) || npc.isVisible())
+            if (!ctx.isUpdateRequired() || !npc.getPosition().isViewableFrom(player.getPosition()) || !npc.isVisible())
                 return 0;
-        return 2 + (ctx.isGraphicsUpdateRequired() ? 4 : 0)
+        return 2 + (ctx.isGraphicsUpdateRequired() ? 6 : 0)
                 + (ctx.isAnimationUpdateRequired() ? 3 : 0)
                 + (ctx.isForcedChatUpdateRequired() ? npc.getForceChatText().length() + 1 : 0)
                 + (ctx.isInteractingNpcUpdateRequired() ? 2 : 0)
@@ -176,36 +169,22 @@ public final class NpcUpdating {
      * @param npc The NPC to update
      */
     private static void updateNpcMovement(StreamBuffer.WriteBuffer out, Npc npc) {
-        if (npc.getPrimaryDirection() == -1) {
-            if (npc.getUpdateContext().isUpdateRequired()) {
-                out.writeBit(true);
-                out.writeBits(2, 0);
-            } else {
-                out.writeBit(false);
-            }
-        } else {
-            out.writeBit(true);
-            out.writeBits(2, 1);
-            out.writeBits(3, npc.getPrimaryDirection());
-            out.writeBit(npc.getUpdateContext().isUpdateRequired());
-        }
+        MovementBits.write(out, npc.getPrimaryDirection(), -1, npc.getUpdateContext().isUpdateRequired());
     }
 
     /**
-     * Updates the state of the NPC to the given update block.
-     *
-     * @param npc   The NPC to update
+     * Encodes the state block of an NPC, unless it is cached, so that it only has to be copied during the parallel
+     * update. This must be called on the game thread, before the players are updated.
      */
-    private static void updateState(StreamBuffer.WriteBuffer block, Npc npc) {
+    public static void encodeStateBlock(Npc npc) {
         NpcUpdateContext ctx = npc.getUpdateContext();
 
         // Check if the result is cached
         if (!ctx.getBufferCache().isOutdated()) {
-            block.writeBytes(ctx.getBufferCache().getBuffer());
             return;
         }
 
-        // Create new result and cache it
+        // Create the block
         StreamBuffer.WriteBuffer result = StreamBuffer.createWriteBuffer(stateBlockSize(null, npc, true));
 
         // First we must calculate and write the mask.
@@ -259,9 +238,20 @@ public final class NpcUpdating {
             appendFaceCoordinates(npc, result);
         }
 
-        // Cache and write the result
-        block.writeBytes(result.getBuffer());
-        ctx.getBufferCache().setBuffer(result.getBuffer());
+        // Cache the result, it is read by several threads at once
+        ctx.getBufferCache().setBuffer(result.getBuffer().asReadOnlyBuffer());
+    }
+
+    /**
+     * Appends the state block of an NPC which was encoded by {@link #encodeStateBlock(Npc)}.
+     */
+    private static void updateState(StreamBuffer.WriteBuffer block, Npc npc) {
+        StreamBuffer.BufferCache cache = npc.getUpdateContext().getBufferCache();
+
+        if (cache.isOutdated()) {
+            throw new IllegalStateException("State block of NPC " + npc.getSlot() + " was not encoded");
+        }
+        block.writeBytes(cache.getBuffer());
     }
 
     /**
@@ -0,0 +1,217 @@
+package com.rs.entity.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.net.StreamBuffer;
+import com.rs.util.EquipmentHelper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The encoded appearance block of a player. It is kept with a snapshot of everything it was encoded from, and is only
+ * encoded again once any of that changes.
+ */
+public final class AppearanceBlock {
+
+    /**
+     * The maximum length of the appearance block.
+     */
+    public static final int MAX_SIZE = 56;
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder rebuilds = new LongAdder();
+    private final int[] equipment = new int[14];
+    private final int[] appearance = new int[7];
+    private final int[] colors = new int[5];
+    private int gender;
+    private long username;
+    private int combatLevel;
+    private int totalLevel;
+    private ByteBuffer block;
+
+    /**
+     * Gets the amount of times an encoded block was reused.
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the amount of times a block was encoded.
+     */
+    public static long getRebuilds() {
+        return rebuilds.sum();
+    }
+
+    /**
+     * Appends the appearance block of a player to a buffer, along with its length.
+     */
+    void append(Player player, StreamBuffer.WriteBuffer out) {
+        if (isOutdated(player)) {
+            encode(player);
+            rebuilds.increment();
+        } else {
+            hits.increment();
+        }
+        out.writeByte(block.position(), StreamBuffer.ValueType.C);
+        out.writeBytes(block);
+    }
+
+    /**
+     * Checks if the appearance of a player changed since this block was encoded.
+     */
+    boolean isOutdated(Player player) {
+        PlayerAttributes attributes = player.getAttributes();
+        return block == null
+                || gender != attributes.getGender()
+                || username != player.getUsername()
+                || combatLevel != attributes.getSkills().getCombatLevel()
+                || totalLevel != attributes.getSkills().getTotalLevel()
+                || !Arrays.equals(equipment, attributes.getEquipment())
+                || !Arrays.equals(appearance, attributes.getAppearance())
+                || !Arrays.equals(colors, attributes.getColors());
+    }
+
+    /**
+     * Encodes the appearance block, and takes a snapshot of what it was encoded from.
+     */
+    private void encode(Player player) {
+        PlayerAttributes attributes = player.getAttributes();
+        StreamBuffer.WriteBuffer block = StreamBuffer.createWriteBuffer(MAX_SIZE);
+
+        block.writeByte(attributes.getGender()); // Gender
+        block.writeByte(0); // Skull icon
+
+        // Player models
+        int[] e = attributes.getEquipment();
+        int[] a = attributes.getAppearance();
+
+        // Hat.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_HEAD] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_HEAD]);
+        } else {
+            block.writeByte(0);
+        }
+
+        // Cape.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_CAPE] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CAPE]);
+        } else {
+            block.writeByte(0);
+        }
+
+        // Amulet.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_AMULET] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_AMULET]);
+        } else {
+            block.writeByte(0);
+        }
+
+        // Weapon.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_WEAPON] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_WEAPON]);
+        } else {
+            block.writeByte(0);
+        }
+
+        // Chest.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_CHEST] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CHEST]);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_CHEST]);
+        }
+
+        // Shield.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_SHIELD] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_SHIELD]);
+        } else {
+            block.writeByte(0);
+        }
+
+        // Arms TODO: Check platebody/non-platebody.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_CHEST] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CHEST]);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_ARMS]);
+        }
+
+        // Legs.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_LEGS] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_LEGS]);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_LEGS]);
+        }
+
+        // Head (with a hat already on).
+        if (EquipmentHelper.isFullHelm(e[EquipmentHelper.EQUIPMENT_SLOT_HEAD])
+                || EquipmentHelper.isFullMask(EquipmentHelper.EQUIPMENT_SLOT_HEAD)) {
+            block.writeByte(0);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_HEAD]);
+        }
+
+        // Hands.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_HANDS] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_HANDS]);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_HANDS]);
+        }
+
+        // Feet.
+        if (e[EquipmentHelper.EQUIPMENT_SLOT_FEET] > 1) {
+            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_FEET]);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_FEET]);
+        }
+
+        // Beard.
+        if (EquipmentHelper.isFullHelm(e[EquipmentHelper.EQUIPMENT_SLOT_HEAD])
+                || EquipmentHelper.isFullMask(EquipmentHelper.EQUIPMENT_SLOT_HEAD)) {
+            block.writeByte(0);
+        } else {
+            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_BEARD]);
+        }
+
+        // Player colors
+        for (int color : attributes.getColors()) {
+            block.writeByte(color);
+        }
+
+        // Movement animations
+        block.writeShort(0x328); // stand
+        block.writeShort(0x337); // stand turn
+        block.writeShort(0x333); // walk
+        block.writeShort(0x334); // turn 180
+        block.writeShort(0x335); // turn 90 cw
+        block.writeShort(0x336); // turn 90 ccw
+        block.writeShort(0x338); // run
+
+        block.writeLong(player.getUsername());
+        block.writeByte(attributes.getSkills().getCombatLevel());
+        block.writeShort(attributes.getSkills().getTotalLevel());
+
+        this.block = block.getBuffer();
+        gender = attributes.getGender();
+        username = player.getUsername();
+        combatLevel = attributes.getSkills().getCombatLevel();
+        totalLevel = attributes.getSkills().getTotalLevel();
+        System.arraycopy(attributes.getEquipment(), 0, equipment, 0, equipment.length);
+        System.arraycopy(attributes.getAppearance(), 0, appearance, 0, appearance.length);
+        System.arraycopy(attributes.getColors(), 0, colors, 0, colors.length);
+    }
+}
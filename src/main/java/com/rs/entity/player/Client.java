@@ -17,27 +17,27 @@ package com.rs.entity.player;
  */
 
 import com.rs.entity.Entity;
-import com.rs.entity.Position;
-import com.rs.entity.action.PublicChat;
-import com.rs.entity.player.infractions.ReportAbuse;
 import com.rs.entity.player.skills.SkillType;
 import com.rs.entity.player.skills.Skills;
 import com.rs.net.HostGateway;
 import com.rs.net.ISAACCipher;
+import com.rs.net.OutboundQueue;
+import com.rs.net.Packet;
+import com.rs.net.PacketRing;
 import com.rs.net.StreamBuffer;
-import com.rs.plugin.PluginHandler;
+import com.rs.net.packet.PacketBudget;
+import com.rs.net.packet.PacketDecoderRegistry;
 import com.rs.task.TaskHandler;
 import com.rs.util.EquipmentHelper;
 import com.rs.util.Misc;
-import com.rs.entity.player.infractions.ReportAbuseRule;
 import com.rs.util.WeaponDefinition;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
-import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -80,12 +80,29 @@ public abstract class Client extends Entity {
     };
     private final SelectionKey key;
     private final ByteBuffer inData;
+    /**
+     * Packets which have been decoded, but not yet handled by the game thread.
+     */
+    private final PacketRing inboundPackets = new PacketRing(16 * 1024);
+    /**
+     * Reads the payload of the packet being handled.
+     */
+    private final StreamBuffer.ReadBuffer packetReader = StreamBuffer.createReadBuffer(ByteBuffer.allocate(0));
+    private final PacketBudget packetBudget = new PacketBudget();
+    /**
+     * Packets which have been sent, but not yet written to the socket.
+     */
+    private final OutboundQueue outboundQueue = new OutboundQueue();
     private final Player player = (Player) this;
     private final Misc.Stopwatch timeoutStopwatch = new Misc.Stopwatch();
     private SocketChannel socketChannel;
-    private ConnectionStage connectionStage;
+    private volatile ConnectionStage connectionStage;
+    private volatile boolean writeInterest;
     private int packetOpcode = -1;
     private int packetLength = -1;
+    private String loginUsername;
+    private String loginPassword;
+    private int loginResponse;
     private ISAACCipher encryptor;
     private ISAACCipher decryptor;
 
@@ -105,9 +122,16 @@ public abstract class Client extends Entity {
     }
 
     /**
-     * Called after the player finishes logging in.
+     * Called by a login worker to check the credentials of the player, and load their attributes.
+     *
+     * @return the login response code
      */
-    public abstract void login(String username, String password) throws Exception;
+    public abstract int authenticate(String username, String password) throws Exception;
+
+    /**
+     * Called on the game thread with the response of {@link #authenticate(String, String)}.
+     */
+    public abstract void finishLogin(int response) throws Exception;
 
     /**
      * Called before the player disconnects.
@@ -142,12 +166,12 @@ public abstract class Client extends Entity {
      * @param exp     the skill experience
      */
     public void sendSkill(int skillId, int level, int exp) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(7);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(7);
         out.writeHeader(getEncryptor(), 134);
         out.writeByte(skillId);
         out.writeInt(exp, StreamBuffer.ByteOrder.MIDDLE);
         out.writeByte(level);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -158,7 +182,7 @@ public abstract class Client extends Entity {
      * @param itemAmount the item amount
      */
     public void sendEquipment(int slot, int itemId, int itemAmount) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(13);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(13);
         out.writeVariableShortHeader(getEncryptor(), 34);
         out.writeShort(1688);
         out.writeByte(slot);
@@ -171,7 +195,7 @@ public abstract class Client extends Entity {
             out.writeByte(itemAmount);
         }
         out.finishVariableShortHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -180,7 +204,7 @@ public abstract class Client extends Entity {
     public void sendInventory() {
         int[] inv = player.getAttributes().getInventory();
         int[] invN =  player.getAttributes().getInventoryN();
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(10 + inv.length*7);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(10 + inv.length*7);
         out.writeVariableShortHeader(getEncryptor(), 53);
         out.writeShort(3214);
         out.writeShort(inv.length);
@@ -195,7 +219,7 @@ public abstract class Client extends Entity {
             out.writeShort(inv[i] + 1, StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
         }
         out.finishVariableShortHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -204,11 +228,11 @@ public abstract class Client extends Entity {
      * @param message the message
      */
     public void sendMessage(String message) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(message.length() + 3);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(message.length() + 3);
         out.writeVariableHeader(getEncryptor(), 253);
         out.writeString(message);
         out.finishVariableHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -218,11 +242,11 @@ public abstract class Client extends Entity {
      * @param form   the interface ID
      */
     public void sendSidebarInterface(int menuId, int form) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(4);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(4);
         out.writeHeader(getEncryptor(), 71);
         out.writeShort(form);
         out.writeByte(menuId, StreamBuffer.ValueType.A);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -231,21 +255,21 @@ public abstract class Client extends Entity {
     public void sendMapRegion() {
         player.getCurrentRegion().setAs(player.getPosition());
         player.setNeedsPlacement(true);
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(5);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(5);
         out.writeHeader(getEncryptor(), 73);
         out.writeShort(player.getPosition().getRegionX() + 6, StreamBuffer.ValueType.A);
         out.writeShort(player.getPosition().getRegionY() + 6);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sends your run energy to the client.
      */
     public void sendRunEnergy() {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(2);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(2);
         out.writeHeader(getEncryptor(), 110);
         out.writeByte((int)player.getAttributes().getRunEnergy());
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -253,34 +277,34 @@ public abstract class Client extends Entity {
      * @param status 0 is loading, 1 is connecting, 2 is loaded.
      */
     public void sendFriendsListStatus(int status) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(2);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(2);
         out.writeHeader(getEncryptor(), 221);
         out.writeByte(status);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sends an added friend and the world they're on (9 + N for world N or 0 for offline).
      */
     public void sendAddFriend(long name, int worldNo) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(10);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(10);
         out.writeHeader(getEncryptor(), 50);
         out.writeLong(name);
         out.writeByte(worldNo);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sends ignored friends.
      */
     public void sendAddIgnores(Collection<Long> names) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(3 + names.size()*8);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(3 + names.size()*8);
         out.writeVariableShortHeader(getEncryptor(), 214);
 
         for (long name : names)
             out.writeLong(name);
         out.finishVariableShortHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -291,7 +315,7 @@ public abstract class Client extends Entity {
      * @param text The message to send, encoded in ASCII.
      */
     public void sendPrivateMessage(long name, int messageCounter, Player.Privilege privilege, byte[] text) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(15 + text.length);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(15 + text.length);
         out.writeVariableHeader(getEncryptor(), 196);
         out.writeLong(name);
         out.writeInt(messageCounter);
@@ -300,7 +324,7 @@ public abstract class Client extends Entity {
         for (byte b : text)
             out.writeByte(b);
         out.finishVariableHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -308,10 +332,10 @@ public abstract class Client extends Entity {
      * Make sure you also call {@link Player#setCurrentInterfaceId(int)} for packet injection avoiding purposes.
      */
     public void sendInterface(int interfaceId) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(3);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(3);
         out.writeHeader(getEncryptor(), 97);
         out.writeShort(interfaceId);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -320,62 +344,62 @@ public abstract class Client extends Entity {
      * purposes.
      */
     public void sendClearScreen() {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(1);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(1);
         out.writeHeader(getEncryptor(), 219);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Changes a client-side setting to the specified value.
      */
     public void sendClientSetting(int settingId, int value) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(4);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(4);
         out.writeHeader(getEncryptor(), 36);
         out.writeShort(settingId, StreamBuffer.ByteOrder.LITTLE);
         out.writeByte(value);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sends a message telling the client to log out.
      */
     public void sendLogout() {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(1);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(1);
         out.writeHeader(getEncryptor(), 109);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sets the text shown on an interface.
      */
     public void sendInterfaceText(int interfaceId, String text) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(6 + text.length());
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(6 + text.length());
         out.writeVariableShortHeader(getEncryptor(), 126);
         out.writeString(text);
         out.writeShort(interfaceId, StreamBuffer.ValueType.A);
         out.finishVariableShortHeader();
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sets the item shown on an interface.
      */
     public void sendInterfaceItem(int interfaceId, int itemId, int zoom) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(7);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(7);
         out.writeHeader(getEncryptor(), 246);
         out.writeShort(interfaceId, StreamBuffer.ByteOrder.LITTLE);
         out.writeShort(zoom);
         out.writeShort(itemId);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
      * Sends a packet that tells the client to reset all button states.
      */
     public void sendResetAllButtonStates() {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(1);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(1);
         out.writeHeader(getEncryptor(), 68);
-        send(out.getBuffer());
+        send(out);
     }
 
     public void sendWeaponInterface() {
@@ -403,12 +427,12 @@ public abstract class Client extends Entity {
      * Sends chat filter modes.
      */
     public void sendChatModes(int publicChatMode, int privateChatMode, int tradeMode) {
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(4);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(4);
         out.writeHeader(getEncryptor(), 206);
         out.writeByte(publicChatMode);
         out.writeByte(privateChatMode);
         out.writeByte(tradeMode);
-        send(out.getBuffer());
+        send(out);
     }
 
     /**
@@ -428,197 +452,67 @@ public abstract class Client extends Entity {
         try {
             TaskHandler.remove(player);
             logout();
+            flush();
             getSocketChannel().close();
         } catch (Exception ex) {
             ex.printStackTrace();
         } finally {
             HostGateway.exit(getSocketChannel().socket().getInetAddress().getHostAddress());
             key.cancel();
+            outboundQueue.close();
         }
     }
 
     /**
-     * Handles the current packet.
+     * Handles the packets queued by {@link #handleIncomingData()}, as far as the packet budget of this tick allows.
+     * This must be called on the game thread.
      */
-    private void handlePacket() {
-        timeoutStopwatch.reset();
-        int positionBefore = inData.position();
-        StreamBuffer.ReadBuffer in = StreamBuffer.createReadBuffer(inData);
+    public void processInboundPackets() {
+        Packet packet;
 
-        // Handle the packet.
-        try {
-            switch (packetOpcode) {
-                case 145: // Remove item.
-                    int interfaceID = in.readShort(StreamBuffer.ValueType.A);
-                    int slot = in.readShort(StreamBuffer.ValueType.A);
-                    in.readShort(StreamBuffer.ValueType.A); // Item ID.
-
-                    if (interfaceID == 1688) {
-                        player.attributes.unequip(slot, player);
-                    }
-                    break;
-                case 41: // Equip item.
-                    in.readShort(); // Item ID.
-                    slot = in.readShort(StreamBuffer.ValueType.A);
-                    in.readShort(); // Interface ID.
-                    player.attributes.equip(slot, player);
-                    break;
-                case 101: // Design character screen.
-                    int gender = in.readByte();
-                    int[] appearance = new int[7];
-                    int[] colors = new int[5];
-
-                    for (int i = 0; i < appearance.length; i++)
-                        appearance[i] = in.readByte();
-
-                    for (int i = 0; i < colors.length; i++)
-                        colors[i] = in.readByte();
-
-                    // Validate the interface is open
-                    if (player.getCurrentInterfaceId() != 3559)
-                        break;
-
-                    // Validate values
-                    if (gender != 0 && gender != 1)
-                        break;
-
-                    if (!Misc.validateColors(colors) || !Misc.validateAppearance(appearance))
-                        break;
-
-                    // Set changes
-                    player.getAttributes().setGender(gender);
-                    System.arraycopy(colors, 0, player.getAttributes().getColors(), 0, colors.length);
-                    System.arraycopy(appearance, 0, player.getAttributes().getAppearance(), 0, appearance.length);
-
-                    // Set update flags
-                    player.getUpdateContext().setAppearanceUpdateRequired();
-                    break;
-                case 95: // Chat modes.
-                    int publicChatMode = in.readByte(); // 0-3
-                    int privateChatMode = in.readByte(); // 0-2
-                    int tradeMode = in.readByte(); // 0-2
-
-                    // Validate values
-                    if (!Misc.in(publicChatMode, 0, 3) || !Misc.in(privateChatMode, 0, 2) || !Misc.in(tradeMode, 0, 2))
-                        break;
-
-                    // Ignore if no change was made
-                    PlayerSettings settings = player.getAttributes().getSettings();
-
-                    if (publicChatMode == settings.getPublicChatMode()
-                            && privateChatMode == settings.getPrivateChatMode()
-                            && tradeMode == settings.getTradeMode())
-                        break;
-                    PluginHandler.dispatchModifyChatMode(player, publicChatMode, privateChatMode, tradeMode);
-                    settings.setPublicChatMode(publicChatMode);
-                    settings.setPrivateChatMode(privateChatMode);
-                    settings.setTradeMode(tradeMode);
-                    break;
-                case 185: // Button clicking.
-                    PluginHandler.dispatchActionButton(player, StreamBuffer.hexToInt(in.readBytes(2)));
-                    break;
-                case 133: // Add ignore.
-                    PluginHandler.dispatchAddIgnore(player, in.readLong());
-                    break;
-                case 74: // Remove ignore.
-                    PluginHandler.dispatchRemoveIgnore(player, in.readLong());
-                    break;
-                case 188: // Add friend.
-                    PluginHandler.dispatchAddFriend(player, in.readLong());
-                    break;
-                case 215: // Remove friend.
-                    PluginHandler.dispatchRemoveFriend(player, in.readLong());
-                    break;
-                case 214: // Move item.
-                    int frameId = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
-                    int insertMode = in.readByte();
-                    int initialSlot = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
-                    int endSlot = in.readShort(StreamBuffer.ByteOrder.LITTLE);
-
-                    // Inventory
-                    if (frameId == 3214) {
-                        player.getAttributes().swapInventoryItem(initialSlot, endSlot);
-                    }
-                    break;
-                case 126: // Private message.
-                    long username = in.readLong();
-                    int chatLength = (packetLength - 8);
-                    byte[] text = in.readBytes(chatLength);
-                    PluginHandler.dispatchPrivateMessage(player, username, text);
-                    break;
-                case 4: // Player chat.
-                    int effects = in.readByte(false, StreamBuffer.ValueType.S);
-                    int color = in.readByte(false, StreamBuffer.ValueType.S);
-                    chatLength = (packetLength - 2);
-                    text = in.readBytesReverse(chatLength, StreamBuffer.ValueType.A);
-                    PluginHandler.dispatchPublicMessage(player, new PublicChat(color, effects, text));
-                    break;
-                case 103: // Player command.
-                    String command = in.readString();
-                    String[] split = command.split(" ");
-                    String[] args = Arrays.copyOfRange(split, 1, split.length);
-                    PluginHandler.dispatchCommand(player, split[0].toLowerCase(), args);
-                    break;
-                case 218: // Report abuse.
-                    username = in.readLong();
-                    int ruleId = in.readByte();
-                    boolean muteFor48Hours = in.readByte() == 1;
-                    ReportAbuse reportAbuse = new ReportAbuse(Misc.decodeBase37(username), ReportAbuseRule.ofId(ruleId),
-                            muteFor48Hours);
-                    PluginHandler.dispatchReportAbuse(player, reportAbuse);
-                    break;
-                case 248: // Movement.
-                case 164: // ^
-                case 98: // ^
-                    int length = packetLength;
-
-                    if (packetOpcode == 248) {
-                        length -= 14;
-                    }
-                    int steps = (length - 5) / 2;
-                    int[][] path = new int[steps][2];
-                    int firstStepX = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
-
-                    for (int i = 0; i < steps; i++) {
-                        path[i][0] = in.readByte();
-                        path[i][1] = in.readByte();
-                    }
-                    int firstStepY = in.readShort(StreamBuffer.ByteOrder.LITTLE);
-                    player.getMovementHandler().reset();
-                    player.getMovementHandler().setRunPath(in.readByte(StreamBuffer.ValueType.C) == 1);
-                    player.getMovementHandler().addToPath(new Position(firstStepX, firstStepY));
-
-                    for (int i = 0; i < steps; i++) {
-                        path[i][0] += firstStepX;
-                        path[i][1] += firstStepY;
-                        player.getMovementHandler().addToPath(new Position(path[i][0], path[i][1]));
-                    }
-                    player.getMovementHandler().finish();
-                    break;
-                default:
-                    break;
+        while ((packet = inboundPackets.poll()) != null) {
+            if (!packetBudget.consume(packet.getOpcode())) {
+                // Leave this packet and the ones after it for the next tick.
+                inboundPackets.pushBack();
+                break;
             }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        } finally {
-            // Make sure we have finished reading all of this packet.
-            int read = inData.position() - positionBefore;
+            handlePacket(packet);
+        }
+        inboundPackets.release();
 
-            for (int i = read; i < packetLength; i++) {
-                inData.get();
-            }
+        if (packetBudget.finishTick(inboundPackets.size() > 0)) {
+            System.out.println(this + " has been sending more packets than its budget for too long.");
+            disconnect();
         }
     }
 
     /**
-     * Handles a received packet.
+     * Handles the given packet.
+     */
+    private void handlePacket(Packet packet) {
+        timeoutStopwatch.reset();
+        PacketDecoderRegistry.decode(player, packet, packetReader.wrap(packet.getPayload()));
+    }
+
+    /**
+     * Reads and decodes any received data. Decoded packets are queued until {@link #processInboundPackets()} is
+     * called, so this may be called by a network thread.
+     *
+     * @return the amount of bytes read, or -1 if the client should be disconnected
      */
-    public final void handleIncomingData() {
+    public final int handleIncomingData() {
         try {
+            // Leave any data in the socket until the login worker has answered, so we are not woken up by it
+            if (isAwaitingLogin()) {
+                updateInterestOps();
+                return 0;
+            }
+
             // Read the incoming data.
-            if (getSocketChannel().read(inData) == -1) {
-                disconnect();
-                return;
+            int read = getSocketChannel().read(inData);
+
+            if (read == -1) {
+                return -1;
             }
 
             // Handle the received data.
@@ -627,7 +521,9 @@ public abstract class Client extends Entity {
             while (inData.hasRemaining()) {
                 // Handle login if we need to.
                 if (getConnectionStage() != ConnectionStage.LOGGED_IN) {
-                    handleLogin();
+                    if (!handleLogin()) {
+                        return -1;
+                    }
                     break;
                 }
 
@@ -643,38 +539,52 @@ public abstract class Client extends Entity {
 
                     if (packetLength == -1) {
                         if (!inData.hasRemaining()) {
-                            inData.flip();
-                            inData.compact();
                             break;
                         }
                         packetLength = inData.get() & 0xff;
                     }
                 }
 
-                // Decode the packet payload.
-                if (inData.remaining() >= packetLength) {
-                    handlePacket();
-
-                    // Reset for the next packet.
-                    packetOpcode = -1;
-                    packetLength = -1;
-                } else {
-                    inData.flip();
-                    inData.compact();
+                // Wait for the rest of the payload if it has not arrived yet.
+                if (inData.remaining() < packetLength) {
                     break;
                 }
+
+                // Queue the packet payload.
+                if (!inboundPackets.offer(packetOpcode, inData, packetLength)) {
+                    System.out.println(this + " is sending packets faster than they can be handled.");
+                    return -1;
+                }
+
+                // Reset for the next packet.
+                packetOpcode = -1;
+                packetLength = -1;
             }
 
-            // Clear everything for the next read.
-            inData.clear();
+            // Keep any partially received packet for the next read.
+            inData.compact();
+            return read;
         } catch (Exception ex) {
             ex.printStackTrace();
-            disconnect();
+            return -1;
         }
     }
 
     /**
-     * Sends the buffer to the socket.
+     * Queues the buffer to be written to the socket, and releases it back to its pool.
+     *
+     * @param buffer the buffer
+     */
+    public void send(StreamBuffer.WriteBuffer buffer) {
+        try {
+            send(buffer.getBuffer());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Queues the buffer to be written to the socket, when this client is next flushed.
      *
      * @param buffer the buffer
      */
@@ -682,25 +592,108 @@ public abstract class Client extends Entity {
         // Prepare the buffer for writing.
         buffer.flip();
 
+        // ...and queue it!
+        if (!outboundQueue.append(buffer)) {
+            System.out.println(this + " is not reading its data fast enough.");
+            key.cancel();
+        }
+    }
+
+    /**
+     * Writes as much queued data as possible to the socket. If the socket cannot accept all of it, the rest is
+     * written once the socket becomes writable again.
+     */
+    public void flush() {
+        synchronized (outboundQueue) {
+            try {
+                setWriteInterest(!outboundQueue.flush(getSocketChannel()));
+            } catch (IOException ex) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sets whether the selector should notify us once the socket becomes writable.
+     */
+    private void setWriteInterest(boolean interested) {
+        writeInterest = interested;
+        updateInterestOps();
+    }
+
+    /**
+     * Updates the operations the selector notifies us of. The socket is not read while the login is being
+     * authenticated, and written to only while data is queued.
+     */
+    private void updateInterestOps() {
+        synchronized (key) {
+            int ops = isAwaitingLogin() ? 0 : SelectionKey.OP_READ;
+
+            if (writeInterest) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+
+            try {
+                if (key.interestOps() != ops) {
+                    key.interestOps(ops);
+                    key.selector().wakeup();
+                }
+            } catch (CancelledKeyException ex) {
+                // The client is disconnecting
+            }
+        }
+    }
+
+    /**
+     * Checks if the login of this client is being authenticated, or waiting to be completed.
+     */
+    private boolean isAwaitingLogin() {
+        ConnectionStage stage = getConnectionStage();
+        return stage == ConnectionStage.AUTHENTICATING || stage == ConnectionStage.LOADING;
+    }
+
+    /**
+     * Authenticates the credentials decoded by {@link #handleLogin()}. This is called by a login worker.
+     */
+    public void authenticate() {
+        String username = loginUsername;
+        String password = loginPassword;
+        loginUsername = null;
+        loginPassword = null;
+
         try {
-            // ...and write it!
-            getSocketChannel().write(buffer);
-        } catch (IOException ex) {
-            disconnect();
+            loginResponse = authenticate(username, password);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            loginResponse = Misc.LOGIN_RESPONSE_PLEASE_TRY_AGAIN;
+        }
+    }
+
+    /**
+     * Finishes logging in with the response of {@link #authenticate()}. This must be called on the game thread.
+     */
+    public void completeLogin() throws Exception {
+        finishLogin(loginResponse);
+
+        // The login may have been rejected
+        if (getConnectionStage() != ConnectionStage.LOGGED_OUT) {
+            setConnectionStage(ConnectionStage.LOGGED_IN);
+            updateInterestOps();
         }
     }
 
     /**
      * Handles the login process of the client.
+     *
+     * @return false if the client should be disconnected
      */
-    private void handleLogin() throws Exception {
+    private boolean handleLogin() throws Exception {
         timeoutStopwatch.reset();
 
         switch (getConnectionStage()) {
             case CONNECTED:
                 if (inData.remaining() < 2) {
-                    inData.compact();
-                    return;
+                    return true;
                 }
 
                 // Validate the request.
@@ -709,22 +702,21 @@ public abstract class Client extends Entity {
 
                 if (request != 14) {
                     System.err.println("Invalid login request: " + request);
-                    disconnect();
-                    return;
+                    return false;
                 }
 
                 // Write the response.
-                StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(17);
+                StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(17);
                 out.writeLong(0); // First 8 bytes are ignored by the client.
                 out.writeByte(0); // The response opcode, 0 for logging in.
                 out.writeLong(new SecureRandom().nextLong()); // SSK.
-                send(out.getBuffer());
+                send(out);
+                flush();
                 setConnectionStage(ConnectionStage.LOGGING_IN);
                 break;
             case LOGGING_IN:
                 if (inData.remaining() < 2) {
-                    inData.compact();
-                    return;
+                    return true;
                 }
 
                 // Validate the login type.
@@ -732,17 +724,15 @@ public abstract class Client extends Entity {
 
                 if (loginType != 16 && loginType != 18) {
                     System.err.println("Invalid login type: " + loginType);
-                    disconnect();
-                    return;
+                    return false;
                 }
 
                 // Ensure that we can read all of the login block.
                 int blockLength = inData.get() & 0xff;
 
                 if (inData.remaining() < blockLength) {
-                    inData.flip();
-                    inData.compact();
-                    return;
+                    inData.position(inData.position() - 2);
+                    return true;
                 }
 
                 // Read the login block.
@@ -754,8 +744,7 @@ public abstract class Client extends Entity {
 
                 if (clientVersion != 317) {
                     System.err.println("Invalid client version: " + clientVersion);
-                    disconnect();
-                    return;
+                    return false;
                 }
 
                 in.readByte(); // Skip the high/low memory version.
@@ -773,8 +762,7 @@ public abstract class Client extends Entity {
 
                 if (rsaOpcode != 10) {
                     System.err.println("Unable to decode RSA block properly!");
-                    disconnect();
-                    return;
+                    return false;
                 }
 
                 // Set up the ISAAC ciphers.
@@ -790,14 +778,14 @@ public abstract class Client extends Entity {
 
                 // Read the user authentication.
                 in.readInt(); // Skip the user ID.
-                String username = in.readString();
-                String password = in.readString();
+                loginUsername = in.readString();
+                loginPassword = in.readString();
 
-                // Attempting to log in
-                login(username, password);
-                setConnectionStage(ConnectionStage.LOGGED_IN);
+                // A login worker will authenticate the client
+                setConnectionStage(ConnectionStage.AUTHENTICATING);
                 break;
         }
+        return true;
     }
 
     /**
@@ -878,7 +866,7 @@ public abstract class Client extends Entity {
      * @author blakeman8192
      */
     public enum ConnectionStage {
-        CONNECTED, LOGGING_IN, LOGGED_IN, LOGGED_OUT
+        CONNECTED, LOGGING_IN, AUTHENTICATING, LOADING, LOGGED_IN, LOGGED_OUT
     }
 
 }
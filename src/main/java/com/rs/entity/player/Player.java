@@ -19,6 +19,7 @@ package com.rs.entity.player;
 import com.rs.Server;
 import com.rs.Settings;
 import com.rs.WorldHandler;
+import com.rs.entity.LocalEntitySet;
 import com.rs.entity.Position;
 import com.rs.entity.npc.Npc;
 import com.rs.entity.action.*;
@@ -31,8 +32,6 @@ import com.rs.util.Tickable;
 
 import java.nio.channels.SelectionKey;
 import java.nio.file.NoSuchFileException;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * Represents a logged-in player.
@@ -45,8 +44,8 @@ public final class Player extends Client implements Tickable {
     private static final int[] SIDEBAR_INTERFACE_IDS = {
             -1, 3917, 638, 3213, 1644, 5608, 1151, -1, 5065, 5715, 2449, 4445, 147, 6299
     };
-    private final List<Player> players = new LinkedList<>();
-    private final List<Npc> npcs = new LinkedList<>();
+    private final LocalEntitySet<Player> players = new LocalEntitySet<>(2048);
+    private final LocalEntitySet<Npc> npcs = new LocalEntitySet<>(8192);
     PlayerAttributes attributes = new PlayerAttributes();
     private long username;
     private int currentWeaponInterfaceId = -2;
@@ -65,6 +64,10 @@ public final class Player extends Client implements Tickable {
      * If other players cannot see this player.
      */
     private boolean hidden;
+    private boolean newPlayer;
+    private final AppearanceBlock appearanceBlock = new AppearanceBlock();
+    private final UpdateBudget updateBudget = new UpdateBudget();
+    private String reservedUsername;
 
     /**
      * Creates a new Player.
@@ -79,15 +82,10 @@ public final class Player extends Client implements Tickable {
     }
 
     /**
-     * Performs processing for this player.
+     * Performs processing for this player. This may be called from a world worker thread, so it must only change the
+     * player itself.
      */
     public void tick() throws Exception {
-        // If no is received packet for more than 5 seconds, disconnect.
-        if (getTimeoutStopwatch().elapsed() > 5000) {
-            System.out.println(this + " timed out.");
-            disconnect();
-            return;
-        }
         getMovementHandler().tick();
     }
 
@@ -98,7 +96,14 @@ public final class Player extends Client implements Tickable {
         super.reset();
     }
 
-    public void login(String username, String password) throws Exception {
+    /**
+     * Checks the credentials of the player, and loads their attributes. This is called by a login worker, so it must
+     * not touch the game world.
+     *
+     * @return the login response code
+     */
+    @Override
+    public int authenticate(String username, String password) throws Exception {
         Server server = Server.getInstance();
         Settings settings = server.getSettings();
         int response = Misc.LOGIN_RESPONSE_OK;
@@ -107,18 +112,19 @@ public final class Player extends Client implements Tickable {
         attributes.setUsername(username);
         attributes.setPassword(settings.isHashingPasswords() ? Misc.hashSha256(password) : password);
 
-        // Check if the player is already logged in.
-        if (WorldHandler.getInstance().isPlayerOnline(username)) {
+        // Check if the player is already logged in, or is logging in elsewhere.
+        if (WorldHandler.getInstance().reserveUsername(username)) {
+            reservedUsername = username;
+        } else {
             response = Misc.LOGIN_RESPONSE_ACCOUNT_ONLINE;
         }
 
-        // Load the player and send the login response.
+        // Load the player.
         PlayerAttributes attributes;
         boolean validPassword = true;
-        boolean newPlayer = false;
 
         try {
-            attributes = server.getPlayerFileHandler().load(this.attributes.getUsername());
+            attributes = server.getSaveService().load(this.attributes.getUsername());
             validPassword = attributes.getPassword().equals(getAttributes().getPassword());
             this.attributes = attributes;
         } catch (NoSuchFileException e) {
@@ -148,19 +154,41 @@ public final class Player extends Client implements Tickable {
         if (ConnectionThrottle.throttled(getHost())) {
             response = Misc.LOGIN_RESPONSE_LOGIN_ATTEMPTS_EXCEEDED;
         }
+        return response;
+    }
+
+    /**
+     * Sends the login response, and either starts the session or disconnects. This must be called on the game thread.
+     */
+    @Override
+    public void finishLogin(int response) {
+        WorldHandler world = WorldHandler.getInstance();
+
+        // The client disconnected while it was being authenticated
+        if (getConnectionStage() == ConnectionStage.LOGGED_OUT) {
+            if (reservedUsername != null) {
+                world.releaseUsername(reservedUsername);
+            }
+            return;
+        }
 
         // Sending response
-        StreamBuffer.WriteBuffer resp = StreamBuffer.createWriteBuffer(3);
+        StreamBuffer.WriteBuffer resp = StreamBuffer.acquireWriteBuffer(3);
         resp.writeByte(response);
         resp.writeByte(getAttributes().getPrivilege().toInt());
         resp.writeByte(0);
-        send(resp.getBuffer());
+        send(resp);
 
         if (response != Misc.LOGIN_RESPONSE_OK) {
             disconnect();
         } else {
             initSession(newPlayer);
         }
+
+        // The username is now either held by the registered player, or free again
+        if (reservedUsername != null) {
+            world.releaseUsername(reservedUsername);
+        }
     }
 
     private void initSession(boolean newPlayer) {
@@ -189,14 +217,18 @@ public final class Player extends Client implements Tickable {
     }
 
     public void logout() throws Exception {
-        WorldHandler.getInstance().unregister(this);
         setConnectionStage(ConnectionStage.LOGGED_OUT);
-        PluginHandler.dispatchLogout(this);
-        System.out.println(this + " has logged out.");
 
-        if (getSlot() != -1) {
-            Server.getInstance().getPlayerFileHandler().save(attributes);
+        try {
+            PluginHandler.dispatchLogout(this);
+        } finally {
+            // The save is requested while the username is still taken, so a login which follows it loads this save
+            if (getSlot() != -1) {
+                Server.getInstance().getSaveService().save(attributes);
+            }
+            WorldHandler.getInstance().unregister(this);
         }
+        System.out.println(this + " has logged out.");
     }
 
     @Override
@@ -212,6 +244,7 @@ public final class Player extends Client implements Tickable {
     public void teleport(Position position) {
         getMovementHandler().reset();
         getPosition().setAs(position);
+        WorldHandler.getInstance().getPlayerRegions().update(this);
         setResetMovementQueue(true);
         setNeedsPlacement(true);
         sendMapRegion();
@@ -241,14 +274,28 @@ public final class Player extends Client implements Tickable {
         return (PlayerUpdateContext)super.getUpdateContext();
     }
 
-    public List<Player> getPlayers() {
+    /**
+     * Gets the players this player can see.
+     */
+    public LocalEntitySet<Player> getPlayers() {
         return players;
     }
 
-    public List<Npc> getNpcs() {
+    /**
+     * Gets the NPCs this player can see.
+     */
+    public LocalEntitySet<Npc> getNpcs() {
         return npcs;
     }
 
+    public AppearanceBlock getAppearanceBlock() {
+        return appearanceBlock;
+    }
+
+    public UpdateBudget getUpdateBudget() {
+        return updateBudget;
+    }
+
     public PlayerAttributes getAttributes() {
         return attributes;
     }
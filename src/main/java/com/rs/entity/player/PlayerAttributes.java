@@ -34,6 +34,18 @@ import java.util.Map;
  */
 public final class PlayerAttributes {
 
+    public static final int DIRTY_INVENTORY = 1;
+    public static final int DIRTY_EQUIPMENT = 1 << 1;
+    public static final int DIRTY_SKILLS = 1 << 2;
+    public static final int DIRTY_FRIENDS = 1 << 3;
+    public static final int DIRTY_SETTINGS = 1 << 4;
+    public static final int DIRTY_POSITION = 1 << 5;
+    public static final int DIRTY_APPEARANCE = 1 << 6;
+    /**
+     * The password, privilege, run energy and infractions.
+     */
+    public static final int DIRTY_ACCOUNT = 1 << 7;
+
     private String username;
     private String password;
     private Position position = new Position(0, 0);
@@ -51,6 +63,13 @@ public final class PlayerAttributes {
     private final Map<Long, String> friends = new HashMap<>();
     private final Map<Long, String> ignored = new HashMap<>();
     private final PlayerInfractions infractions = new PlayerInfractions();
+    /**
+     * The parts of the attributes which changed since they were last saved, settings and skills keep their own flag.
+     */
+    private transient int dirty;
+    private transient int savedX;
+    private transient int savedY;
+    private transient int savedZ;
 
     public int[] getColors() {
         return colors;
@@ -80,6 +99,78 @@ public final class PlayerAttributes {
         return infractions;
     }
 
+    /**
+     * Creates a deep copy of these attributes, which can be saved on another thread while the player plays on.
+     */
+    public PlayerAttributes snapshot() {
+        PlayerAttributes copy = new PlayerAttributes();
+        copy.username = username;
+        copy.password = password;
+        copy.position = new Position(position.getX(), position.getY(), position.getZ());
+        copy.privilege = privilege;
+        copy.settings = settings.copy();
+        copy.skills = skills == null ? null : skills.copy();
+        copy.gender = gender;
+        copy.runEnergy = runEnergy;
+        System.arraycopy(appearance, 0, copy.appearance, 0, appearance.length);
+        System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+        System.arraycopy(inventory, 0, copy.inventory, 0, inventory.length);
+        System.arraycopy(inventoryN, 0, copy.inventoryN, 0, inventoryN.length);
+        System.arraycopy(equipment, 0, copy.equipment, 0, equipment.length);
+        System.arraycopy(equipmentN, 0, copy.equipmentN, 0, equipmentN.length);
+        copy.friends.putAll(friends);
+        copy.ignored.putAll(ignored);
+        infractions.copyTo(copy.infractions);
+        return copy;
+    }
+
+    /**
+     * Marks parts of the attributes as changed since they were last saved, see the DIRTY_ constants.
+     */
+    public void markDirty(int parts) {
+        dirty |= parts;
+    }
+
+    /**
+     * Gets the parts of the attributes which changed since they were last saved.
+     */
+    public int getDirty() {
+        int parts = dirty;
+
+        if (settings.isDirty()) {
+            parts |= DIRTY_SETTINGS;
+        }
+
+        if (skills != null && skills.isDirty()) {
+            parts |= DIRTY_SKILLS;
+        }
+
+        // The position is moved in place every step, so it is compared with the saved position instead
+        if (position.getX() != savedX || position.getY() != savedY || position.getZ() != savedZ) {
+            parts |= DIRTY_POSITION;
+        }
+        return parts;
+    }
+
+    public boolean isDirty() {
+        return getDirty() != 0;
+    }
+
+    /**
+     * Marks the attributes as saved.
+     */
+    public void clearDirty() {
+        dirty = 0;
+        settings.clearDirty();
+
+        if (skills != null) {
+            skills.clearDirty();
+        }
+        savedX = position.getX();
+        savedY = position.getY();
+        savedZ = position.getZ();
+    }
+
     public void init() {
         // Setting the default position
         position.setAs(Server.getInstance().getSettings().getStartPosition());
@@ -119,6 +210,7 @@ public final class PlayerAttributes {
     }
 
     public void setGender(int gender) {
+        markDirty(DIRTY_APPEARANCE);
         this.gender = gender;
     }
 
@@ -127,6 +219,7 @@ public final class PlayerAttributes {
     }
 
     public void setPrivilege(Player.Privilege privilege) {
+        markDirty(DIRTY_ACCOUNT);
         this.privilege = privilege;
     }
 
@@ -151,6 +244,7 @@ public final class PlayerAttributes {
     }
 
     public void setPassword(String password) {
+        markDirty(DIRTY_ACCOUNT);
         this.password = password;
     }
 
@@ -158,6 +252,11 @@ public final class PlayerAttributes {
         return skills;
     }
 
+    public void setSkills(Skills skills) {
+        markDirty(DIRTY_SKILLS);
+        this.skills = skills;
+    }
+
     /**
      * Checks if the desired amount of the item is in the inventory.
      *
@@ -195,6 +294,7 @@ public final class PlayerAttributes {
      * @param amount the desired amount
      */
     public void removeInventoryItem(int id, int amount) {
+        markDirty(DIRTY_INVENTORY);
         if (EquipmentHelper.isStackable(id)) {
             // Find the existing stack (if there is one).
             for (int i = 0; i < getInventory().length; i++) {
@@ -231,6 +331,7 @@ public final class PlayerAttributes {
      * inventory
      */
     public boolean addInventoryItem(int id, int amount, Player player) throws OverflowException {
+        markDirty(DIRTY_INVENTORY);
         if (EquipmentHelper.isStackable(id)) {
             // Add the item to an existing stack if there is one.
             for (int i = 0; i < getInventory().length; i++) {
@@ -285,6 +386,7 @@ public final class PlayerAttributes {
      * Swaps the items in the given two slots. This performs validation on the slots.
      */
     public void swapInventoryItem(int slot1, int slot2) {
+        markDirty(DIRTY_INVENTORY);
         if (slot1 < 0 || slot1 > inventory.length || slot2 < 0 || slot2 > inventory.length)
             throw new IllegalArgumentException("one of the two slots are invalid: slot1=" + slot1 + ", slot2=" + slot2);
 
@@ -303,6 +405,7 @@ public final class PlayerAttributes {
      * @param player
      */
     public void unequip(int slot, Player player) {
+        markDirty(DIRTY_INVENTORY | DIRTY_EQUIPMENT);
         int id = getEquipment()[slot];
         int amount = getEquipmentN()[slot];
 
@@ -340,6 +443,7 @@ public final class PlayerAttributes {
      * @param player
      */
     public void equip(int slot, Player player) {
+        markDirty(DIRTY_INVENTORY | DIRTY_EQUIPMENT);
         int id = getInventory()[slot];
         int amount = getInventoryN()[slot];
         int slotId = EquipmentHelper.getEquipmentSlot(id);
@@ -387,6 +491,7 @@ public final class PlayerAttributes {
      * @param player
      */
     public void emptyInventory(Player player) {
+        markDirty(DIRTY_INVENTORY);
         for (int i = 0; i < getInventory().length; i++) {
             getInventory()[i] = -1;
             getInventoryN()[i] = 0;
@@ -399,6 +504,7 @@ public final class PlayerAttributes {
     }
 
     public void setRunEnergy(float runEnergy) {
+        markDirty(DIRTY_ACCOUNT);
         this.runEnergy = runEnergy;
     }
 
@@ -407,18 +513,22 @@ public final class PlayerAttributes {
     }
 
     public void decreaseRunEnergy(float amount) {
+        markDirty(DIRTY_ACCOUNT);
         runEnergy = Math.max(0f, runEnergy - amount);
     }
 
     public void increaseRunEnergy(float amount) {
+        markDirty(DIRTY_ACCOUNT);
         runEnergy = Math.min(100f, runEnergy + amount);
     }
 
     public void addFriend(long name) {
+        markDirty(DIRTY_FRIENDS);
         friends.put(name, Misc.decodeBase37(name));
     }
 
     public void removeFriend(long name) {
+        markDirty(DIRTY_FRIENDS);
         friends.remove(name);
     }
 
@@ -427,10 +537,12 @@ public final class PlayerAttributes {
     }
 
     public void addIgnored(long name) {
+        markDirty(DIRTY_FRIENDS);
         ignored.put(name, Misc.decodeBase37(name));
     }
 
     public void removeIgnored(long name) {
+        markDirty(DIRTY_FRIENDS);
         ignored.remove(name);
     }
 
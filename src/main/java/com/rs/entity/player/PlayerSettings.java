@@ -31,12 +31,43 @@ public final class PlayerSettings {
     private int publicChatMode = 0;
     private int privateChatMode = 0;
     private int tradeMode = 0;
+    /**
+     * Whether the settings changed since they were last saved.
+     */
+    private transient boolean dirty;
+
+    /**
+     * Creates a copy of these settings.
+     */
+    public PlayerSettings copy() {
+        PlayerSettings copy = new PlayerSettings();
+        copy.mouseButtons = mouseButtons;
+        copy.brightness = brightness;
+        copy.chatEffects = chatEffects;
+        copy.splitPrivateChat = splitPrivateChat;
+        copy.acceptAid = acceptAid;
+        copy.runToggled = runToggled;
+        copy.autoRetaliate = autoRetaliate;
+        copy.publicChatMode = publicChatMode;
+        copy.privateChatMode = privateChatMode;
+        copy.tradeMode = tradeMode;
+        return copy;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void clearDirty() {
+        dirty = false;
+    }
 
     public MouseButtons getMouseButtons() {
         return mouseButtons;
     }
 
     public void setMouseButtons(MouseButtons mouseButtons) {
+        dirty = true;
         this.mouseButtons = mouseButtons;
     }
 
@@ -45,6 +76,7 @@ public final class PlayerSettings {
     }
 
     public void setBrightness(Brightness brightness) {
+        dirty = true;
         this.brightness = brightness;
     }
 
@@ -53,6 +85,7 @@ public final class PlayerSettings {
     }
 
     public void setChatEffects(boolean chatEffects) {
+        dirty = true;
         this.chatEffects = chatEffects;
     }
 
@@ -61,6 +94,7 @@ public final class PlayerSettings {
     }
 
     public void setSplitPrivateChat(boolean splitPrivateChat) {
+        dirty = true;
         this.splitPrivateChat = splitPrivateChat;
     }
 
@@ -69,6 +103,7 @@ public final class PlayerSettings {
     }
 
     public void setAcceptAid(boolean acceptAid) {
+        dirty = true;
         this.acceptAid = acceptAid;
     }
 
@@ -77,6 +112,7 @@ public final class PlayerSettings {
     }
 
     public void setRunToggled(boolean runToggled) {
+        dirty = true;
         this.runToggled = runToggled;
     }
 
@@ -85,6 +121,7 @@ public final class PlayerSettings {
     }
 
     public void setAutoRetaliate(boolean autoRetaliate) {
+        dirty = true;
         this.autoRetaliate = autoRetaliate;
     }
 
@@ -93,6 +130,7 @@ public final class PlayerSettings {
     }
 
     public void setPublicChatMode(int publicChatMode) {
+        dirty = true;
         this.publicChatMode = publicChatMode;
     }
 
@@ -101,6 +139,7 @@ public final class PlayerSettings {
     }
 
     public void setPrivateChatMode(int privateChatMode) {
+        dirty = true;
         this.privateChatMode = privateChatMode;
     }
 
@@ -109,6 +148,7 @@ public final class PlayerSettings {
     }
 
     public void setTradeMode(int tradeMode) {
+        dirty = true;
         this.tradeMode = tradeMode;
     }
 
@@ -116,14 +116,17 @@ public final class PlayerUpdateContext extends EntityUpdateContext {
     }
 
     /**
-     * Resets all update flags.
+     * Resets all update flags. The buffers are only outdated if an update was required, as they do not change
+     * otherwise.
      */
     public void resetFlags() {
+        if (isUpdateRequired()) {
+            setAllBuffersOutdated();
+        }
         super.resetFlags();
         asyncMovementUpdateRequired = false;
         publicChatUpdateRequired = false;
         appearanceUpdateRequired = false;
-        setAllBuffersOutdated();
     }
 
     public void setBuffer(boolean forceAppearance, boolean noPublicChat, ByteBuffer buffer) {
@@ -151,7 +154,7 @@ public final class PlayerUpdateContext extends EntityUpdateContext {
         return null;
     }
 
-    private void setAllBuffersOutdated() {
+    void setAllBuffersOutdated() {
         regularBufferCache.setOutdated();
         forcedAppearanceBufferCache.setOutdated();
         noChatBufferCache.setOutdated();
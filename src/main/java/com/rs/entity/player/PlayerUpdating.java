@@ -17,18 +17,17 @@ package com.rs.entity.player;
  */
 
 import com.rs.WorldHandler;
+import com.rs.entity.LocalEntitySet;
+import com.rs.entity.MovementBits;
 import com.rs.entity.Position;
 import com.rs.entity.action.AsyncMovement;
 import com.rs.entity.action.PublicChat;
 import com.rs.entity.player.skills.SkillType;
 import com.rs.entity.player.skills.Skills;
 import com.rs.net.StreamBuffer;
-import com.rs.util.EquipmentHelper;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Provides static utility methods for updating players.
@@ -38,121 +37,185 @@ import java.util.List;
 public final class PlayerUpdating {
 
     /**
-     * The maximum length of the update appearance block.
+     * Checks if a player may be added to the local players of another player.
      */
-    private static final int MAX_APPEARANCE_BUFFER_SIZE = 56;
-    /**
-     * Regional player limit.
-     */
-    private static final int REGION_PLAYERS_LIMIT = 255;
+    private static final Predicate<Player> DISCOVERABLE = other ->
+            other.getConnectionStage() == Client.ConnectionStage.LOGGED_IN && !other.isHidden();
 
     /**
      * Updates the player.
      */
     public static void update(Player player) {
-        // TODO prioritise updating players based on distance to you
+        LocalEntitySet<Player> localPlayers = player.getPlayers();
+
         // Remove disconnected players from local players list
-        player.getPlayers()
-                .removeIf(next -> next.getConnectionStage() == Client.ConnectionStage.LOGGED_OUT || next.isHidden());
+        for (int i = 0; i < localPlayers.size(); i++) {
+            Player other = localPlayers.get(i);
+
+            if (other.getConnectionStage() == Client.ConnectionStage.LOGGED_OUT || other.isHidden()) {
+                localPlayers.remove(i);
+                player.getUpdateBudget().discard(other);
+            }
+        }
+        localPlayers.compact();
 
-        // Find other players in local region
-        List<Player> regionalPlayers = PlayerUpdating.updateLocalPlayers(player);
+        // Find other players in local region, they are appended after the current local players, nearest first
+        int localPlayerCount = localPlayers.size();
+        int keepDistance = localPlayers.discover(player, WorldHandler.getInstance().getPlayerRegions(), DISCOVERABLE);
 
-        // Calculate block buffer size
+        // Calculate block buffer size, and plan which state blocks fit in the update budget
+        UpdateBudget budget = player.getUpdateBudget();
+        budget.reset();
         int baseBlockSize = 128;
         int stateBlockSize = PlayerUpdating.stateBlockSize(player, true);
+        int requiredSize = 3 + (21 + 8 + 10 * localPlayerCount + 11 + 7) / 8; // header and movement bits
 
-        for (Player other : player.getPlayers()) {
-            if (player.updatableForPlayer(other)) {
+        if (player.getUpdateContext().isUpdateRequired()) {
+            requiredSize += encodedStateBlock(player, false, true).position();
+        }
+
+        for (int i = 0; i < localPlayerCount; i++) {
+            Player other = localPlayers.get(i);
+
+            if (isUpdatable(player, other, keepDistance)) {
                 baseBlockSize += 3; // up to 19 bits for movement
                 stateBlockSize += PlayerUpdating.stateBlockSize(other, true);
+                ByteBuffer deferredBlock = budget.getDeferred(other);
+
+                if (deferredBlock != null) {
+                    // The deferred block is always sent, in place of the current one
+                    requiredSize += deferredBlock.position();
+                    stateBlockSize += deferredBlock.position();
+                } else if (other.getUpdateContext().isUpdateRequired()) {
+                    budget.count(LocalEntitySet.distance(player.getPosition(), other.getPosition()),
+                            encodedStateBlock(other, false, isIgnored(player, other)).position());
+                }
             }
         }
 
-        for (Player other : regionalPlayers) {
+        for (int i = localPlayerCount; i < localPlayers.size(); i++) {
             baseBlockSize += 3; // 23 bits for add player
-            stateBlockSize += PlayerUpdating.stateBlockSize(other, false);
+            stateBlockSize += PlayerUpdating.stateBlockSize(localPlayers.get(i), false);
         }
+        budget.plan(requiredSize);
 
-        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(baseBlockSize + stateBlockSize);
-        StreamBuffer.WriteBuffer stateBlock = StreamBuffer.createWriteBuffer(stateBlockSize);
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(baseBlockSize + stateBlockSize);
+        StreamBuffer.WriteBuffer stateBlock = StreamBuffer.acquireWriteBuffer(stateBlockSize);
 
-        // Initialize the update packet.
-        out.writeVariableShortHeader(player.getEncryptor(), 81);
-        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        try {
+            // Initialize the update packet.
+            out.writeVariableShortHeader(player.getEncryptor(), 81);
+            out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
 
-        // Update this player.
-        PlayerUpdating.updateLocalPlayerMovement(player, out);
+            // Update this player.
+            PlayerUpdating.updateLocalPlayerMovement(player, out);
 
-        if (player.getUpdateContext().isUpdateRequired()) {
-            PlayerUpdating.updateState(player, stateBlock, false, true);
-        }
+            if (player.getUpdateContext().isUpdateRequired()) {
+                PlayerUpdating.updateState(player, stateBlock, false, true);
+            }
+
+            // Update other local players, the state blocks which do not fit are deferred to the next tick
+            out.writeBits(8, localPlayerCount);
 
-        // Update other local players.
-        out.writeBits(8, player.getPlayers().size());
+            for (int i = 0; i < localPlayerCount; i++) {
+                Player other = localPlayers.get(i);
 
-        for (Iterator<Player> i = player.getPlayers().iterator(); i.hasNext(); ) {
-            Player other = i.next();
+                if (!isUpdatable(player, other, keepDistance)) {
+                    removePlayer(out, localPlayers, i);
+                    budget.discard(other);
+                    continue;
+                }
+                boolean ignored = isIgnored(player, other);
+                ByteBuffer deferredBlock = budget.takeDeferred(other);
+
+                if (deferredBlock != null) {
+                    // Sent regardless of the budget so that a block is late by one tick at most, the current one waits
+                    PlayerUpdating.updateOtherPlayerMovement(other, out, true);
+                    stateBlock.writeBytes(deferredBlock);
+
+                    if (other.getUpdateContext().isUpdateRequired()) {
+                        budget.defer(other, encodedStateBlock(other, false, ignored));
+                    }
+                    continue;
+                }
+
+                if (!other.getUpdateContext().isUpdateRequired()) {
+                    PlayerUpdating.updateOtherPlayerMovement(other, out, false);
+                    continue;
+                }
+                int distance = LocalEntitySet.distance(player.getPosition(), other.getPosition());
+                ByteBuffer block = encodedStateBlock(other, false, ignored);
+
+                if (budget.allowBlock(distance, block.position())) {
+                    PlayerUpdating.updateOtherPlayerMovement(other, out, true);
+                    stateBlock.writeBytes(block);
+                } else {
+                    PlayerUpdating.updateOtherPlayerMovement(other, out, false);
+                    budget.defer(other, block);
+                }
+            }
 
-            if (player.updatableForPlayer(other)) {
-                PlayerUpdating.updateOtherPlayerMovement(other, out);
+            // Add the players found in the local region, those which do not fit are found again in the next tick
+            for (int i = localPlayerCount; i < localPlayers.size(); i++) {
+                Player other = localPlayers.get(i);
+                boolean ignored = isIgnored(player, other);
 
-                if (other.getUpdateContext().isUpdateRequired()) {
-                    boolean ignored = player.getAttributes().isIgnored(other.getUsername())
-                            && other.getAttributes().getPrivilege() == Player.Privilege.REGULAR;
-                    PlayerUpdating.updateState(other, stateBlock, false, ignored);
+                if (!budget.allowAddition(3 + encodedStateBlock(other, true, ignored).position())) {
+                    localPlayers.remove(i);
+                    continue;
                 }
-            } else {
-                out.writeBit(true);
-                out.writeBits(2, 3);
-                i.remove();
+                PlayerUpdating.addPlayer(out, player, other);
+                PlayerUpdating.updateState(other, stateBlock, true, ignored);
             }
-        }
+            localPlayers.compact();
 
-        // Update the local player list.
-        for (Player other : regionalPlayers) {
-            boolean ignored = player.getAttributes().isIgnored(other.getUsername())
-                    && other.getAttributes().getPrivilege() == Player.Privilege.REGULAR;
-            player.getPlayers().add(other);
-            PlayerUpdating.addPlayer(out, player, other);
-            PlayerUpdating.updateState(other, stateBlock, true, ignored);
-        }
+            // Append the attributes block to the main packet.
+            if (stateBlock.getBuffer().position() > 0) {
+                out.writeBits(11, 2047);
+                out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+                out.writeBytes(stateBlock.getBuffer());
+            } else {
+                out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+            }
 
-        // Append the attributes block to the main packet.
-        if (stateBlock.getBuffer().position() > 0) {
-            out.writeBits(11, 2047);
-            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
-            out.writeBytes(stateBlock.getBuffer());
-        } else {
-            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+            // Finish the packet.
+            out.finishVariableShortHeader();
+            budget.finish(out.getBuffer().position());
+        } catch (RuntimeException ex) {
+            out.release();
+            throw ex;
+        } finally {
+            stateBlock.release();
         }
 
-        // Finish the packet and send it.
-        out.finishVariableShortHeader();
-        player.send(out.getBuffer());
+        // Send the packet, this releases it.
+        player.send(out);
     }
 
     /**
-     * Update local player list for the given player.
+     * Checks if a local player stays in the local player list, players farther than the keep distance make room for
+     * nearer players.
      */
-    private static List<Player> updateLocalPlayers(Player player) {
-        List<Player> players = new ArrayList<>();
-
-        for (Player other : WorldHandler.getInstance().getPlayers()) {
-            if (player.getPlayers().size() + players.size() >= REGION_PLAYERS_LIMIT) {
-                break; // Local player limit has been reached.
-            }
+    private static boolean isUpdatable(Player player, Player other, int keepDistance) {
+        return player.updatableForPlayer(other)
+                && LocalEntitySet.distance(player.getPosition(), other.getPosition()) <= keepDistance;
+    }
 
-            if (other == null || other == player || other.getConnectionStage() != Client.ConnectionStage.LOGGED_IN
-                    || player.getPlayers().contains(other) || other.isHidden()) {
-                continue;
-            }
+    /**
+     * Removes a local player, and flags its removal for the client.
+     */
+    private static void removePlayer(StreamBuffer.WriteBuffer out, LocalEntitySet<Player> localPlayers, int index) {
+        out.writeBit(true);
+        out.writeBits(2, 3);
+        localPlayers.remove(index);
+    }
 
-            if (other.getPosition().isViewableFrom(player.getPosition())) {
-                players.add(other);
-            }
-        }
-        return players;
+    /**
+     * Checks if a player should not see the public chat of another player.
+     */
+    private static boolean isIgnored(Player player, Player other) {
+        return player.getAttributes().isIgnored(other.getUsername())
+                && other.getAttributes().getPrivilege() == Player.Privilege.REGULAR;
     }
 
     /**
@@ -163,7 +226,7 @@ public final class PlayerUpdating {
 
         if (checkIfUpdateRequired && !ctx.isUpdateRequired())
             return 0;
-        return 2 + MAX_APPEARANCE_BUFFER_SIZE
+        return 2 + AppearanceBlock.MAX_SIZE
                 + (ctx.isAsyncMovementUpdateRequired() ? 9 : 0)
                 + (ctx.isGraphicsUpdateRequired() ? 6 : 0)
                 + (ctx.isAnimationUpdateRequired() ? 3 : 0)
@@ -181,123 +244,7 @@ public final class PlayerUpdating {
      * @param player the player
      */
     private static void appendAppearance(Player player, StreamBuffer.WriteBuffer out) {
-        PlayerAttributes attributes = player.getAttributes();
-        StreamBuffer.WriteBuffer block = StreamBuffer.createWriteBuffer(MAX_APPEARANCE_BUFFER_SIZE);
-
-        block.writeByte(player.getAttributes().getGender()); // Gender
-        block.writeByte(0); // Skull icon
-
-        // Player models
-        int[] e = attributes.getEquipment();
-        int[] a = attributes.getAppearance();
-
-        // Hat.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_HEAD] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_HEAD]);
-        } else {
-            block.writeByte(0);
-        }
-
-        // Cape.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_CAPE] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CAPE]);
-        } else {
-            block.writeByte(0);
-        }
-
-        // Amulet.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_AMULET] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_AMULET]);
-        } else {
-            block.writeByte(0);
-        }
-
-        // Weapon.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_WEAPON] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_WEAPON]);
-        } else {
-            block.writeByte(0);
-        }
-
-        // Chest.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_CHEST] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CHEST]);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_CHEST]);
-        }
-
-        // Shield.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_SHIELD] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_SHIELD]);
-        } else {
-            block.writeByte(0);
-        }
-
-        // Arms TODO: Check platebody/non-platebody.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_CHEST] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_CHEST]);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_ARMS]);
-        }
-
-        // Legs.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_LEGS] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_LEGS]);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_LEGS]);
-        }
-
-        // Head (with a hat already on).
-        if (EquipmentHelper.isFullHelm(e[EquipmentHelper.EQUIPMENT_SLOT_HEAD])
-                || EquipmentHelper.isFullMask(EquipmentHelper.EQUIPMENT_SLOT_HEAD)) {
-            block.writeByte(0);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_HEAD]);
-        }
-
-        // Hands.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_HANDS] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_HANDS]);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_HANDS]);
-        }
-
-        // Feet.
-        if (e[EquipmentHelper.EQUIPMENT_SLOT_FEET] > 1) {
-            block.writeShort(0x200 + e[EquipmentHelper.EQUIPMENT_SLOT_FEET]);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_FEET]);
-        }
-
-        // Beard.
-        if (EquipmentHelper.isFullHelm(e[EquipmentHelper.EQUIPMENT_SLOT_HEAD])
-                || EquipmentHelper.isFullMask(EquipmentHelper.EQUIPMENT_SLOT_HEAD)) {
-            block.writeByte(0);
-        } else {
-            block.writeShort(0x100 + a[EquipmentHelper.APPEARANCE_SLOT_BEARD]);
-        }
-
-        // Player colors
-        for (int color : attributes.getColors()) {
-            block.writeByte(color);
-        }
-
-        // Movement animations
-        block.writeShort(0x328); // stand
-        block.writeShort(0x337); // stand turn
-        block.writeShort(0x333); // walk
-        block.writeShort(0x334); // turn 180
-        block.writeShort(0x335); // turn 90 cw
-        block.writeShort(0x336); // turn 90 ccw
-        block.writeShort(0x338); // run
-
-        block.writeLong(player.getUsername());
-        block.writeByte(attributes.getSkills().getCombatLevel());
-        block.writeShort(attributes.getSkills().getTotalLevel());
-
-        // Append the block length and the block to the packet.
-        out.writeByte(block.getBuffer().position(), StreamBuffer.ValueType.C);
-        out.writeBytes(block.getBuffer());
+        player.getAppearanceBlock().append(player, out);
     }
 
     /**
@@ -336,55 +283,78 @@ public final class PlayerUpdating {
         } else { // No placement update, check for movement.
             int pDir = player.getPrimaryDirection();
             int sDir = player.getSecondaryDirection();
-            updateMovement(out, pDir, sDir, updateRequired);
+            MovementBits.write(out, pDir, sDir, updateRequired);
         }
     }
 
     /**
      * Updates the movement of a player for another player (does not make use of sector 2, 3).
      */
-    private static void updateOtherPlayerMovement(Player player, StreamBuffer.WriteBuffer out) {
-        boolean updateRequired = player.getUpdateContext().isUpdateRequired();
+    private static void updateOtherPlayerMovement(Player player, StreamBuffer.WriteBuffer out,
+                                                  boolean updateRequired) {
         int pDir = player.getPrimaryDirection();
         int sDir = player.getSecondaryDirection();
-        updateMovement(out, pDir, sDir, updateRequired);
+        MovementBits.write(out, pDir, sDir, updateRequired);
     }
 
-    private static void updateMovement(StreamBuffer.WriteBuffer out, int pDir, int sDir, boolean updateRequired) {
-        if (pDir != -1) { // If they moved.
-            out.writeBit(true); // Yes, there is an update.
+    /**
+     * Encodes the state blocks of a player which its viewers may need this tick, so that they only have to be copied
+     * during the parallel update. This must be called on the game thread, before the players are updated.
+     */
+    public static void encodeStateBlocks(Player player) {
+        // The cached blocks hold the appearance, which may have changed without an update flag
+        if (player.getAppearanceBlock().isOutdated(player)) {
+            player.getUpdateContext().setAllBuffersOutdated();
+        }
 
-            if (sDir != -1) { // If they ran.
-                appendRun(out, pDir, sDir, updateRequired);
-            } else { // Movement but no running - they walked.
-                appendWalk(out, pDir, updateRequired);
-            }
-        } else { // No movement.
-            if (updateRequired) { // Does the state need to be updated?
-                out.writeBit(true); // Yes, there is an update.
-                appendStand(out);
-            } else { // No update whatsoever.
-                out.writeBit(false);
-            }
+        if (player.getUpdateContext().isUpdateRequired()) {
+            encodeStateBlock(player, false, false);
+            encodeStateBlock(player, false, true);
         }
+
+        // The blocks used when a viewer adds this player are kept until the player is flagged for an update
+        encodeStateBlock(player, true, false);
+        encodeStateBlock(player, true, true);
     }
 
     /**
-     * Updates the flag-based state of a player.
+     * Appends the state block of a player which was encoded by {@link #encodeStateBlocks(Player)}.
      */
     private static void updateState(Player player, StreamBuffer.WriteBuffer block, boolean forceAppearance,
                                    boolean noPublicChat) {
+        block.writeBytes(encodedStateBlock(player, forceAppearance, noPublicChat));
+    }
+
+    /**
+     * Gets a state block of a player which was encoded by {@link #encodeStateBlocks(Player)}.
+     */
+    private static ByteBuffer encodedStateBlock(Player player, boolean forceAppearance, boolean noPublicChat) {
+        ByteBuffer buffer = player.getUpdateContext().getBuffer(forceAppearance, noPublicChat);
+
+        if (buffer == null) {
+            throw new IllegalStateException("State block of " + player + " was not encoded");
+        }
+        return buffer;
+    }
+
+    /**
+     * Encodes a variant of the state block of a player, unless it is cached.
+     */
+    private static void encodeStateBlock(Player player, boolean forceAppearance, boolean noPublicChat) {
         PlayerUpdateContext ctx = player.getUpdateContext();
 
         // Check if the result is cached
-        ByteBuffer buffer = ctx.getBuffer(forceAppearance, noPublicChat);
+        if (ctx.getBuffer(forceAppearance, noPublicChat) != null) {
+            return;
+        }
 
-        if (buffer != null) {
-            block.writeBytes(buffer);
+        // Without public chat, both chat variants are the same
+        if (noPublicChat && !ctx.isPublicChatUpdateRequired()) {
+            ctx.setBuffer(forceAppearance, true, ctx.getBuffer(forceAppearance, false));
             return;
         }
 
-        // Create new result and cache it
+        // Create the block
         StreamBuffer.WriteBuffer result = StreamBuffer.createWriteBuffer(stateBlockSize(player, false));
 
         // First we must calculate and write the mask.
@@ -448,9 +418,8 @@ public final class PlayerUpdating {
             appendSecondaryHit(player, result);
         }
 
-        // Cache and write the result
-        block.writeBytes(result.getBuffer());
-        ctx.setBuffer(forceAppearance, noPublicChat, result.getBuffer());
+        // Cache the result, it is read by several threads at once
+        ctx.setBuffer(forceAppearance, noPublicChat, result.getBuffer().asReadOnlyBuffer());
     }
 
 
@@ -539,47 +508,6 @@ public final class PlayerUpdating {
         out.writeByte(player.getAnimation().getDelay(), StreamBuffer.ValueType.C);
     }
 
-    /**
-     * Appends the stand version of the movement section of the update packet
-     * (sector 2,0). Appending this (instead of just a zero bit) automatically
-     * assumes that there is a required attribute update afterwards.
-     */
-    private static void appendStand(StreamBuffer.WriteBuffer out) {
-        out.writeBits(2, 0); // 0 - no movement.
-    }
-
-    /**
-     * Appends the walk version of the movement section of the update packet
-     * (sector 2,1).
-     *
-     * @param out              the buffer to append to
-     * @param direction        the walking direction
-     * @param attributesUpdate whether or not a player attributes update is required
-     */
-    private static void appendWalk(StreamBuffer.WriteBuffer out, int direction, boolean attributesUpdate) {
-        out.writeBits(2, 1); // 1 - walking.
-
-        // Append the actual sector.
-        out.writeBits(3, direction);
-        out.writeBit(attributesUpdate);
-    }
-
-    /**
-     * Appends the walk version of the movement section of the update packet (sector 2,2).
-     *
-     * @param direction        the walking direction
-     * @param direction2       the running direction
-     * @param attributesUpdate whether or not a player attributes update is required
-     */
-    private static void appendRun(StreamBuffer.WriteBuffer out, int direction, int direction2, boolean attributesUpdate) {
-        out.writeBits(2, 2); // 2 - running.
-
-        // Append the actual sector.
-        out.writeBits(3, direction);
-        out.writeBits(3, direction2);
-        out.writeBit(attributesUpdate);
-    }
-
     /**
      * Appends the player placement version of the movement section of the update packet (sector 2,3).
      * Note that by others this was previously called the "teleport update".
@@ -0,0 +1,223 @@
+package com.rs.entity.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.Server;
+import com.rs.entity.LocalEntitySet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the size of the player update packet of a player each tick. The movement of local players and the state
+ * block of the player itself are always sent, the state blocks of other local players are sent nearest first while
+ * they fit, and new local players are only added once there is room left. Players which are not added are found
+ * again in the next tick.
+ * <p>
+ * A state block which does not fit is deferred, and sent in the next tick regardless of the budget. The state block
+ * of that player in the next tick is deferred in turn, so that no chat, hit or animation is lost. At most the budget
+ * is deferred each tick, so that the packet stays within what the client can read, beyond that blocks are dropped.
+ */
+public final class UpdateBudget {
+
+    private static final LongAdder packets = new LongAdder();
+    private static final LongAdder bytes = new LongAdder();
+    private static final LongAdder deferredBlocks = new LongAdder();
+    private static final LongAdder droppedBlocks = new LongAdder();
+    private static final LongAdder deferredAdditions = new LongAdder();
+    private final int bytesPerTick;
+    /**
+     * The size of the state blocks of the local players by their distance, for the packet being written.
+     */
+    private final int[] blockSizes = new int[LocalEntitySet.VIEW_DISTANCE + 1];
+    /**
+     * The state blocks which are sent in the next tick, by the local player they belong to. The encoded blocks are
+     * not changed once encoded, so they are referenced rather than copied.
+     */
+    private final Map<Player, ByteBuffer> deferred = new HashMap<>();
+    private int blockDistance;
+    private int deferredSize;
+    private int remaining;
+    private int lastPacketSize;
+    private int peakPacketSize;
+
+    /**
+     * Creates a new UpdateBudget, using the limit in the server settings.
+     */
+    public UpdateBudget() {
+        bytesPerTick = Server.getInstance().getSettings().getPlayerUpdateBudget();
+    }
+
+    /**
+     * Starts the budget of a new packet.
+     */
+    void reset() {
+        Arrays.fill(blockSizes, 0);
+        deferredSize = 0;
+    }
+
+    /**
+     * Counts the state block of a local player, before {@link #plan(int)}.
+     */
+    void count(int distance, int size) {
+        blockSizes[distance] += size;
+    }
+
+    /**
+     * Decides which state blocks fit, given the size of the parts of the packet which are always sent.
+     */
+    void plan(int requiredSize) {
+        if (bytesPerTick <= 0) {
+            blockDistance = LocalEntitySet.VIEW_DISTANCE;
+            remaining = Integer.MAX_VALUE;
+            return;
+        }
+        remaining = bytesPerTick - requiredSize;
+        blockDistance = -1;
+
+        while (blockDistance < LocalEntitySet.VIEW_DISTANCE && blockSizes[blockDistance + 1] <= remaining) {
+            remaining -= blockSizes[++blockDistance];
+        }
+    }
+
+    /**
+     * Checks if the state block of a local player fits, the blocks of the nearest players were planned to fit.
+     */
+    boolean allowBlock(int distance, int size) {
+        if (distance <= blockDistance) {
+            return true;
+        }
+
+        if (size <= remaining) {
+            remaining -= size;
+            return true;
+        }
+        deferredBlocks.increment();
+        return false;
+    }
+
+    /**
+     * Defers the state block of a local player to the next tick, or drops it if too much was deferred already.
+     */
+    void defer(Player player, ByteBuffer block) {
+        if (deferredSize + block.position() > bytesPerTick) {
+            droppedBlocks.increment();
+            return;
+        }
+        deferredSize += block.position();
+        deferred.put(player, block);
+    }
+
+    /**
+     * Gets the state block of a local player which was deferred to this tick, or null.
+     */
+    ByteBuffer getDeferred(Player player) {
+        return deferred.isEmpty() ? null : deferred.get(player);
+    }
+
+    /**
+     * Removes and returns the state block of a local player which was deferred to this tick, or null.
+     */
+    ByteBuffer takeDeferred(Player player) {
+        return deferred.isEmpty() ? null : deferred.remove(player);
+    }
+
+    /**
+     * Discards the deferred state block of a player which was removed from the local players.
+     */
+    void discard(Player player) {
+        if (!deferred.isEmpty()) {
+            deferred.remove(player);
+        }
+    }
+
+    /**
+     * Checks if a new local player fits.
+     *
+     * @param size the size of the player in the packet, including its state block
+     */
+    boolean allowAddition(int size) {
+        if (size <= remaining) {
+            remaining -= size;
+            return true;
+        }
+        deferredAdditions.increment();
+        return false;
+    }
+
+    /**
+     * Records the size of a sent packet.
+     */
+    void finish(int packetSize) {
+        lastPacketSize = packetSize;
+        peakPacketSize = Math.max(peakPacketSize, packetSize);
+        packets.increment();
+        bytes.add(packetSize);
+    }
+
+    /**
+     * Gets the size of the last player update packet sent to this player.
+     */
+    public int getLastPacketSize() {
+        return lastPacketSize;
+    }
+
+    /**
+     * Gets the size of the largest player update packet sent to this player.
+     */
+    public int getPeakPacketSize() {
+        return peakPacketSize;
+    }
+
+    /**
+     * Gets the amount of player update packets sent.
+     */
+    public static long getPackets() {
+        return packets.sum();
+    }
+
+    /**
+     * Gets the total size of the player update packets sent.
+     */
+    public static long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Gets the amount of state blocks of local players which were deferred to the next tick, as they did not fit.
+     */
+    public static long getDeferredBlocks() {
+        return deferredBlocks.sum();
+    }
+
+    /**
+     * Gets the amount of state blocks of local players which were dropped, as too much was deferred already.
+     */
+    public static long getDroppedBlocks() {
+        return droppedBlocks.sum();
+    }
+
+    /**
+     * Gets the amount of times adding a local player was left for a later tick, as it did not fit.
+     */
+    public static long getDeferredAdditions() {
+        return deferredAdditions.sum();
+    }
+}
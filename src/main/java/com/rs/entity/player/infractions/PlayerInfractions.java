@@ -27,12 +27,21 @@ import java.util.Date;
  */
 public final class PlayerInfractions {
 
-    private static final DateFormat DATE_FORMAT = new SimpleDateFormat(Server.getInstance().getSettings().getDateFormat());
     private boolean banned;
     private boolean muted;
     private Date banExpirationDate;
     private Date muteExpirationDate;
 
+    /**
+     * Copies these infractions into others.
+     */
+    public void copyTo(PlayerInfractions other) {
+        other.banned = banned;
+        other.muted = muted;
+        other.banExpirationDate = banExpirationDate == null ? null : new Date(banExpirationDate.getTime());
+        other.muteExpirationDate = muteExpirationDate == null ? null : new Date(muteExpirationDate.getTime());
+    }
+
     public void setBanned(boolean banned) {
         this.banned = banned;
     }
@@ -49,6 +58,28 @@ public final class PlayerInfractions {
         this.muteExpirationDate = muteExpirationDate;
     }
 
+    /**
+     * Whether a ban was applied, it may have expired since.
+     */
+    public boolean hasBan() {
+        return banned;
+    }
+
+    /**
+     * Whether a mute was applied, it may have expired since.
+     */
+    public boolean hasMute() {
+        return muted;
+    }
+
+    public Date getBanExpirationDate() {
+        return banExpirationDate;
+    }
+
+    public Date getMuteExpirationDate() {
+        return muteExpirationDate;
+    }
+
     public boolean isBanned() {
         return banned && (banExpirationDate == null || new Date().before(banExpirationDate));
     }
@@ -58,10 +89,19 @@ public final class PlayerInfractions {
     }
 
     public String banExpiration() {
-        return banExpirationDate != null ? DATE_FORMAT.format(banExpirationDate) : "never";
+        return banExpirationDate != null ? format(banExpirationDate) : "never";
     }
 
     public String muteExpiration() {
-        return muteExpirationDate != null ? DATE_FORMAT.format(muteExpirationDate) : "never";
+        return muteExpirationDate != null ? format(muteExpirationDate) : "never";
+    }
+
+    /**
+     * Formats a date with the configured date format. A format is made per call, because they are not thread-safe
+     * and infractions are copied and saved on other threads.
+     */
+    private static String format(Date date) {
+        DateFormat format = new SimpleDateFormat(Server.getInstance().getSettings().getDateFormat());
+        return format.format(date);
     }
 }
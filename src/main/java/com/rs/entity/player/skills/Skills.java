@@ -40,6 +40,10 @@ public class Skills {
     private final List<Skill> skills;
     private transient int combatLevel;
     private transient int totalLevel;
+    /**
+     * Whether the skills changed since they were last saved.
+     */
+    private transient boolean dirty;
 
     public Skills(List<Skill> skills) {
         this.skills = skills;
@@ -52,7 +56,20 @@ public class Skills {
         reset();
     }
 
+    /**
+     * Creates a copy of these skills.
+     */
+    public Skills copy() {
+        List<Skill> copy = new ArrayList<>(skills.size());
+
+        for (Skill skill : skills) {
+            copy.add(new Skill(skill.getType(), skill.getLevel(), skill.getMaxLevel(), skill.getExperience()));
+        }
+        return new Skills(copy);
+    }
+
     public void reset() {
+        dirty = true;
         skills.clear();
 
         for (SkillType type : SkillType.values()) {
@@ -64,6 +81,14 @@ public class Skills {
         updateCombatLevel();
     }
 
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void clearDirty() {
+        dirty = false;
+    }
+
     public int experience(SkillType type) {
         return skill(type).getExperience();
     }
@@ -83,6 +108,7 @@ public class Skills {
 
     public void setExperience(SkillType type, int newExperience) {
         newExperience = normalizeExp(newExperience);
+        dirty = true;
 
         Skill skill = skill(type);
         int newLevel = levelForExp(newExperience);
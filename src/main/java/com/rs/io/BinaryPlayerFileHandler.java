@@ -0,0 +1,70 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.PlayerAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * An {@link PlayerFileHandler} implementation for binary player attribute saving/loading, see
+ * {@link PlayerAttributesCodec}.
+ */
+public final class BinaryPlayerFileHandler implements PlayerFileHandler {
+
+    private final String storageDirectory;
+
+    public BinaryPlayerFileHandler() {
+        this("./data/characters/");
+    }
+
+    public BinaryPlayerFileHandler(String storageDirectory) {
+        this.storageDirectory = storageDirectory;
+    }
+
+    @Override
+    public void save(PlayerAttributes attributes) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        PlayerAttributesCodec.write(attributes, new DataOutputStream(bytes));
+        FileUtils.write(getFile(attributes.getUsername()), bytes.toByteArray());
+    }
+
+    @Override
+    public PlayerAttributes load(String username) throws Exception {
+        // Throws a NoSuchFileException if there is no such player
+        byte[] bytes = Files.readAllBytes(getFile(username));
+        return PlayerAttributesCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Override
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * Returns the file of the player with the argument username.
+     */
+    public Path getFile(String username) {
+        return Paths.get(storageDirectory, username + ".dat");
+    }
+}
@@ -0,0 +1,62 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class FileUtils {
+
+    /**
+     * Writes the bytes to the file. They are written to a temporary file which is synced to disk and then renamed
+     * over the file, so that a crash leaves either the old or the new file behind.
+     */
+    public static void write(Path file, byte[] bytes) throws IOException {
+        Path temporary = Paths.get(file + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        move(temporary, file);
+    }
+
+    /**
+     * Renames the source over the target, atomically if the file system supports it, and syncs the directory.
+     */
+    public static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Path directory = target.toAbsolutePath().getParent();
+
+        // Some platforms (i.e. Windows) can not open a directory, the rename is then synced by the file system
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -30,6 +30,16 @@ import java.nio.file.NoSuchFileException;
  */
 public final class JsonPlayerFileHandler implements PlayerFileHandler {
 
+    private final String storageDirectory;
+
+    public JsonPlayerFileHandler() {
+        this("./data/characters/");
+    }
+
+    public JsonPlayerFileHandler(String storageDirectory) {
+        this.storageDirectory = storageDirectory;
+    }
+
     @Override
     public void save(PlayerAttributes attributes) throws Exception {
         String fileName = getStorageDirectory() + attributes.getUsername() + ".json";
@@ -54,6 +64,6 @@ public final class JsonPlayerFileHandler implements PlayerFileHandler {
 
     @Override
     public String getStorageDirectory() {
-        return "./data/characters/";
+        return storageDirectory;
     }
 }
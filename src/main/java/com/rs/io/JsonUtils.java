@@ -2,9 +2,12 @@ package com.rs.io;
 
 import com.cedarsoftware.util.io.JsonWriter;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -16,21 +19,20 @@ public class JsonUtils {
         WRITER_ARGS.put("JsonWriter.PRETTY_PRINT", true);
     }
 
+    /**
+     * Writes the object to the file as json, atomically, see {@link FileUtils#write(Path, byte[])}.
+     */
     public static void write(String fileName, boolean overwrite, Object object) throws IOException {
-        File file = new File(fileName);
+        Path file = Paths.get(fileName);
 
-        // Overwrite
-        if (overwrite && file.exists()) {
-            file.delete();
+        if (!overwrite && Files.exists(file)) {
+            throw new FileAlreadyExistsException(fileName);
         }
 
-        // Generating pretty json
+        // Generating pretty json, the writer already formats it
         String json = JsonWriter.objectToJson(object, WRITER_ARGS);
-        json = JsonWriter.formatJson(json);
 
         // Writing json
-        FileWriter writer = new FileWriter(file);
-        writer.write(json);
-        writer.close();
+        FileUtils.write(file, json.getBytes(StandardCharsets.UTF_8));
     }
 }
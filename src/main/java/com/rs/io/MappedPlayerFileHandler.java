@@ -0,0 +1,415 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.PlayerAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link PlayerFileHandler} implementation which stores all players in one memory-mapped data file, so that a login
+ * does not open a file. A save appends a record with the binary attributes (see {@link PlayerAttributesCodec}), and
+ * points the index at it, the record it replaces is left behind until the store is compacted.
+ * <p>
+ * The index of usernames to records is kept in memory, and written to an index file when the store is closed. Records
+ * are never changed once they are written, so they are read by many threads without locking. The data file is mapped
+ * in segments, which a record never crosses.
+ * <p>
+ * The data file is the only one which must survive a crash, each record has a checksum and the records after the
+ * index file are found again by reading them when the store is opened.
+ */
+public final class MappedPlayerFileHandler implements PlayerFileHandler {
+
+    private static final int MAGIC = 0x52534153;
+    private static final int VERSION = 1;
+    /**
+     * The size of the data file header: magic, version and generation.
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * The size of the record header: length and checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /**
+     * The length which marks the rest of a segment as unused.
+     */
+    private static final int END_OF_SEGMENT = -1;
+    private static final int SEGMENT_SIZE = 1 << 24;
+    private final String storageDirectory;
+    private final int segmentSize;
+    private final Path dataPath;
+    private final Path indexPath;
+    /**
+     * The offset of the newest record of each username.
+     */
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private FileChannel channel;
+    /**
+     * A random number which is written to a new data file, the index file is only used with the same data file.
+     */
+    private long generation;
+    /**
+     * The offset the next record is written to.
+     */
+    private long end;
+    /**
+     * The size of the newest records of all usernames.
+     */
+    private long liveSize;
+    /**
+     * Whether the index changed since it was written.
+     */
+    private boolean indexChanged;
+
+    public MappedPlayerFileHandler() {
+        this("./data/characters/", "players");
+    }
+
+    /**
+     * Creates a store, with the data file {@code name.store} and the index file {@code name.index}. These do not end
+     * in {@code .dat}, so they cannot be mistaken for the player file of an account.
+     */
+    public MappedPlayerFileHandler(String storageDirectory, String name) {
+        this(storageDirectory, name, SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a store which maps its data file in segments of the given size. The store must always be opened with the
+     * same segment size.
+     */
+    MappedPlayerFileHandler(String storageDirectory, String name, int segmentSize) {
+        this.storageDirectory = storageDirectory;
+        this.segmentSize = segmentSize;
+        this.dataPath = Paths.get(storageDirectory, name + ".store");
+        this.indexPath = Paths.get(storageDirectory, name + ".index");
+    }
+
+    @Override
+    public synchronized void init() throws Exception {
+        boolean created = !Files.exists(dataPath);
+        channel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        // Mapping a segment grows the file to it
+        long segmentCount = Math.max(1, (channel.size() + segmentSize - 1) / segmentSize);
+
+        for (int i = 0; i < segmentCount; i++) {
+            map();
+        }
+        ByteBuffer header = segments.get(0).duplicate();
+
+        if (created || header.getInt(0) == 0) {
+            generation = new Random().nextLong();
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation);
+            segments.get(0).force();
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Unknown player store format: " + dataPath);
+        } else {
+            generation = header.getLong(8);
+        }
+        long indexed = readIndex();
+
+        // Reads the records which were saved after the index was written
+        end = indexed;
+
+        while (true) {
+            long offset = nextRecord(end);
+            ByteBuffer record = read(offset);
+
+            if (record == null) {
+                break;
+            }
+            String username = new DataInputStream(new ByteArrayInputStream(record.array())).readUTF();
+            put(username, offset, RECORD_HEADER_SIZE + record.capacity());
+            end = offset + RECORD_HEADER_SIZE + record.capacity();
+        }
+        System.out.println("Opened the player store with " + index.size() + " players, read " + (end - indexed)
+                + " bytes of records after its index");
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        if (indexChanged) {
+            writeIndex();
+        }
+        segments.clear();
+        index.clear();
+        liveSize = 0;
+        channel.close();
+    }
+
+    @Override
+    public void save(PlayerAttributes attributes) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(attributes.getUsername());
+        PlayerAttributesCodec.write(attributes, out);
+        append(attributes.getUsername(), bytes.toByteArray(), true);
+    }
+
+    @Override
+    public PlayerAttributes load(String username) throws Exception {
+        Long offset = index.get(username);
+
+        if (offset == null) {
+            throw new NoSuchFileException(username);
+        }
+        ByteBuffer record = read(offset);
+
+        if (record == null) {
+            throw new IOException("Corrupt record of " + username + " at " + offset);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array()));
+        in.readUTF();
+        return PlayerAttributesCodec.read(in);
+    }
+
+    @Override
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * Writes the newest record of every username to the other store, which is then as small as possible.
+     */
+    public synchronized void copyTo(MappedPlayerFileHandler other) throws IOException {
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            ByteBuffer record = read(entry.getValue());
+
+            if (record == null) {
+                throw new IOException("Corrupt record of " + entry.getKey() + " at " + entry.getValue());
+            }
+            other.append(entry.getKey(), record.array(), false);
+        }
+        other.force();
+    }
+
+    /**
+     * Appends a record, and indexes it. A record which is synced is on disk before the next record is appended, so
+     * that only the last record can be written partly.
+     */
+    private synchronized void append(String username, byte[] payload, boolean sync) throws IOException {
+        int size = RECORD_HEADER_SIZE + payload.length;
+
+        if (size > segmentSize - HEADER_SIZE) {
+            throw new IOException("The record of " + username + " is too large: " + size + " bytes");
+        }
+        int position = (int) (end % segmentSize);
+
+        if (segmentSize - position < size) {
+            // Starts a new segment
+            if (segmentSize - position >= 4) {
+                MappedByteBuffer segment = segments.get((int) (end / segmentSize));
+                segment.putInt(position, END_OF_SEGMENT);
+
+                if (sync) {
+                    segment.force();
+                }
+            }
+            end += segmentSize - position;
+            position = 0;
+        }
+
+        while (segments.size() <= end / segmentSize) {
+            map();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        MappedByteBuffer segment = segments.get((int) (end / segmentSize));
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(position);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+
+        if (sync) {
+            segment.force();
+        }
+        put(username, end, size);
+        end += size;
+        indexChanged = true;
+    }
+
+    /**
+     * Syncs all records to disk.
+     */
+    private synchronized void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Indexes a record, and keeps count of the size of the newest records.
+     */
+    private void put(String username, long offset, int size) {
+        Long replaced = index.put(username, offset);
+
+        if (replaced != null) {
+            liveSize -= RECORD_HEADER_SIZE + segments.get((int) (replaced / segmentSize))
+                    .getInt((int) (replaced % segmentSize));
+        }
+        liveSize += size;
+    }
+
+    /**
+     * Returns the offset of the record at or after the argument offset, skipping the unused end of a segment.
+     */
+    private long nextRecord(long offset) {
+        int position = (int) (offset % segmentSize);
+        int segment = (int) (offset / segmentSize);
+
+        if (segment < segments.size() && (segmentSize - position < RECORD_HEADER_SIZE
+                || segments.get(segment).getInt(position) == END_OF_SEGMENT)) {
+            return offset + segmentSize - position;
+        }
+        return offset;
+    }
+
+    /**
+     * Reads the payload of the record at the argument offset, or returns null if it is not a complete record.
+     */
+    private ByteBuffer read(long offset) {
+        int segment = (int) (offset / segmentSize);
+        int position = (int) (offset % segmentSize);
+
+        if (segment >= segments.size() || segmentSize - position < RECORD_HEADER_SIZE) {
+            return null;
+        }
+
+        // A view of the mapped segment, so that concurrent reads do not share a position
+        ByteBuffer buffer = segments.get(segment).duplicate();
+        buffer.position(position);
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+
+        if (length <= 0 || length > buffer.remaining()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? ByteBuffer.wrap(payload) : null;
+    }
+
+    private void map() throws IOException {
+        long position = (long) segments.size() * segmentSize;
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, segmentSize));
+    }
+
+    /**
+     * Reads the index file, and returns the offset it was written at. If there is no index file, or it belongs to
+     * another data file, all records are read again.
+     */
+    private long readIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return HEADER_SIZE;
+        }
+        byte[] bytes = Files.readAllBytes(indexPath);
+
+        if (bytes.length < 32) {
+            System.out.println("Ignored the player store index, which was not fully written");
+            return HEADER_SIZE;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != generation
+                || ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) crc.getValue()) {
+            System.out.println("Ignored the player store index, which does not belong to its data file");
+            return HEADER_SIZE;
+        }
+        long indexed = in.readLong();
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            String username = in.readUTF();
+            long offset = in.readLong();
+            put(username, offset, RECORD_HEADER_SIZE + segments.get((int) (offset / segmentSize))
+                    .getInt((int) (offset % segmentSize)));
+        }
+        return indexed;
+    }
+
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(index.size() * 24 + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation);
+        out.writeLong(end);
+        out.writeInt(index.size());
+
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt((int) crc.getValue());
+        FileUtils.write(indexPath, bytes.toByteArray());
+        indexChanged = false;
+    }
+
+    /**
+     * Gets the amount of players in the store.
+     */
+    public int getPlayers() {
+        return index.size();
+    }
+
+    /**
+     * Gets the size of the records in the data file, including those which were replaced.
+     */
+    public synchronized long getDataSize() {
+        return end;
+    }
+
+    /**
+     * Gets the size of the newest records in the data file.
+     */
+    public synchronized long getLiveSize() {
+        return liveSize;
+    }
+
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    public Path getIndexPath() {
+        return indexPath;
+    }
+}
@@ -0,0 +1,335 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.Position;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.entity.player.PlayerSettings;
+import com.rs.entity.player.infractions.PlayerInfractions;
+import com.rs.entity.player.skills.Skill;
+import com.rs.entity.player.skills.SkillType;
+import com.rs.entity.player.skills.Skills;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Encodes {@link PlayerAttributes} in binary, one section at a time. The same section is always encoded to the same
+ * bytes, so that a section which did not change can be recognised by its bytes.
+ */
+public final class PlayerAttributesCodec {
+
+    /**
+     * The sections of the attributes, which are identified by their ordinal. New sections are added at the end, and a
+     * section whose encoding changes is replaced by a new section, so that older player files can still be decoded.
+     */
+    public enum Section {
+        ACCOUNT, POSITION, RUN_ENERGY, APPEARANCE, INVENTORY, EQUIPMENT, SKILLS, FRIENDS, IGNORED, SETTINGS, INFRACTIONS
+    }
+
+    public static final Section[] SECTIONS = Section.values();
+    /**
+     * The version of the encoding, which is written at the start of every player file.
+     */
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x52535046;
+
+    private PlayerAttributesCodec() {
+    }
+
+    /**
+     * Encodes all attributes, as a header followed by every section prefixed by its ordinal and length.
+     */
+    public static void write(PlayerAttributes attributes, DataOutput out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream sectionOut = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeString(out, attributes.getUsername());
+        out.writeByte(SECTIONS.length);
+
+        for (Section section : SECTIONS) {
+            bytes.reset();
+            encode(section, attributes, sectionOut);
+            out.writeByte(section.ordinal());
+            out.writeShort(bytes.size());
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Decodes all attributes which were encoded by {@link #write(PlayerAttributes, DataOutput)}. Sections which are
+     * not known are skipped, and the attributes of sections which are missing are left at their defaults.
+     */
+    public static PlayerAttributes read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a player file");
+        }
+        int version = in.readUnsignedShort();
+
+        if (version > VERSION) {
+            throw new IOException("Player file version " + version + " is newer than version " + VERSION);
+        }
+        PlayerAttributes attributes = new PlayerAttributes();
+        attributes.setUsername(readString(in));
+        int sections = in.readUnsignedByte();
+
+        for (int i = 0; i < sections; i++) {
+            int id = in.readUnsignedByte();
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+
+            if (id < SECTIONS.length) {
+                decode(SECTIONS[id], attributes, new DataInputStream(new ByteArrayInputStream(bytes)));
+            }
+        }
+        return attributes;
+    }
+
+    public static void encode(Section section, PlayerAttributes attributes, DataOutput out) throws IOException {
+        switch (section) {
+            case ACCOUNT:
+                writeString(out, attributes.getPassword());
+                out.writeByte(attributes.getPrivilege().ordinal());
+                break;
+            case POSITION:
+                Position position = attributes.getPosition();
+                out.writeShort(position.getX());
+                out.writeShort(position.getY());
+                out.writeByte(position.getZ());
+                break;
+            case RUN_ENERGY:
+                out.writeFloat(attributes.getRunEnergy());
+                break;
+            case APPEARANCE:
+                out.writeByte(attributes.getGender());
+                writeInts(out, attributes.getAppearance());
+                writeInts(out, attributes.getColors());
+                break;
+            case INVENTORY:
+                writeInts(out, attributes.getInventory());
+                writeInts(out, attributes.getInventoryN());
+                break;
+            case EQUIPMENT:
+                writeInts(out, attributes.getEquipment());
+                writeInts(out, attributes.getEquipmentN());
+                break;
+            case SKILLS:
+                writeSkills(out, attributes.getSkills());
+                break;
+            case FRIENDS:
+                writeNames(out, attributes.getFriends());
+                break;
+            case IGNORED:
+                writeNames(out, attributes.getIgnored());
+                break;
+            case SETTINGS:
+                writeSettings(out, attributes.getSettings());
+                break;
+            case INFRACTIONS:
+                writeInfractions(out, attributes.getInfractions());
+                break;
+        }
+    }
+
+    public static void decode(Section section, PlayerAttributes attributes, DataInput in) throws IOException {
+        switch (section) {
+            case ACCOUNT:
+                attributes.setPassword(readString(in));
+                attributes.setPrivilege(Player.Privilege.values()[in.readUnsignedByte()]);
+                break;
+            case POSITION:
+                attributes.setPosition(new Position(in.readUnsignedShort(), in.readUnsignedShort(),
+                        in.readUnsignedByte()));
+                break;
+            case RUN_ENERGY:
+                attributes.setRunEnergy(in.readFloat());
+                break;
+            case APPEARANCE:
+                attributes.setGender(in.readUnsignedByte());
+                readInts(in, attributes.getAppearance());
+                readInts(in, attributes.getColors());
+                break;
+            case INVENTORY:
+                readInts(in, attributes.getInventory());
+                readInts(in, attributes.getInventoryN());
+                break;
+            case EQUIPMENT:
+                readInts(in, attributes.getEquipment());
+                readInts(in, attributes.getEquipmentN());
+                break;
+            case SKILLS:
+                attributes.setSkills(readSkills(in));
+                break;
+            case FRIENDS:
+                readNames(in, attributes.getFriends());
+                break;
+            case IGNORED:
+                readNames(in, attributes.getIgnored());
+                break;
+            case SETTINGS:
+                readSettings(in, attributes.getSettings());
+                break;
+            case INFRACTIONS:
+                readInfractions(in, attributes.getInfractions());
+                break;
+        }
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeByte(values.length);
+
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void readInts(DataInput in, int[] values) throws IOException {
+        int length = in.readUnsignedByte();
+
+        for (int i = 0; i < length; i++) {
+            int value = in.readInt();
+
+            // Slots which no longer exist are dropped
+            if (i < values.length) {
+                values[i] = value;
+            }
+        }
+    }
+
+    private static void writeSkills(DataOutput out, Skills skills) throws IOException {
+        if (skills == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(SkillType.values().length);
+
+        for (SkillType type : SkillType.values()) {
+            out.writeByte(skills.level(type));
+            out.writeByte(skills.maxLevel(type));
+            out.writeInt(skills.experience(type));
+        }
+    }
+
+    private static Skills readSkills(DataInput in) throws IOException {
+        int length = in.readUnsignedByte();
+
+        if (length == 0) {
+            return null;
+        }
+        List<Skill> skills = new ArrayList<>(length);
+
+        for (int i = 0; i < length; i++) {
+            skills.add(new Skill(SkillType.values()[i], in.readUnsignedByte(), in.readUnsignedByte(), in.readInt()));
+        }
+        return new Skills(skills);
+    }
+
+    private static void writeNames(DataOutput out, Map<Long, String> names) throws IOException {
+        out.writeShort(names.size());
+
+        // Sorted, so that the same names are always encoded to the same bytes
+        for (Map.Entry<Long, String> entry : new TreeMap<>(names).entrySet()) {
+            out.writeLong(entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static void readNames(DataInput in, Map<Long, String> names) throws IOException {
+        names.clear();
+        int length = in.readUnsignedShort();
+
+        for (int i = 0; i < length; i++) {
+            names.put(in.readLong(), readString(in));
+        }
+    }
+
+    private static void writeSettings(DataOutput out, PlayerSettings settings) throws IOException {
+        out.writeByte(settings.getMouseButtons().ordinal());
+        out.writeByte(settings.getBrightness().ordinal());
+        out.writeBoolean(settings.isChatEffects());
+        out.writeBoolean(settings.isSplitPrivateChat());
+        out.writeBoolean(settings.isAcceptAid());
+        out.writeBoolean(settings.isRunToggled());
+        out.writeBoolean(settings.isAutoRetaliate());
+        out.writeByte(settings.getPublicChatMode());
+        out.writeByte(settings.getPrivateChatMode());
+        out.writeByte(settings.getTradeMode());
+    }
+
+    private static void readSettings(DataInput in, PlayerSettings settings) throws IOException {
+        settings.setMouseButtons(PlayerSettings.MouseButtons.values()[in.readUnsignedByte()]);
+        settings.setBrightness(PlayerSettings.Brightness.values()[in.readUnsignedByte()]);
+        settings.setChatEffects(in.readBoolean());
+        settings.setSplitPrivateChat(in.readBoolean());
+        settings.setAcceptAid(in.readBoolean());
+        settings.setRunToggled(in.readBoolean());
+        settings.setAutoRetaliate(in.readBoolean());
+        settings.setPublicChatMode(in.readUnsignedByte());
+        settings.setPrivateChatMode(in.readUnsignedByte());
+        settings.setTradeMode(in.readUnsignedByte());
+    }
+
+    private static void writeInfractions(DataOutput out, PlayerInfractions infractions) throws IOException {
+        out.writeBoolean(infractions.hasBan());
+        writeDate(out, infractions.getBanExpirationDate());
+        out.writeBoolean(infractions.hasMute());
+        writeDate(out, infractions.getMuteExpirationDate());
+    }
+
+    private static void readInfractions(DataInput in, PlayerInfractions infractions) throws IOException {
+        infractions.setBanned(in.readBoolean());
+        infractions.setBanExpirationDate(readDate(in));
+        infractions.setMuted(in.readBoolean());
+        infractions.setMuteExpirationDate(readDate(in));
+    }
+
+    private static void writeDate(DataOutput out, Date date) throws IOException {
+        out.writeBoolean(date != null);
+
+        if (date != null) {
+            out.writeLong(date.getTime());
+        }
+    }
+
+    private static Date readDate(DataInput in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -25,6 +25,18 @@ import com.rs.entity.player.PlayerAttributes;
  */
 public interface PlayerFileHandler {
 
+    /**
+     * Prepares this handler, before any attributes are saved or loaded.
+     */
+    default void init() throws Exception {
+    }
+
+    /**
+     * Closes this handler, once all attributes are saved.
+     */
+    default void close() throws Exception {
+    }
+
     /**
      * Saves the argument attributes.
      */
@@ -0,0 +1,97 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.PlayerAttributes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Converts the JSON player files to binary player files, or to the player store of {@link MappedPlayerFileHandler}.
+ * Run it with {@code gradlew migratePlayerFiles}, or {@code gradlew migratePlayerFiles -Ptarget=store}, while the
+ * server is offline. The JSON files are kept, so that the server can be switched back to them.
+ */
+public final class PlayerFileMigration {
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "binary";
+        String directory = args.length > 1 ? args[1] : "./data/characters/";
+        JsonPlayerFileHandler json = new JsonPlayerFileHandler(directory);
+        PlayerFileHandler converted;
+
+        if (target.equals("binary")) {
+            converted = new BinaryPlayerFileHandler(directory);
+        } else if (target.equals("store")) {
+            converted = new MappedPlayerFileHandler(directory, "players");
+        } else {
+            System.err.println("Usage: PlayerFileMigration [binary|store] [directory]");
+            return;
+        }
+
+        if (new PlayerJournal(json, 0).exists()) {
+            System.err.println("The save journal still holds player saves, start and stop the server first.");
+            return;
+        }
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".json"));
+
+        if (files == null) {
+            System.err.println("No such directory: " + directory);
+            return;
+        }
+        int migrated = 0;
+        int failed = 0;
+        long jsonBytes = 0;
+        long convertedBytes = 0;
+        converted.init();
+
+        for (File file : files) {
+            String username = file.getName().substring(0, file.getName().length() - ".json".length());
+
+            try {
+                PlayerAttributes attributes = json.load(username);
+                converted.save(attributes);
+
+                // Read back, to make sure that nothing was lost
+                byte[] encoded = encode(attributes);
+
+                if (!Arrays.equals(encoded, encode(converted.load(username)))) {
+                    throw new IOException("The converted player file differs from the JSON player file");
+                }
+                jsonBytes += file.length();
+                convertedBytes += encoded.length;
+                migrated++;
+            } catch (Exception ex) {
+                System.err.println("Failed to migrate " + file.getName());
+                ex.printStackTrace();
+                failed++;
+            }
+        }
+        converted.close();
+        System.out.println("Migrated " + migrated + " player files from " + jsonBytes + " to " + convertedBytes
+                + " bytes, " + failed + " failed");
+    }
+
+    private static byte[] encode(PlayerAttributes attributes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PlayerAttributesCodec.write(attributes, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
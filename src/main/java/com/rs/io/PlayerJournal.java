@@ -0,0 +1,356 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.io.PlayerAttributesCodec.Section;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of player saves, in front of a {@link PlayerFileHandler}. A save only appends the sections of
+ * the attributes which changed since the previous save of the account, so saving many players is a sequential write of
+ * a few bytes each. Once the journal grows too large, a checkpoint writes the full attributes of every journaled
+ * account with the player file handler and starts a new journal.
+ * <p>
+ * A journal which was not checkpointed, because the server crashed, is replayed when it is opened. A record which was
+ * only written partly is detected by its checksum, and ends the replay.
+ */
+public final class PlayerJournal {
+
+    private static final int MAGIC = 0x524A524E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The size of the largest record, every section of the largest account is far smaller.
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private final PlayerFileHandler playerFileHandler;
+    private final Path path;
+    private final long checkpointSize;
+    /**
+     * The encoded sections of the accounts saved since the last checkpoint, by username. The arrays are replaced
+     * rather than changed, so that they can be read while they are saved.
+     */
+    private final Map<String, byte[][]> accounts = new ConcurrentHashMap<>();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder unchangedSaves = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+    private final ChannelFactory channelFactory;
+    private FileChannel channel;
+    /**
+     * If an append failed, and the part of the record it wrote could not be removed. The replay stops at that part, so
+     * the journal is checkpointed before anything else is appended.
+     */
+    private boolean torn;
+
+    /**
+     * Creates a journal in the storage directory of the player file handler.
+     *
+     * @param playerFileHandler the handler which stores the checkpointed attributes
+     * @param checkpointSize    the size in bytes from which the journal is checkpointed, 0 only does so when it is
+     *                          opened and closed
+     */
+    public PlayerJournal(PlayerFileHandler playerFileHandler, long checkpointSize) {
+        this(playerFileHandler, checkpointSize,
+                path -> FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Creates a journal whose file is opened by the given factory, so that tests can make its writes fail.
+     */
+    PlayerJournal(PlayerFileHandler playerFileHandler, long checkpointSize, ChannelFactory channelFactory) {
+        this.playerFileHandler = playerFileHandler;
+        this.path = Paths.get(playerFileHandler.getStorageDirectory(), "players.journal");
+        this.checkpointSize = checkpointSize;
+        this.channelFactory = channelFactory;
+    }
+
+    /**
+     * Whether the journal exists, which means that the server did not close it.
+     */
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Opens the journal, replaying and checkpointing it if the server did not close it.
+     */
+    public synchronized void open() throws Exception {
+        if (Files.exists(path)) {
+            replay();
+        }
+        channel = channelFactory.open(path);
+        int replayed = accounts.size();
+        checkpoint();
+
+        if (replayed > 0) {
+            System.out.println("Recovered " + replayed + " player saves from the journal");
+        }
+    }
+
+    /**
+     * Appends the sections of the attributes which changed since they were last saved. The record is synced to disk
+     * by {@link #sync()}, so that a batch of saves is synced at once.
+     */
+    public synchronized void save(PlayerAttributes attributes) throws Exception {
+        // The first record of an account after a checkpoint has all sections, so this is done before encoding them
+        if (torn) {
+            checkpoint();
+        }
+        String username = attributes.getUsername();
+        byte[][] previous = accounts.get(username);
+        byte[][] sections = new byte[PlayerAttributesCodec.SECTIONS.length][];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int changed = 0;
+
+        for (Section section : PlayerAttributesCodec.SECTIONS) {
+            bytes.reset();
+            PlayerAttributesCodec.encode(section, attributes, out);
+            byte[] encoded = bytes.toByteArray();
+            int index = section.ordinal();
+
+            // The bytes of a section which did not change are shared with the previous save
+            if (previous != null && Arrays.equals(previous[index], encoded)) {
+                sections[index] = previous[index];
+            } else {
+                sections[index] = encoded;
+                changed |= 1 << index;
+            }
+        }
+
+        if (changed == 0) {
+            unchangedSaves.increment();
+            return;
+        }
+
+        // Record: username, changed sections and their bytes
+        bytes.reset();
+        out.writeUTF(username);
+        out.writeShort(changed);
+
+        for (int i = 0; i < sections.length; i++) {
+            if ((changed & 1 << i) != 0) {
+                out.writeShort(sections[i].length);
+                out.write(sections[i]);
+            }
+        }
+        append(bytes.toByteArray());
+        accounts.put(username, sections);
+        records.increment();
+
+        if (checkpointSize > 0 && channel.size() >= checkpointSize) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Syncs the appended records to disk.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Loads the attributes of an account which was saved since the last checkpoint, or returns null.
+     */
+    public PlayerAttributes load(String username) throws IOException {
+        byte[][] sections = accounts.get(username);
+        return sections != null ? decode(username, sections) : null;
+    }
+
+    /**
+     * Writes the attributes of every journaled account with the player file handler, and empties the journal.
+     */
+    public synchronized void checkpoint() throws Exception {
+        for (Map.Entry<String, byte[][]> entry : accounts.entrySet()) {
+            playerFileHandler.save(decode(entry.getKey(), entry.getValue()));
+        }
+
+        // Only emptied once every account was written, a crash before then replays the journal again
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.write(header, 0);
+        channel.position(HEADER_SIZE);
+        channel.force(true);
+        accounts.clear();
+        checkpoints.increment();
+        torn = false;
+    }
+
+    /**
+     * Checkpoints and closes the journal, and deletes it since it is empty.
+     */
+    public synchronized void close() throws Exception {
+        checkpoint();
+        channel.close();
+        Files.delete(path);
+    }
+
+    private void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        long position = channel.position();
+
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException ex) {
+            // Remove the part which was written, the replay would stop at it and ignore every record after it
+            try {
+                channel.truncate(position);
+                channel.position(position);
+            } catch (IOException truncateEx) {
+                ex.addSuppressed(truncateEx);
+                torn = true;
+            }
+            throw ex;
+        }
+    }
+
+    private void replay() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unknown journal format: " + path);
+                }
+            } catch (EOFException ex) {
+                // Truncated by a checkpoint which did not finish writing the header, all accounts were written
+                return;
+            }
+
+            while (true) {
+                byte[] payload;
+                int crc;
+
+                try {
+                    int length = in.readInt();
+
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        System.out.println("Ignored a partly written record at the end of the journal");
+                        return;
+                    }
+                    payload = new byte[length];
+                    crc = in.readInt();
+                    in.readFully(payload);
+                } catch (EOFException ex) {
+                    // Reached the end, or a record which was only written partly
+                    return;
+                }
+                CRC32 expected = new CRC32();
+                expected.update(payload, 0, payload.length);
+
+                if ((int) expected.getValue() != crc) {
+                    System.out.println("Ignored a partly written record at the end of the journal");
+                    return;
+                }
+                apply(payload);
+            }
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String username = in.readUTF();
+        int changed = in.readUnsignedShort();
+        byte[][] sections = accounts.computeIfAbsent(username,
+                key -> new byte[PlayerAttributesCodec.SECTIONS.length][]);
+
+        for (int i = 0; i < sections.length; i++) {
+            if ((changed & 1 << i) != 0) {
+                sections[i] = new byte[in.readUnsignedShort()];
+                in.readFully(sections[i]);
+            }
+        }
+    }
+
+    private static PlayerAttributes decode(String username, byte[][] sections) throws IOException {
+        PlayerAttributes attributes = new PlayerAttributes();
+        attributes.setUsername(username);
+
+        for (Section section : PlayerAttributesCodec.SECTIONS) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(sections[section.ordinal()]));
+            PlayerAttributesCodec.decode(section, attributes, in);
+        }
+        return attributes;
+    }
+
+    /**
+     * Gets the amount of records appended.
+     */
+    public long getRecords() {
+        return records.sum();
+    }
+
+    /**
+     * Gets the amount of saves which were skipped, because nothing changed since the previous save.
+     */
+    public long getUnchangedSaves() {
+        return unchangedSaves.sum();
+    }
+
+    /**
+     * Gets the amount of checkpoints.
+     */
+    public long getCheckpoints() {
+        return checkpoints.sum();
+    }
+
+    /**
+     * Gets the amount of accounts which were saved since the last checkpoint.
+     */
+    public int getJournaledAccounts() {
+        return accounts.size();
+    }
+
+    /**
+     * Gets the size of the journal in bytes.
+     */
+    public long getSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Opens the file of a journal.
+     */
+    interface ChannelFactory {
+
+        FileChannel open(Path path) throws IOException;
+    }
+}
@@ -0,0 +1,55 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.file.Files;
+
+/**
+ * Compacts the store of {@link MappedPlayerFileHandler}, by copying the newest record of every player into a new
+ * store which replaces it. Run it with {@code gradlew compactPlayerStore} while the server is offline.
+ */
+public final class PlayerStoreCompaction {
+
+    public static void main(String[] args) throws Exception {
+        String directory = args.length > 0 ? args[0] : "./data/characters/";
+        MappedPlayerFileHandler store = new MappedPlayerFileHandler(directory, "players");
+        MappedPlayerFileHandler compacted = new MappedPlayerFileHandler(directory, "players.compact");
+
+        if (!Files.exists(store.getDataPath())) {
+            System.err.println("No such player store: " + store.getDataPath());
+            return;
+        }
+
+        // Left behind by a compaction which did not finish
+        Files.deleteIfExists(compacted.getDataPath());
+        Files.deleteIfExists(compacted.getIndexPath());
+
+        store.init();
+        compacted.init();
+        long size = store.getDataSize();
+        store.copyTo(compacted);
+        int players = compacted.getPlayers();
+        long compactedSize = compacted.getDataSize();
+        store.close();
+        compacted.close();
+
+        // The data file is replaced first, an old index file is ignored since it belongs to another data file
+        FileUtils.move(compacted.getDataPath(), store.getDataPath());
+        FileUtils.move(compacted.getIndexPath(), store.getIndexPath());
+        System.out.println("Compacted " + players + " players from " + size + " to " + compactedSize + " bytes");
+    }
+}
@@ -0,0 +1,156 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of {@link StreamBuffer.WriteBuffer}s backed by slabs of direct memory. Every thread has its own pool, so
+ * acquiring and releasing buffers needs no synchronization. Buffers are grouped into size classes, requests larger
+ * than the largest size class are allocated on the heap and are not pooled.
+ */
+public final class BufferPool {
+
+    /**
+     * The capacities of the pooled buffers.
+     */
+    private static final int[] SIZE_CLASSES = {64, 256, 1024, 4096, 16384};
+    /**
+     * The size of each slab of direct memory which buffers are carved from.
+     */
+    private static final int SLAB_SIZE = 64 * 1024;
+    /**
+     * The maximum amount of free buffers kept per size class, per thread.
+     */
+    private static final int MAX_FREE_BUFFERS = 256;
+    private static final ThreadLocal<BufferPool> pools = ThreadLocal.withInitial(BufferPool::new);
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder acquired = new LongAdder();
+    private static final LongAdder released = new LongAdder();
+    private final ArrayDeque<StreamBuffer.WriteBuffer>[] freeBuffers;
+    private final ByteBuffer[] slabs = new ByteBuffer[SIZE_CLASSES.length];
+
+    private BufferPool() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<StreamBuffer.WriteBuffer>[] freeBuffers =
+                (ArrayDeque<StreamBuffer.WriteBuffer>[]) new ArrayDeque[SIZE_CLASSES.length];
+        this.freeBuffers = freeBuffers;
+
+        for (int i = 0; i < freeBuffers.length; i++) {
+            freeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Acquires a buffer with at least the given capacity from the current thread's pool.
+     */
+    static StreamBuffer.WriteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+
+        if (sizeClass == -1) {
+            // Not counted as outstanding, since releasing it does nothing
+            misses.increment();
+            return new StreamBuffer.WriteBuffer(ByteBuffer.allocate(size), -1);
+        }
+        acquired.increment();
+        return pools.get().take(sizeClass);
+    }
+
+    /**
+     * Returns a buffer to the current thread's pool.
+     */
+    static void release(StreamBuffer.WriteBuffer buffer) {
+        released.increment();
+        int sizeClass = buffer.getSizeClass();
+        ByteBuffer backing = buffer.getBuffer();
+
+        // Buffers which have outgrown their slab piece are left to the garbage collector
+        if (sizeClass != -1 && backing.isDirect() && backing.capacity() == SIZE_CLASSES[sizeClass]) {
+            ArrayDeque<StreamBuffer.WriteBuffer> free = pools.get().freeBuffers[sizeClass];
+
+            if (free.size() < MAX_FREE_BUFFERS) {
+                free.push(buffer);
+            }
+        }
+    }
+
+    private StreamBuffer.WriteBuffer take(int sizeClass) {
+        StreamBuffer.WriteBuffer buffer = freeBuffers[sizeClass].poll();
+
+        if (buffer != null) {
+            hits.increment();
+            buffer.reset();
+            return buffer;
+        }
+        misses.increment();
+        return new StreamBuffer.WriteBuffer(carve(sizeClass), sizeClass);
+    }
+
+    /**
+     * Carves a new buffer from the slab of a size class.
+     */
+    private ByteBuffer carve(int sizeClass) {
+        int size = SIZE_CLASSES[sizeClass];
+        ByteBuffer slab = slabs[sizeClass];
+
+        if (slab == null || slab.remaining() < size) {
+            slab = slabs[sizeClass] = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size));
+        }
+        slab.limit(slab.position() + size);
+        ByteBuffer piece = slab.slice();
+        slab.position(slab.limit());
+        slab.limit(slab.capacity());
+        return piece;
+    }
+
+    private static int sizeClass(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the fraction of acquisitions which were served by a free pooled buffer.
+     */
+    public static double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the amount of pooled buffers which have been acquired, but not yet released. If this keeps on growing,
+     * buffers are being leaked.
+     */
+    public static long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+}
@@ -16,29 +16,26 @@ package com.rs.net;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A failed connection attempt recorder, used to throttle failed login attempts.
  * Note: The cool down is not 100% accurate.
+ * This is safe to use from the login workers.
  */
 public final class ConnectionThrottle {
 
     public static final int COOLDOWN = 60_000;
     private static final int MAX_ATTEMPTS = 5;
-    private static final Map<String, Integer> map = new HashMap<>();
+    private static final Map<String, Integer> map = new ConcurrentHashMap<>();
 
     public static void enter(String host) {
-        if (map.containsKey(host)) {
-            map.put(host, map.get(host) + 1);
-        } else {
-            map.put(host, 1);
-        }
+        map.merge(host, 1, Integer::sum);
     }
 
     public static boolean throttled(String host) {
-        return map.containsKey(host) && map.get(host) >= MAX_ATTEMPTS;
+        return map.getOrDefault(host, 0) >= MAX_ATTEMPTS;
     }
 
     public static void clear() {
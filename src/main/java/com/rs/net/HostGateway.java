@@ -36,11 +36,7 @@ public final class HostGateway {
      * @param host the host
      */
     public static void enter(String host) {
-        if (map.containsKey(host)) {
-            map.put(host, map.get(host) + 1);
-        } else {
-            map.put(host, 1);
-        }
+        map.merge(host, 1, Integer::sum);
     }
 
     /**
@@ -49,19 +45,9 @@ public final class HostGateway {
      * @param host the host
      */
     public static void exit(String host) {
-        Integer amount = map.get(host);
-
-        if (amount == null)
-            return;
-
-        // Remove the host from the map if it's at 1 connection.
-        if (amount == 1) {
-            map.remove(host);
-            return;
-        }
-
-        // Otherwise decrement the amount of connections stored.
-        map.put(host, amount - 1);
+        // Remove the host from the map if it's at 1 connection, otherwise decrement the amount of connections stored.
+        // This is done atomically, as hosts may enter and exit from different threads.
+        map.computeIfPresent(host, (k, amount) -> amount == 1 ? null : amount - 1);
     }
 
     /**
@@ -0,0 +1,226 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.Client;
+import com.rs.entity.player.Player;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A network shard, which owns a selector and reads data for the clients registered with it. A worker either runs its
+ * own read loop on a dedicated thread, or is polled by the game thread.
+ * <p>
+ * Clients which fail to read have their key cancelled, they are then disconnected by the game thread.
+ */
+public final class NetworkWorker implements Runnable {
+
+    private final int id;
+    private final Selector selector;
+    private final Map<SelectionKey, Client> clientMap = new ConcurrentHashMap<>();
+    /**
+     * Channels accepted by another thread, waiting to be registered with this worker's selector.
+     */
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final LongAdder readBytes = new LongAdder();
+    private ServerSocketChannel serverChannel;
+    private long lastSampleTime = System.currentTimeMillis();
+    private long lastSampleBytes;
+
+    /**
+     * Creates a new NetworkWorker.
+     *
+     * @param id the shard id
+     */
+    public NetworkWorker(int id) throws IOException {
+        this.id = id;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Makes this worker accept connections from the given server channel itself.
+     */
+    public void listen(ServerSocketChannel serverChannel) throws IOException {
+        this.serverChannel = serverChannel;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands an accepted connection over to this worker, this may be called from any thread.
+     */
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * The read loop, which blocks until network events are available and handles them.
+     */
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select();
+                process();
+            } catch (ClosedSelectorException ex) {
+                break;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Handles any network events which are ready, without blocking.
+     */
+    public void poll() throws IOException {
+        selector.selectNow();
+        process();
+    }
+
+    /**
+     * Samples the read byte rate since the last call to this method.
+     *
+     * @return the amount of bytes read per second
+     */
+    public long sampleReadRate() {
+        long now = System.currentTimeMillis();
+        long bytes = readBytes.sum();
+        long elapsed = Math.max(1, now - lastSampleTime);
+        long rate = (bytes - lastSampleBytes) * 1000 / elapsed;
+        lastSampleTime = now;
+        lastSampleBytes = bytes;
+        return rate;
+    }
+
+    private void process() throws IOException {
+        // Register connections handed to us
+        SocketChannel channel;
+
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                add(channel);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                HostGateway.exit(channel.socket().getInetAddress().getHostAddress());
+                channel.close();
+            }
+        }
+
+        // Handle the selected keys
+        for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+            SelectionKey selectionKey = it.next();
+            it.remove();
+
+            if (!selectionKey.isValid()) {
+                continue;
+            }
+
+            if (selectionKey.isAcceptable()) { // Accept new connections.
+                accept(10);
+            }
+
+            Client client = clientMap.get(selectionKey);
+
+            if (client == null) {
+                continue;
+            }
+
+            if (selectionKey.isWritable()) { // Client writes the rest of its queued data.
+                client.flush();
+            }
+
+            if (selectionKey.isValid() && selectionKey.isReadable()) { // Client decodes the packets.
+                int read = client.handleIncomingData();
+
+                if (read == -1) {
+                    selectionKey.cancel();
+                } else {
+                    readBytes.add(read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts up to n incoming connections.
+     */
+    private void accept(int n) throws IOException {
+        SocketChannel socket;
+
+        /*
+         * Here we use a for loop so that we can accept multiple clients per
+         * tick for lower latency. We limit the amount of clients that we
+         * accept per tick to better combat potential denial of service type
+         * attacks.
+         */
+        for (int i = 0; i < n; i++) {
+            socket = serverChannel.accept();
+
+            if (socket == null) {
+                // No more connections to accept (as this one was invalid).
+                break;
+            }
+
+            // Register the connection
+            HostGateway.enter(socket.socket().getInetAddress().getHostAddress());
+            add(socket);
+        }
+    }
+
+    /**
+     * Sets up a new connection.
+     */
+    private void add(SocketChannel socket) throws IOException {
+        socket.configureBlocking(false);
+        SelectionKey key = socket.register(selector, SelectionKey.OP_READ);
+        Client client = new Player(key);
+        System.out.println("Accepted " + client + " on network shard " + id + ".");
+        clientMap.put(key, client);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Map<SelectionKey, Client> getClientMap() {
+        return clientMap;
+    }
+
+    public int getConnectionCount() {
+        return clientMap.size();
+    }
+
+    public long getReadBytes() {
+        return readBytes.sum();
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+}
@@ -0,0 +1,168 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client's queue of outbound data. Packets are appended to pooled direct chunks, which are then written with a
+ * single gathering write when the queue is flushed. Any data the socket does not accept is kept for the next flush.
+ */
+public final class OutboundQueue {
+
+    /**
+     * The maximum amount of bytes which may wait to be written, before a client is considered too slow.
+     */
+    public static final int MAX_PENDING_BYTES = 256 * 1024;
+    /**
+     * The size of each chunk.
+     */
+    private static final int CHUNK_SIZE = 8192;
+    /**
+     * The maximum amount of chunks kept in the pool.
+     */
+    private static final int MAX_POOLED_CHUNKS = 1024;
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledChunks = new AtomicInteger();
+    /**
+     * The chunks, in order. Each chunk is kept ready for appending, the first chunk may have been partially written.
+     */
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    private ByteBuffer[] writeArray = new ByteBuffer[4];
+    private int headOffset;
+    private int pendingBytes;
+    private boolean closed;
+
+    /**
+     * Appends the remaining bytes of the buffer to this queue.
+     *
+     * @return false if the maximum amount of pending bytes would be exceeded
+     */
+    public synchronized boolean append(ByteBuffer src) {
+        if (closed) {
+            return true;
+        }
+
+        if (pendingBytes + src.remaining() > MAX_PENDING_BYTES) {
+            return false;
+        }
+        pendingBytes += src.remaining();
+
+        while (src.hasRemaining()) {
+            ByteBuffer tail = chunks.peekLast();
+
+            if (tail == null || !tail.hasRemaining()) {
+                tail = acquireChunk();
+                chunks.addLast(tail);
+            }
+            int amount = Math.min(tail.remaining(), src.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + amount);
+            tail.put(src);
+            src.limit(limit);
+        }
+        return true;
+    }
+
+    /**
+     * Writes as much of this queue as possible to the channel, using one gathering write.
+     *
+     * @return true if the queue has been fully written
+     */
+    public synchronized boolean flush(GatheringByteChannel channel) throws IOException {
+        if (pendingBytes == 0) {
+            return true;
+        }
+        int count = chunks.size();
+
+        if (writeArray.length < count) {
+            writeArray = new ByteBuffer[Math.max(count, writeArray.length * 2)];
+        }
+
+        // Prepare the chunks for writing
+        int i = 0;
+
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+
+            if (i == 0) {
+                chunk.position(headOffset);
+            }
+            writeArray[i++] = chunk;
+        }
+
+        // Write them
+        long written = channel.write(writeArray, 0, count);
+        pendingBytes -= written;
+        Arrays.fill(writeArray, 0, count, null);
+
+        // Release written chunks, and prepare the rest for appending again
+        while (!chunks.isEmpty() && !chunks.peekFirst().hasRemaining()) {
+            releaseChunk(chunks.pollFirst());
+        }
+        headOffset = chunks.isEmpty() ? 0 : chunks.peekFirst().position();
+
+        for (ByteBuffer chunk : chunks) {
+            chunk.position(chunk.limit());
+            chunk.limit(chunk.capacity());
+        }
+        return pendingBytes == 0;
+    }
+
+    /**
+     * Discards any pending data and releases all chunks, anything appended afterwards is ignored.
+     */
+    public synchronized void close() {
+        closed = true;
+        chunks.forEach(OutboundQueue::releaseChunk);
+        chunks.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Gets the amount of bytes waiting to be written.
+     */
+    public synchronized int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    private static ByteBuffer acquireChunk() {
+        ByteBuffer chunk = pool.poll();
+
+        if (chunk == null) {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        pooledChunks.decrementAndGet();
+        return chunk;
+    }
+
+    private static void releaseChunk(ByteBuffer chunk) {
+        if (pooledChunks.incrementAndGet() > MAX_POOLED_CHUNKS) {
+            pooledChunks.decrementAndGet();
+            return;
+        }
+        chunk.clear();
+        pool.add(chunk);
+    }
+}
@@ -0,0 +1,65 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * A packet which has been framed by the network layer, and is waiting to be handled on the game thread. Instances are
+ * reused by their {@link PacketRing}, so a packet is only valid until the next one is polled.
+ */
+public final class Packet {
+
+    private int opcode;
+    private int length;
+    private final ByteBuffer payload;
+
+    /**
+     * Creates a new Packet.
+     *
+     * @param payload a view of the buffer the payload is stored in
+     */
+    Packet(ByteBuffer payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Points this packet at a payload in its buffer.
+     *
+     * @param opcode   the decrypted opcode
+     * @param length   the payload length
+     * @param position the position of the payload
+     */
+    void set(int opcode, int length, int position) {
+        this.opcode = opcode;
+        this.length = length;
+        payload.limit(position + length);
+        payload.position(position);
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,148 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size ring buffer of framed packets, with a single producer (the network thread reading the client) and a
+ * single consumer (the game thread). Payloads are copied into the ring once, and read back in place through a reused
+ * {@link Packet}, so no memory is allocated per packet.
+ */
+public final class PacketRing {
+
+    /**
+     * The size of a packet header in the ring: the opcode, followed by the payload length.
+     */
+    private static final int HEADER_SIZE = 3;
+    /**
+     * A payload length which marks that the rest of the ring is unused, and the next packet starts at the beginning.
+     */
+    private static final int WRAP_MARKER = 0xFFFF;
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final Packet packet;
+    /**
+     * The total amount of bytes written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * The total amount of bytes released by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * The total amount of bytes taken by the consumer.
+     */
+    private long consumed;
+    /**
+     * The value of {@link #consumed} before the last packet was taken.
+     */
+    private long lastConsumed;
+
+    /**
+     * Creates a new PacketRing.
+     *
+     * @param capacity the size of the ring in bytes
+     */
+    public PacketRing(int capacity) {
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocate(capacity);
+        packet = new Packet(buffer.duplicate());
+    }
+
+    /**
+     * Copies a packet into the ring, this may only be called by the producer.
+     *
+     * @param opcode  the decrypted opcode
+     * @param src     the buffer to copy the payload from, starting at its position
+     * @param length  the payload length
+     * @return <code>false</code> if the ring does not have enough space left
+     */
+    public boolean offer(int opcode, ByteBuffer src, int length) {
+        long tail = this.tail.get();
+        int offset = (int) (tail % capacity);
+        int required = HEADER_SIZE + length;
+        // Packets are stored contiguously, so they do not fit in the space left at the end of the ring.
+        int padding = capacity - offset < required ? capacity - offset : 0;
+
+        if (capacity - (tail - head.get()) < padding + required) {
+            return false;
+        }
+
+        if (padding > 0) {
+            if (padding >= HEADER_SIZE) {
+                buffer.putShort(offset + 1, (short) WRAP_MARKER);
+            }
+            offset = 0;
+        }
+        buffer.put(offset, (byte) opcode);
+        buffer.putShort(offset + 1, (short) length);
+
+        src.get(buffer.array(), offset + HEADER_SIZE, length);
+        this.tail.lazySet(tail + padding + required);
+        return true;
+    }
+
+    /**
+     * Takes the next packet from the ring, and releases the previous one. This may only be called by the consumer.
+     *
+     * @return the next packet, or <code>null</code> if there is none
+     */
+    public Packet poll() {
+        release();
+
+        if (consumed == tail.get()) {
+            return null;
+        }
+        lastConsumed = consumed;
+        int offset = (int) (consumed % capacity);
+
+        if (capacity - offset < HEADER_SIZE || (buffer.getShort(offset + 1) & 0xFFFF) == WRAP_MARKER) {
+            consumed += capacity - offset;
+            offset = 0;
+        }
+        int opcode = buffer.get(offset) & 0xFF;
+        int length = buffer.getShort(offset + 1) & 0xFFFF;
+        packet.set(opcode, length, offset + HEADER_SIZE);
+        consumed += HEADER_SIZE + length;
+        return packet;
+    }
+
+    /**
+     * Puts the packet which was just polled back, so it is polled again next time. This may only be called by the
+     * consumer.
+     */
+    public void pushBack() {
+        consumed = lastConsumed;
+    }
+
+    /**
+     * Releases the space of all packets taken so far, so the producer can reuse it. This may only be called by the
+     * consumer.
+     */
+    public void release() {
+        head.lazySet(consumed);
+    }
+
+    /**
+     * Gets the amount of bytes in the ring which have not been released yet.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
@@ -16,6 +16,7 @@ package com.rs.net;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 /**
@@ -60,12 +61,22 @@ public abstract class StreamBuffer {
     }
 
     /**
-     * Creates a new OutBuffer.
+     * Creates a new OutBuffer. This buffer is not pooled, so it is suitable for data which is kept around.
      *
      * @param size the size
      */
     public static WriteBuffer createWriteBuffer(int size) {
-        return new WriteBuffer(size);
+        return new WriteBuffer(ByteBuffer.allocate(size), -1);
+    }
+
+    /**
+     * Acquires an OutBuffer from the current thread's {@link BufferPool}. It must be released with
+     * {@link WriteBuffer#release()} once it is no longer used, and it may contain stale data past its position.
+     *
+     * @param size the minimum size
+     */
+    public static WriteBuffer acquireWriteBuffer(int size) {
+        return BufferPool.acquire(size);
     }
 
     public static int hexToInt(byte[] data) {
@@ -189,7 +200,7 @@ public abstract class StreamBuffer {
         /**
          * The internal buffer.
          */
-        private final ByteBuffer buffer;
+        private ByteBuffer buffer;
 
         /**
          * Creates a new InBuffer.
@@ -200,6 +211,17 @@ public abstract class StreamBuffer {
             this.buffer = buffer;
         }
 
+        /**
+         * Points this buffer at new data, so one ReadBuffer can be reused to read many packets.
+         *
+         * @param buffer the buffer
+         * @return this buffer
+         */
+        public ReadBuffer wrap(ByteBuffer buffer) {
+            this.buffer = buffer;
+            return this;
+        }
+
         @Override
         void switchAccessType(AccessType type) {
             if (type == AccessType.BIT_ACCESS) {
@@ -542,12 +564,48 @@ public abstract class StreamBuffer {
          * @return the string
          */
         public String readString() {
-            byte temp;
-            StringBuilder b = new StringBuilder();
-            while ((temp = (byte) readByte()) != 10) {
-                b.append((char) temp);
+            int start = buffer.position();
+            int end = start;
+
+            while (buffer.get(end) != 10) {
+                end++;
+            }
+            char[] chars = new char[end - start];
+
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) buffer.get(start + i);
+            }
+            buffer.position(end + 1);
+            return new String(chars);
+        }
+
+        /**
+         * Reads the amount of bytes as a value in the format of {@link #hexToInt(byte[])}, without creating an array.
+         *
+         * @param amount the amount of bytes
+         * @return the value
+         */
+        public int readHexInt(int amount) {
+            int value = 0;
+            int n = 1000;
+
+            for (int i = 0; i < amount; i++) {
+                value += (buffer.get() & 0xFF) * n;
+
+                if (n > 1) {
+                    n = n / 1000;
+                }
             }
-            return b.toString();
+            return value;
+        }
+
+        /**
+         * Skips the amount of bytes.
+         *
+         * @param amount the amount of bytes
+         */
+        public void skip(int amount) {
+            buffer.position(buffer.position() + amount);
         }
 
         /**
@@ -635,13 +693,67 @@ public abstract class StreamBuffer {
          */
         private int lengthPosition = 0;
 
+        /**
+         * The {@link BufferPool} size class of this buffer, or -1 if it is not pooled.
+         */
+        private final int sizeClass;
+
+        /**
+         * If this buffer has been returned to its pool.
+         */
+        private boolean released;
+
+        /**
+         * The bits written in bit access mode, the lowest {@link #bitCount} bits have not been flushed to the buffer
+         * yet.
+         */
+        private long bitBuffer;
+
+        /**
+         * The amount of bits in {@link #bitBuffer} which have not been flushed yet, this is always less than 32.
+         */
+        private int bitCount;
+
         /**
          * Creates a new OutBuffer.
          *
-         * @param size the size
+         * @param buffer    the internal buffer
+         * @param sizeClass the pool size class, or -1
+         */
+        WriteBuffer(ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * Returns this buffer to the pool it was acquired from, this does nothing if it is not pooled.
          */
-        private WriteBuffer(int size) {
-            buffer = ByteBuffer.allocate(size);
+        public void release() {
+            if (sizeClass == -1) {
+                return;
+            }
+
+            if (released) {
+                throw new IllegalStateException("Buffer already released.");
+            }
+            released = true;
+            BufferPool.release(this);
+        }
+
+        /**
+         * Prepares this buffer to be handed out by its pool again.
+         */
+        void reset() {
+            bitCount = 0;
+            setBitPosition(0);
+            setAccessType(AccessType.BYTE_ACCESS);
+            buffer.clear();
+            lengthPosition = 0;
+            released = false;
+        }
+
+        int getSizeClass() {
+            return sizeClass;
         }
 
         @Override
@@ -649,13 +761,41 @@ public abstract class StreamBuffer {
             switch (type) {
                 case BIT_ACCESS:
                     setBitPosition(buffer.position() * 8);
+                    bitCount = 0;
                     break;
                 case BYTE_ACCESS:
-                    buffer.position((getBitPosition() + 7) / 8);
+                    flushBits();
                     break;
             }
         }
 
+        /**
+         * Writes the pending bits to the buffer, padding the last byte with zeros.
+         */
+        private void flushBits() {
+            int bytes = (bitCount + 7) >> 3;
+            ensureCapacity(bytes);
+            long bits = bitBuffer << ((bytes << 3) - bitCount);
+
+            for (int i = bytes - 1; i >= 0; i--) {
+                buffer.put((byte) (bits >>> (i << 3)));
+            }
+            bitCount = 0;
+        }
+
+        /**
+         * Grows the buffer if it cannot fit the given amount of bytes. Callers are expected to size their buffers up
+         * front, so this should rarely be needed.
+         */
+        private void ensureCapacity(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer old = buffer;
+                buffer = ByteBuffer.allocate(Math.max(old.capacity() * 2, old.position() + bytes));
+                old.flip();
+                buffer.put(old);
+            }
+        }
+
         /**
          * Writes a packet header.
          *
@@ -717,9 +857,10 @@ public abstract class StreamBuffer {
          * and please do not flip() the buffer before hand.
          */
         public void writeBytes(ByteBuffer src) {
-            for (int i = 0; i < src.position(); i++) {
-                writeByte(src.get(i));
-            }
+            // A duplicate is copied from, as cached buffers are read by several threads at once.
+            ByteBuffer data = src.duplicate();
+            data.flip();
+            buffer.put(data);
         }
 
         /**
@@ -729,13 +870,30 @@ public abstract class StreamBuffer {
          * @param data the data to write
          */
         public void writeBytesReverse(byte[] data) {
-            for (int i = data.length - 1; i >= 0; i--) {
-                writeByte(data[i]);
+            int position = buffer.position();
+
+            if (buffer.remaining() < data.length) {
+                throw new BufferOverflowException();
             }
+
+            if (buffer.hasArray()) {
+                byte[] dst = buffer.array();
+                int offset = buffer.arrayOffset() + position;
+
+                for (int i = 0, j = data.length - 1; j >= 0; i++, j--) {
+                    dst[offset + i] = data[j];
+                }
+            } else {
+                for (int i = 0, j = data.length - 1; j >= 0; i++, j--) {
+                    buffer.put(position + i, data[j]);
+                }
+            }
+            buffer.position(position + data.length);
         }
 
         /**
-         * Writes the value as a variable amount of bits.
+         * Writes the value as a variable amount of bits. The bits are gathered in a 64-bit register, and written to
+         * the buffer a word at a time.
          *
          * @param amount the amount of bits
          * @param value  the value
@@ -747,38 +905,14 @@ public abstract class StreamBuffer {
             if (amount < 0 || amount > 32) {
                 throw new IllegalArgumentException("Number of bits must be between 1 and 32 inclusive.");
             }
-
-            int bytePos = getBitPosition() >> 3;
-            int bitOffset = 8 - (getBitPosition() & 7);
             setBitPosition(getBitPosition() + amount);
+            bitBuffer = (bitBuffer << amount) | (value & ((1L << amount) - 1));
+            bitCount += amount;
 
-            // Re-size the buffer if need be.
-            int requiredSpace = bytePos - buffer.position() + 1;
-            requiredSpace += (amount + 7) / 8;
-            if (buffer.remaining() < requiredSpace) {
-                ByteBuffer old = buffer;
-                buffer = ByteBuffer.allocate(old.capacity() + requiredSpace);
-                old.flip();
-                buffer.put(old);
-            }
-
-            for (; amount > bitOffset; bitOffset = 8) {
-                byte tmp = buffer.get(bytePos);
-                tmp &= ~BIT_MASKS[bitOffset];
-                tmp |= (value >> (amount - bitOffset)) & BIT_MASKS[bitOffset];
-                buffer.put(bytePos++, tmp);
-                amount -= bitOffset;
-            }
-            if (amount == bitOffset) {
-                byte tmp = buffer.get(bytePos);
-                tmp &= ~BIT_MASKS[bitOffset];
-                tmp |= value & BIT_MASKS[bitOffset];
-                buffer.put(bytePos, tmp);
-            } else {
-                byte tmp = buffer.get(bytePos);
-                tmp &= ~(BIT_MASKS[amount] << (bitOffset - amount));
-                tmp |= (value & BIT_MASKS[amount]) << (bitOffset - amount);
-                buffer.put(bytePos, tmp);
+            if (bitCount >= 32) {
+                bitCount -= 32;
+                ensureCapacity(4);
+                buffer.putInt((int) (bitBuffer >>> bitCount));
             }
         }
 
@@ -0,0 +1,208 @@
+package com.rs.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.action.PublicChat;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerSettings;
+import com.rs.entity.player.infractions.ReportAbuse;
+import com.rs.entity.player.infractions.ReportAbuseRule;
+import com.rs.net.Packet;
+import com.rs.net.StreamBuffer;
+import com.rs.plugin.PluginHandler;
+import com.rs.util.Misc;
+
+/**
+ * The decoders of all packets which are handled by the server itself.
+ */
+public final class DefaultPacketDecoders {
+
+    /**
+     * The arguments of a command which has none.
+     */
+    private static final String[] NO_ARGUMENTS = {};
+
+    /**
+     * Registers all default decoders.
+     */
+    public static void register() {
+        PacketDecoderRegistry.register(DefaultPacketDecoders::removeItem, 145);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::equipItem, 41);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::designCharacter, 101);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::chatModes, 95);
+        PacketDecoderRegistry.register((player, packet, in) -> PluginHandler.dispatchActionButton(player,
+                in.readHexInt(2)), 185);
+        PacketDecoderRegistry.register((player, packet, in) -> PluginHandler.dispatchAddIgnore(player,
+                in.readLong()), 133);
+        PacketDecoderRegistry.register((player, packet, in) -> PluginHandler.dispatchRemoveIgnore(player,
+                in.readLong()), 74);
+        PacketDecoderRegistry.register((player, packet, in) -> PluginHandler.dispatchAddFriend(player,
+                in.readLong()), 188);
+        PacketDecoderRegistry.register((player, packet, in) -> PluginHandler.dispatchRemoveFriend(player,
+                in.readLong()), 215);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::moveItem, 214);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::privateMessage, 126);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::publicMessage, 4);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::command, 103);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::reportAbuse, 218);
+        PacketDecoderRegistry.register(DefaultPacketDecoders::movement, 248, 164, 98);
+    }
+
+    private static void removeItem(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int interfaceID = in.readShort(StreamBuffer.ValueType.A);
+        int slot = in.readShort(StreamBuffer.ValueType.A);
+        in.readShort(StreamBuffer.ValueType.A); // Item ID.
+
+        if (interfaceID == 1688) {
+            player.getAttributes().unequip(slot, player);
+        }
+    }
+
+    private static void equipItem(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        in.readShort(); // Item ID.
+        int slot = in.readShort(StreamBuffer.ValueType.A);
+        in.readShort(); // Interface ID.
+        player.getAttributes().equip(slot, player);
+    }
+
+    private static void designCharacter(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int gender = in.readByte();
+        int[] appearance = new int[7];
+        int[] colors = new int[5];
+
+        for (int i = 0; i < appearance.length; i++)
+            appearance[i] = in.readByte();
+
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = in.readByte();
+
+        // Validate the interface is open
+        if (player.getCurrentInterfaceId() != 3559)
+            return;
+
+        // Validate values
+        if (gender != 0 && gender != 1)
+            return;
+
+        if (!Misc.validateColors(colors) || !Misc.validateAppearance(appearance))
+            return;
+
+        // Set changes
+        player.getAttributes().setGender(gender);
+        System.arraycopy(colors, 0, player.getAttributes().getColors(), 0, colors.length);
+        System.arraycopy(appearance, 0, player.getAttributes().getAppearance(), 0, appearance.length);
+
+        // Set update flags
+        player.getUpdateContext().setAppearanceUpdateRequired();
+    }
+
+    private static void chatModes(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int publicChatMode = in.readByte(); // 0-3
+        int privateChatMode = in.readByte(); // 0-2
+        int tradeMode = in.readByte(); // 0-2
+
+        // Validate values
+        if (!Misc.in(publicChatMode, 0, 3) || !Misc.in(privateChatMode, 0, 2) || !Misc.in(tradeMode, 0, 2))
+            return;
+
+        // Ignore if no change was made
+        PlayerSettings settings = player.getAttributes().getSettings();
+
+        if (publicChatMode == settings.getPublicChatMode()
+                && privateChatMode == settings.getPrivateChatMode()
+                && tradeMode == settings.getTradeMode())
+            return;
+        PluginHandler.dispatchModifyChatMode(player, publicChatMode, privateChatMode, tradeMode);
+        settings.setPublicChatMode(publicChatMode);
+        settings.setPrivateChatMode(privateChatMode);
+        settings.setTradeMode(tradeMode);
+    }
+
+    private static void moveItem(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int frameId = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
+        int insertMode = in.readByte();
+        int initialSlot = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
+        int endSlot = in.readShort(StreamBuffer.ByteOrder.LITTLE);
+
+        // Inventory
+        if (frameId == 3214) {
+            player.getAttributes().swapInventoryItem(initialSlot, endSlot);
+        }
+    }
+
+    private static void privateMessage(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        long username = in.readLong();
+        int chatLength = (packet.getLength() - 8);
+        byte[] text = in.readBytes(chatLength);
+        PluginHandler.dispatchPrivateMessage(player, username, text);
+    }
+
+    private static void publicMessage(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int effects = in.readByte(false, StreamBuffer.ValueType.S);
+        int color = in.readByte(false, StreamBuffer.ValueType.S);
+        int chatLength = (packet.getLength() - 2);
+        byte[] text = in.readBytesReverse(chatLength, StreamBuffer.ValueType.A);
+        PluginHandler.dispatchPublicMessage(player, new PublicChat(color, effects, text));
+    }
+
+    private static void command(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        String command = in.readString();
+        int nameEnd = command.indexOf(' ');
+
+        if (nameEnd == -1) {
+            PluginHandler.dispatchCommand(player, command.toLowerCase(), NO_ARGUMENTS);
+        } else {
+            PluginHandler.dispatchCommand(player, command.substring(0, nameEnd).toLowerCase(),
+                    Misc.split(command, nameEnd + 1, ' '));
+        }
+    }
+
+    private static void reportAbuse(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        long username = in.readLong();
+        int ruleId = in.readByte();
+        boolean muteFor48Hours = in.readByte() == 1;
+        ReportAbuse reportAbuse = new ReportAbuse(Misc.decodeBase37(username), ReportAbuseRule.ofId(ruleId),
+                muteFor48Hours);
+        PluginHandler.dispatchReportAbuse(player, reportAbuse);
+    }
+
+    private static void movement(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        int length = packet.getLength();
+
+        if (packet.getOpcode() == 248) {
+            length -= 14;
+        }
+        int steps = (length - 5) / 2;
+        int firstStepX = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
+
+        // The steps are relative to the first step, which is sent after them.
+        int stepsPosition = in.getBuffer().position();
+        in.skip(steps * 2);
+        int firstStepY = in.readShort(StreamBuffer.ByteOrder.LITTLE);
+        player.getMovementHandler().reset();
+        player.getMovementHandler().setRunPath(in.readByte(StreamBuffer.ValueType.C) == 1);
+        player.getMovementHandler().addToPath(firstStepX, firstStepY);
+        in.getBuffer().position(stepsPosition);
+
+        for (int i = 0; i < steps; i++) {
+            int stepX = in.readByte() + firstStepX;
+            int stepY = in.readByte() + firstStepY;
+            player.getMovementHandler().addToPath(stepX, stepY);
+        }
+        player.getMovementHandler().finish();
+    }
+}
@@ -0,0 +1,118 @@
+package com.rs.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.Server;
+import com.rs.Settings;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the amount of packets a client may have handled each tick, in total and per opcode. Packets over the budget
+ * are left queued for the next tick, and clients which stay over the budget for too long are disconnected.
+ */
+public final class PacketBudget {
+
+    private static final LongAdder deferredPackets = new LongAdder();
+    private static final LongAdder floodingClients = new LongAdder();
+    private final int packetsPerTick;
+    private final int opcodePacketsPerTick;
+    private final int floodTicks;
+    private final int[] opcodeCounts = new int[256];
+    /**
+     * The opcodes counted this tick, so only their counts have to be cleared.
+     */
+    private final int[] countedOpcodes = new int[256];
+    private int countedOpcodeAmount;
+    private int packets;
+    private int exceededTicks;
+
+    /**
+     * Creates a new PacketBudget, using the limits in the server settings.
+     */
+    public PacketBudget() {
+        Settings settings = Server.getInstance().getSettings();
+        packetsPerTick = settings.getPacketsPerTick();
+        opcodePacketsPerTick = settings.getOpcodePacketsPerTick();
+        floodTicks = settings.getPacketFloodTicks();
+    }
+
+    /**
+     * Counts a packet against the budget of this tick.
+     *
+     * @return <code>false</code> if the packet is over budget, and should not be handled yet
+     */
+    public boolean consume(int opcode) {
+        if (packetsPerTick > 0 && packets >= packetsPerTick) {
+            defer(opcode);
+            return false;
+        }
+        int count = opcodeCounts[opcode];
+
+        if (opcodePacketsPerTick > 0 && count >= opcodePacketsPerTick) {
+            defer(opcode);
+            return false;
+        }
+
+        if (count == 0) {
+            countedOpcodes[countedOpcodeAmount++] = opcode;
+        }
+        opcodeCounts[opcode] = count + 1;
+        packets++;
+        return true;
+    }
+
+    /**
+     * Resets the budget for the next tick.
+     *
+     * @param packetsLeft if there are packets left over this tick
+     * @return <code>true</code> if the client has exceeded its budget for too long, and should be disconnected
+     */
+    public boolean finishTick(boolean packetsLeft) {
+        for (int i = 0; i < countedOpcodeAmount; i++) {
+            opcodeCounts[countedOpcodes[i]] = 0;
+        }
+        countedOpcodeAmount = 0;
+        packets = 0;
+        exceededTicks = packetsLeft ? exceededTicks + 1 : 0;
+
+        if (floodTicks > 0 && exceededTicks >= floodTicks) {
+            floodingClients.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void defer(int opcode) {
+        deferredPackets.increment();
+        PacketDecoderRegistry.getEntry(opcode).addDeferral();
+    }
+
+    /**
+     * Gets the amount of times a packet was left for a later tick, as it was over budget.
+     */
+    public static long getDeferredPackets() {
+        return deferredPackets.sum();
+    }
+
+    /**
+     * Gets the amount of clients disconnected for exceeding their budget for too long.
+     */
+    public static long getFloodingClients() {
+        return floodingClients.sum();
+    }
+}
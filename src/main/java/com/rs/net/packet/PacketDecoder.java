@@ -0,0 +1,37 @@
+package com.rs.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.Player;
+import com.rs.net.Packet;
+import com.rs.net.StreamBuffer;
+
+/**
+ * Decodes and handles a packet, decoders are registered to opcodes in the {@link PacketDecoderRegistry}.
+ */
+@FunctionalInterface
+public interface PacketDecoder {
+
+    /**
+     * Decodes the packet, this is called on the game thread.
+     *
+     * @param player the player who sent the packet
+     * @param packet the packet
+     * @param in     a reader for the packet payload
+     */
+    void decode(Player player, Packet packet, StreamBuffer.ReadBuffer in) throws Exception;
+}
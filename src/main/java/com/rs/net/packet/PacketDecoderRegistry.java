@@ -0,0 +1,166 @@
+package com.rs.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.player.Player;
+import com.rs.net.Packet;
+import com.rs.net.StreamBuffer;
+
+/**
+ * Holds the {@link PacketDecoder} of every opcode, along with statistics on how often they are used. Decoders can be
+ * registered from Java or from plugins, and replace any decoder previously registered to the same opcode.
+ */
+public final class PacketDecoderRegistry {
+
+    /**
+     * The minimum time between two log messages about packets without a decoder of the same opcode, in milliseconds.
+     */
+    private static final long UNHANDLED_LOG_INTERVAL = 60_000;
+    /**
+     * The decoder entries, indexed by opcode.
+     */
+    private static final Entry[] entries = new Entry[256];
+
+    static {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(i);
+        }
+    }
+
+    /**
+     * Registers a decoder to the given opcodes.
+     */
+    public static void register(PacketDecoder decoder, int... opcodes) {
+        for (int opcode : opcodes) {
+            entries[opcode].decoder = decoder;
+        }
+    }
+
+    /**
+     * Decodes a packet with the decoder registered to its opcode. Packets without a decoder are dropped, but they
+     * are still counted and logged, at most once per interval for each opcode.
+     */
+    public static void decode(Player player, Packet packet, StreamBuffer.ReadBuffer in) {
+        Entry entry = entries[packet.getOpcode()];
+        entry.invocations++;
+        entry.bytes += packet.getLength();
+
+        if (entry.decoder == null) {
+            logUnhandled(player, packet, entry);
+            return;
+        }
+        long start = System.nanoTime();
+
+        try {
+            entry.decoder.decode(player, packet, in);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            entry.decodeTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Logs a packet without a decoder, unless a packet with the same opcode was logged recently.
+     */
+    private static void logUnhandled(Player player, Packet packet, Entry entry) {
+        long now = System.currentTimeMillis();
+
+        if (entry.lastUnhandledLog != 0 && now - entry.lastUnhandledLog < UNHANDLED_LOG_INTERVAL) {
+            entry.unloggedPackets++;
+            return;
+        }
+        String suppressed = entry.unloggedPackets > 0 ? " (" + entry.unloggedPackets + " more since last logged)" : "";
+        System.out.println("Unhandled packet " + packet.getOpcode() + " of " + packet.getLength() + " bytes from "
+                + player + suppressed);
+        entry.lastUnhandledLog = now;
+        entry.unloggedPackets = 0;
+    }
+
+    /**
+     * Gets the entry of an opcode.
+     */
+    public static Entry getEntry(int opcode) {
+        return entries[opcode];
+    }
+
+    /**
+     * Gets the entries of all opcodes.
+     */
+    public static Entry[] getEntries() {
+        return entries.clone();
+    }
+
+    /**
+     * The decoder of an opcode and its statistics. Statistics are only updated on the game thread.
+     */
+    public static final class Entry {
+
+        private final int opcode;
+        private PacketDecoder decoder;
+        private long invocations;
+        private long bytes;
+        private long decodeTime;
+        private long deferrals;
+        private long lastUnhandledLog;
+        private long unloggedPackets;
+
+        private Entry(int opcode) {
+            this.opcode = opcode;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public PacketDecoder getDecoder() {
+            return decoder;
+        }
+
+        /**
+         * Gets the amount of packets received with this opcode.
+         */
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Gets the total payload size of the packets received with this opcode.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets the total time spent decoding packets with this opcode, in nanoseconds.
+         */
+        public long getDecodeTime() {
+            return decodeTime;
+        }
+
+        void addDeferral() {
+            deferrals++;
+        }
+
+        /**
+         * Gets the amount of times a packet with this opcode was left for a later tick, as it was over budget.
+         */
+        public long getDeferrals() {
+            return deferrals;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.rs.service;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.Server;
+import com.rs.Settings;
+import com.rs.entity.player.Client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A service which authenticates clients on a pool of login workers, so that loading player files does not stall the
+ * game thread. Authenticated clients are queued, and a limited amount of them is logged into the world each tick.
+ */
+public class LoginService implements Service {
+
+    private final Queue<Client> authenticatedClients = new ConcurrentLinkedQueue<>();
+    private ExecutorService workers;
+    private int loginsPerTick;
+
+    public void init() {
+        Settings settings = Server.getInstance().getSettings();
+        int workerCount = settings.getLoginWorkers() > 0 ? settings.getLoginWorkers() : Server.CPU_CORES;
+        AtomicInteger threadId = new AtomicInteger();
+        loginsPerTick = settings.getLoginsPerTick();
+        workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "login-worker-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Started " + workerCount + " login workers");
+    }
+
+    public void tick() {
+        // Log the authenticated clients in, as far as this tick allows
+        for (int i = 0; loginsPerTick <= 0 || i < loginsPerTick; i++) {
+            Client client = authenticatedClients.poll();
+
+            if (client == null) {
+                break;
+            }
+
+            try {
+                client.completeLogin();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                client.disconnect();
+            }
+        }
+    }
+
+    public void cleanup() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Queues a client which sent its login block to be authenticated by a login worker.
+     */
+    public void submit(Client client) {
+        client.setConnectionStage(Client.ConnectionStage.LOADING);
+        workers.execute(() -> {
+            client.authenticate();
+            authenticatedClients.add(client);
+        });
+    }
+
+    /**
+     * Gets the amount of authenticated clients waiting to be logged in.
+     */
+    public int getPendingLogins() {
+        return authenticatedClients.size();
+    }
+}
@@ -16,75 +16,101 @@ package com.rs.service;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.google.inject.Inject;
 import com.rs.Server;
+import com.rs.Settings;
 import com.rs.entity.player.Client;
-import com.rs.entity.player.Player;
 import com.rs.net.ConnectionThrottle;
 import com.rs.net.HostGateway;
+import com.rs.net.NetworkWorker;
+import com.rs.util.Misc;
 
-import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * A service which accepts connections, and handles data reading.
+ * <p>
+ * In reactor mode, an acceptor thread assigns new connections round-robin to a number of {@link NetworkWorker}s, each
+ * of which reads and decodes packets on its own thread as they arrive. Decoded packets are queued on their client,
+ * and are handled when {@link com.rs.WorldHandler#tick()} drains them. Otherwise, a single worker is polled once per
+ * tick on the game thread.
  */
 public class NetworkService implements Service {
 
+    /**
+     * The interval at which the network shards report their statistics, in milliseconds.
+     */
+    private static final int REPORT_INTERVAL = 300_000;
+    private final Misc.Stopwatch reportTimer = new Misc.Stopwatch();
+    private final LoginService loginService;
     private ServerSocketChannel serverChannel;
-    private Map<SelectionKey, Client> clientMap;
-    private Selector selector;
+    private NetworkWorker[] workers;
+    private Thread acceptorThread;
+    private Thread[] workerThreads;
+
+    @Inject
+    public NetworkService(LoginService loginService) {
+        this.loginService = loginService;
+    }
 
     public void init() throws Exception {
+        Settings settings = Server.getInstance().getSettings();
+
         // Initialize the networking objects.
-        selector = Selector.open();
         serverChannel = ServerSocketChannel.open();
-
-        // ... and configure them!
-        serverChannel.configureBlocking(false);
         serverChannel.socket().bind(Server.getInstance().getAddress());
-        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-        // Finally, initialize whatever else we need.
-        clientMap = new HashMap<>();
+        if (!settings.isUsingNetworkReactor()) {
+            workers = new NetworkWorker[]{new NetworkWorker(0)};
+            workers[0].listen(serverChannel);
+            return;
+        }
+
+        // Start the workers, and the acceptor which feeds them
+        int workerCount = settings.getNetworkWorkers() > 0 ? settings.getNetworkWorkers() : Server.CPU_CORES;
+        workers = new NetworkWorker[workerCount];
+        workerThreads = new Thread[workerCount];
+
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new NetworkWorker(i);
+            workerThreads[i] = new Thread(workers[i], "network-worker-" + i);
+            workerThreads[i].setDaemon(true);
+            workerThreads[i].start();
+        }
+        acceptorThread = new Thread(this::acceptLoop, "network-acceptor");
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+        System.out.println("Started " + workerCount + " network workers");
     }
 
     public void tick() {
-        // Remove disconnected clients
-        clientMap.entrySet().removeIf(e -> !e.getKey().isValid());
-
-        // Remove clients which timed out during login
-        List<SelectionKey> timedOutKeys = clientMap.entrySet().stream()
-                .filter(e -> e.getValue().getTimeoutStopwatch().elapsed() > 5000)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-        timedOutKeys.forEach(e -> {
-            clientMap.get(e).disconnect();
-            clientMap.remove(e);
-            e.cancel();
-        });
-
-        // Handle all network events
-        try {
-            selector.selectNow();
-
-            for (SelectionKey selectionKey : selector.selectedKeys()) {
-                if (selectionKey.isAcceptable()) { // Accept new connections.
-                    accept(10);
-                }
+        // Handle all network events, if the worker threads are not doing so
+        if (acceptorThread == null) {
+            try {
+                workers[0].poll();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
 
-                if (selectionKey.isReadable()) { // Client handles the packet.
-                    clientMap.get(selectionKey).handleIncomingData();
-                }
+        // Start logins, and remove disconnected clients or clients which timed out
+        for (NetworkWorker worker : workers) {
+            processClients(worker.getClientMap());
+        }
+
+        // Report shard statistics
+        if (acceptorThread != null && reportTimer.elapsed() >= REPORT_INTERVAL) {
+            for (NetworkWorker worker : workers) {
+                System.out.println("Network shard " + worker.getId() + ": " + worker.getConnectionCount()
+                        + " connections, " + worker.sampleReadRate() + " bytes/s read");
             }
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            reportTimer.reset();
         }
 
         // Check if connection throttling needs a clear
@@ -94,43 +120,78 @@ public class NetworkService implements Service {
     }
 
     public void cleanup() {
-        Map<SelectionKey, Client> client = new HashMap<>(clientMap);
-        client.forEach((k, v) -> {
-            if (v.getConnectionStage() != Client.ConnectionStage.LOGGED_OUT) {
-                v.disconnect();
+        if (acceptorThread != null) {
+            acceptorThread.interrupt();
+
+            for (Thread workerThread : workerThreads) {
+                workerThread.interrupt();
             }
-        });
+        }
+
+        for (NetworkWorker worker : workers) {
+            Map<SelectionKey, Client> client = new HashMap<>(worker.getClientMap());
+            client.forEach((k, v) -> {
+                if (v.getConnectionStage() != Client.ConnectionStage.LOGGED_OUT) {
+                    v.disconnect();
+                }
+            });
+        }
     }
 
     /**
-     * Accepts up to n incoming connections.
+     * Gets the network shards.
      */
-    private void accept(int n) throws IOException {
-        SocketChannel socket;
-
-        /*
-         * Here we use a for loop so that we can accept multiple clients per
-         * tick for lower latency. We limit the amount of clients that we
-         * accept per tick to better combat potential denial of service type
-         * attacks.
-         */
-        for (int i = 0; i < n; i++) {
-            socket = serverChannel.accept();
-
-            if (socket == null) {
-                // No more connections to accept (as this one was invalid).
-                break;
+    public NetworkWorker[] getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Processes the clients of a shard on the game thread.
+     */
+    private void processClients(Map<SelectionKey, Client> clientMap) {
+        for (Iterator<Map.Entry<SelectionKey, Client>> it = clientMap.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<SelectionKey, Client> entry = it.next();
+            SelectionKey key = entry.getKey();
+            Client client = entry.getValue();
+
+            if (!key.isValid()) {
+                if (client.getConnectionStage() != Client.ConnectionStage.LOGGED_OUT) {
+                    client.disconnect();
+                }
+                it.remove();
+                continue;
             }
 
-            // Register the connection
-            HostGateway.enter(socket.socket().getInetAddress().getHostAddress());
+            if (client.getConnectionStage() == Client.ConnectionStage.AUTHENTICATING) {
+                loginService.submit(client);
+            } else if (client.getConnectionStage() != Client.ConnectionStage.LOADING
+                    && client.getTimeoutStopwatch().elapsed() > 5000) {
+                // No packet was received for more than 5 seconds
+                System.out.println(client + " timed out.");
+                client.disconnect();
+                it.remove();
+                key.cancel();
+            }
+        }
+    }
 
-            // Set up the new connection.
-            socket.configureBlocking(false);
-            SelectionKey key = socket.register(selector, SelectionKey.OP_READ);
-            Client client = new Player(key);
-            System.out.println("Accepted " + client + ".");
-            clientMap.put(key, client);
+    /**
+     * The acceptor loop, which blocks until a connection is accepted and assigns it to a worker.
+     */
+    private void acceptLoop() {
+        int nextWorker = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                SocketChannel socket = serverChannel.accept();
+                HostGateway.enter(socket.socket().getInetAddress().getHostAddress());
+                workers[nextWorker].register(socket);
+                nextWorker = (nextWorker + 1) % workers.length;
+            } catch (ClosedByInterruptException ex) {
+                break;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
         }
     }
 }
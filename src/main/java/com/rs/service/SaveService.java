@@ -0,0 +1,434 @@
+package com.rs.service;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.inject.Inject;
+import com.rs.Server;
+import com.rs.Settings;
+import com.rs.WorldHandler;
+import com.rs.entity.player.Client;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.io.PlayerFileHandler;
+import com.rs.io.PlayerJournal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A service which saves player files on a pool of save workers, so that saving does not stall the game thread. The
+ * attributes are copied when a save is requested, and a newer save of an account replaces the one still waiting. The
+ * waiting saves are handed to the workers in batches each tick. If enabled, the saves are appended to a
+ * {@link PlayerJournal} rather than written to the player files one by one.
+ * <p>
+ * Online players whose attributes changed are autosaved in passes over the player slots, a pass starts every autosave
+ * interval and saves a limited amount of players each tick.
+ */
+public class SaveService implements Service {
+
+    /**
+     * The amount of times a save is attempted while the server shuts down, it is retried until written before that.
+     */
+    private static final int SHUTDOWN_SAVE_ATTEMPTS = 3;
+    private final PlayerFileHandler playerFileHandler;
+    /**
+     * The saves which wait for a worker, by username.
+     */
+    private final Map<String, Save> pendingSaves = new ConcurrentHashMap<>();
+    /**
+     * The saves which are being written by a worker, by username. An account is only written by one worker at once.
+     */
+    private final Map<String, Save> activeSaves = new ConcurrentHashMap<>();
+    private final LongAdder completedSaves = new LongAdder();
+    private final LongAdder coalescedSaves = new LongAdder();
+    private final LongAdder failedSaves = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private ExecutorService workers;
+    private PlayerJournal journal;
+    private int batchSize;
+    private int autosaveInterval;
+    private int autosavesPerTick;
+    /**
+     * The slot the current autosave pass continues from, or -1 if it finished.
+     */
+    private int autosaveSlot = -1;
+    /**
+     * The ticks since the current autosave pass started.
+     */
+    private int autosaveTicks;
+    private int lastAutosavePassTicks;
+    private long autosaves;
+    private volatile boolean stopping;
+
+    @Inject
+    public SaveService(PlayerFileHandler playerFileHandler) {
+        this.playerFileHandler = playerFileHandler;
+    }
+
+    public void init() throws Exception {
+        Settings settings = Server.getInstance().getSettings();
+        playerFileHandler.init();
+        PlayerJournal journal = new PlayerJournal(playerFileHandler, settings.getSaveJournalSize() * 1024L);
+
+        if (settings.isSaveJournal()) {
+            journal.open();
+            this.journal = journal;
+        } else if (journal.exists()) {
+            // Left behind by a crash while the journal was enabled, it is recovered into the player files
+            journal.open();
+            journal.close();
+        }
+
+        int workerCount = settings.getSaveWorkers() > 0 ? settings.getSaveWorkers() : Server.CPU_CORES;
+        AtomicInteger threadId = new AtomicInteger();
+        batchSize = settings.getSavesPerBatch() > 0 ? settings.getSavesPerBatch() : Integer.MAX_VALUE;
+        autosaveInterval = settings.getAutosaveInterval();
+        autosavesPerTick = settings.getAutosavesPerTick() > 0 ? settings.getAutosavesPerTick() : Integer.MAX_VALUE;
+        workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "save-worker-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Started " + workerCount + " save workers");
+    }
+
+    public void tick() {
+        autosave();
+        flush();
+    }
+
+    /**
+     * Hands all waiting saves to the workers, and waits for them to be written.
+     */
+    public void cleanup() {
+        System.out.println("Waiting for " + getQueueDepth() + " player saves...");
+        stopping = true;
+
+        try {
+            while (getQueueDepth() > 0) {
+                flush();
+
+                if (getQueueDepth() > 0) {
+                    // The remaining saves are being written, or are of accounts which are being written
+                    Thread.sleep(10);
+                }
+            }
+            workers.shutdown();
+
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Timed out waiting for " + activeSaves.size() + " saves.");
+            }
+
+            if (journal != null) {
+                journal.close();
+            }
+            playerFileHandler.close();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Requests the attributes of a player to be saved. They are copied right away, so this must be called from the
+     * thread which changes them.
+     */
+    public void save(PlayerAttributes attributes) {
+        PlayerAttributes snapshot = attributes.snapshot();
+        attributes.clearDirty();
+        pendingSaves.compute(attributes.getUsername(), (username, replaced) -> {
+            if (replaced == null) {
+                return new Save(snapshot, System.nanoTime(), 0);
+            }
+
+            // The replaced save was never written, so it is waited on since it was requested
+            coalescedSaves.increment();
+            return new Save(snapshot, replaced.requestTime, 0);
+        });
+    }
+
+    /**
+     * Loads the attributes of a player, from the newest save which has not been written yet if there is one.
+     */
+    public PlayerAttributes load(String username) throws Exception {
+        // Checked in the order a save moves through, so that a save which is moved meanwhile is still found
+        Save save = pendingSaves.get(username);
+
+        if (save == null) {
+            save = activeSaves.get(username);
+        }
+
+        PlayerAttributes attributes = save != null ? save.attributes.snapshot() : null;
+
+        if (attributes == null && journal != null) {
+            attributes = journal.load(username);
+        }
+
+        if (attributes == null) {
+            attributes = playerFileHandler.load(username);
+        }
+        attributes.clearDirty();
+        return attributes;
+    }
+
+    /**
+     * Continues the current autosave pass, or starts one if it is due. Players are saved in slot order, until the
+     * amount of autosaves per tick is reached.
+     */
+    private void autosave() {
+        if (autosaveInterval <= 0) {
+            return;
+        }
+        autosaveTicks++;
+
+        if (autosaveSlot == -1) {
+            if (autosaveTicks < autosaveInterval) {
+                return;
+            }
+            autosaveSlot = 0;
+            autosaveTicks = 0;
+        }
+        Player[] players = WorldHandler.getInstance().getPlayers();
+        int saved = 0;
+
+        while (autosaveSlot < players.length && saved < autosavesPerTick) {
+            Player player = players[autosaveSlot++];
+
+            if (player != null && player.getConnectionStage() == Client.ConnectionStage.LOGGED_IN
+                    && player.getAttributes().isDirty()) {
+                save(player.getAttributes());
+                saved++;
+            }
+        }
+        autosaves += saved;
+
+        if (autosaveSlot == players.length) {
+            autosaveSlot = -1;
+            lastAutosavePassTicks = autosaveTicks;
+
+            if (autosaveTicks > autosaveInterval) {
+                System.out.println("[WARNING]: Autosave pass took " + autosaveTicks + " ticks, its interval is "
+                        + autosaveInterval + " ticks!");
+            }
+        }
+    }
+
+    /**
+     * Hands the waiting saves to the workers in batches, except those of accounts which are still being written.
+     */
+    private void flush() {
+        List<Save> batch = new ArrayList<>();
+        Iterator<Map.Entry<String, Save>> iterator = pendingSaves.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, Save> entry = iterator.next();
+
+            // It is made active before it stops waiting, see load
+            if (activeSaves.putIfAbsent(entry.getKey(), entry.getValue()) != null) {
+                continue;
+            }
+
+            if (!pendingSaves.remove(entry.getKey(), entry.getValue())) {
+                // It was replaced meanwhile, the newer save is picked up later
+                activeSaves.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            batch.add(entry.getValue());
+
+            if (batch.size() == batchSize) {
+                submit(batch);
+                batch = new ArrayList<>();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    private void submit(List<Save> batch) {
+        workers.execute(() -> {
+            List<Save> written = new ArrayList<>(batch.size());
+
+            for (Save save : batch) {
+                try {
+                    if (journal != null) {
+                        journal.save(save.attributes);
+                    } else {
+                        playerFileHandler.save(save.attributes);
+                    }
+                    written.add(save);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    retry(save);
+                }
+            }
+            boolean synced = true;
+
+            // The journal is synced once per batch, a save is only done once it is on disk
+            if (journal != null) {
+                try {
+                    journal.sync();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    synced = false;
+                }
+            }
+
+            for (Save save : written) {
+                if (synced) {
+                    completedSaves.increment();
+                    totalLatency.add(System.nanoTime() - save.requestTime);
+                    activeSaves.remove(save.attributes.getUsername(), save);
+                } else {
+                    retry(save);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a save which failed to be written again, unless a newer save of the account is waiting already. The
+     * dirty flags of the player were cleared when the save was requested, so dropping it would lose the changes.
+     */
+    private void retry(Save save) {
+        String username = save.attributes.getUsername();
+        failedSaves.increment();
+
+        if (stopping && save.attempts + 1 >= SHUTDOWN_SAVE_ATTEMPTS) {
+            System.out.println("[WARNING]: Gave up saving " + username + " after " + (save.attempts + 1)
+                    + " attempts!");
+        } else {
+            // It waits again before it stops being active, see load
+            pendingSaves.putIfAbsent(username, new Save(save.attributes, save.requestTime, save.attempts + 1));
+        }
+        activeSaves.remove(username, save);
+    }
+
+    /**
+     * Gets the journal the saves are appended to, or null if they are written to the player files.
+     */
+    public PlayerJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Gets the amount of players autosaved.
+     */
+    public long getAutosaves() {
+        return autosaves;
+    }
+
+    /**
+     * Gets the amount of online players whose attributes changed, which the current autosave pass has yet to save.
+     */
+    public int getAutosaveBacklog() {
+        if (autosaveSlot == -1) {
+            return 0;
+        }
+        Player[] players = WorldHandler.getInstance().getPlayers();
+        int backlog = 0;
+
+        for (int slot = autosaveSlot; slot < players.length; slot++) {
+            Player player = players[slot];
+
+            if (player != null && player.getConnectionStage() == Client.ConnectionStage.LOGGED_IN
+                    && player.getAttributes().isDirty()) {
+                backlog++;
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Gets the amount of ticks the current autosave pass is behind, as it should have finished before the next one
+     * is due.
+     */
+    public int getAutosaveLag() {
+        return autosaveSlot == -1 ? 0 : Math.max(0, autosaveTicks - autosaveInterval);
+    }
+
+    /**
+     * Gets the amount of ticks the last autosave pass took.
+     */
+    public int getLastAutosavePassTicks() {
+        return lastAutosavePassTicks;
+    }
+
+    /**
+     * Gets the amount of saves which have not been written yet.
+     */
+    public int getQueueDepth() {
+        return pendingSaves.size() + activeSaves.size();
+    }
+
+    /**
+     * Gets the amount of saves written.
+     */
+    public long getCompletedSaves() {
+        return completedSaves.sum();
+    }
+
+    /**
+     * Gets the amount of saves which were replaced by a newer save of the same account before they were written.
+     */
+    public long getCoalescedSaves() {
+        return coalescedSaves.sum();
+    }
+
+    /**
+     * Gets the amount of times a save failed to be written, failed saves are retried.
+     */
+    public long getFailedSaves() {
+        return failedSaves.sum();
+    }
+
+    /**
+     * Gets the average time from requesting a save until it was written, in nanoseconds.
+     */
+    public long getAverageLatency() {
+        long completed = completedSaves.sum();
+        return completed == 0 ? 0 : totalLatency.sum() / completed;
+    }
+
+    /**
+     * A requested save.
+     */
+    private static final class Save {
+
+        private final PlayerAttributes attributes;
+        private final long requestTime;
+        /**
+         * The amount of times this save failed to be written before.
+         */
+        private final int attempts;
+
+        private Save(PlayerAttributes attributes, long requestTime, int attempts) {
+            this.attributes = attributes;
+            this.requestTime = requestTime;
+            this.attempts = attempts;
+        }
+    }
+}
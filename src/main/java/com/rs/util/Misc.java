@@ -107,6 +107,33 @@ public final class Misc {
         return k >= a && k <= b;
     }
 
+    /**
+     * Splits the text from the start index around the delimiter. Trailing empty strings are removed, like
+     * {@link String#split(String)} does, but no regular expression or intermediate list is used.
+     */
+    public static String[] split(String text, int start, char delimiter) {
+        int end = text.length();
+
+        while (end > start && text.charAt(end - 1) == delimiter) {
+            end--;
+        }
+        int count = end == start ? 0 : 1;
+
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == delimiter) {
+                count++;
+            }
+        }
+        String[] tokens = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            int tokenEnd = i == count - 1 ? end : text.indexOf(delimiter, start);
+            tokens[i] = text.substring(start, tokenEnd);
+            start = tokenEnd + 1;
+        }
+        return tokens;
+    }
+
     /**
      * Generates the SHA256 hash for the given input.
      *
@@ -251,7 +278,7 @@ public final class Misc {
         /**
          * The cached time.
          */
-        private long time = System.currentTimeMillis();
+        private volatile long time = System.currentTimeMillis();
 
         /**
          * Resets this stopwatch.
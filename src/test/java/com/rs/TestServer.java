@@ -0,0 +1,52 @@
+package com.rs;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.cedarsoftware.util.io.JsonReader;
+import com.rs.util.LenientCredentialValidator;
+
+import java.util.Collections;
+
+/**
+ * Sets up the server instance for tests which need its settings, for example to create players. The instance is
+ * shared by all tests, so each test sets the settings it needs.
+ */
+public final class TestServer {
+
+    /**
+     * The settings every test gets, as players are created at the start position.
+     */
+    private static final String DEFAULT_SETTINGS = "\"@type\": \"com.rs.Settings\", "
+            + "\"startPosition\": {\"x\": 3222, \"y\": 3222, \"z\": 0}";
+
+    /**
+     * Sets the settings of the server instance, which is created on first use.
+     *
+     * @param settings the settings in json, without the enclosing braces
+     * @return the settings
+     */
+    public static synchronized Settings start(String settings) {
+        if (Server.getInstance() == null) {
+            Server.setInstance(new Server("127.0.0.1", 43594, 600, Collections.emptySet(), null,
+                    new LenientCredentialValidator(), null));
+        }
+        String json = "{" + DEFAULT_SETTINGS + (settings.isEmpty() ? "" : ", " + settings) + "}";
+        Settings result = (Settings) JsonReader.jsonToJava(json);
+        Server.getInstance().setSettings(result);
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package com.rs.entity;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.npc.Npc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class LocalEntitySetTest {
+
+    private static final int SLOTS = 1024;
+    private RegionIndex<Npc> index;
+    private LocalEntitySet<Npc> set;
+    private Npc viewer;
+    private int nextSlot;
+
+    @BeforeEach
+    void setUp() {
+        index = new RegionIndex<>(SLOTS);
+        set = new LocalEntitySet<>(SLOTS);
+        nextSlot = 0;
+        viewer = npc(3200, 3200);
+    }
+
+    @Test
+    void testDiscover_AllFit() {
+        Npc first = npc(3201, 3200);
+        Npc second = npc(3214, 3214);
+        Npc west = npc(3195, 3200);
+        npc(3230, 3200);
+        Npc hidden = npc(3202, 3200);
+
+        assertEquals(LocalEntitySet.VIEW_DISTANCE, set.discover(viewer, index, npc -> npc != hidden));
+        assertEquals(3, set.size());
+        // Regions are searched from west to east, and the entities of a region in the order they entered it
+        assertSame(west, set.get(0));
+        assertSame(first, set.get(1));
+        assertSame(second, set.get(2));
+        assertFalse(set.contains(viewer));
+        assertFalse(set.contains(hidden));
+    }
+
+    @Test
+    void testDiscover_KeepsMembers() {
+        Npc first = npc(3205, 3200);
+        set.discover(viewer, index, npc -> true);
+        Npc second = npc(3201, 3200);
+
+        assertEquals(LocalEntitySet.VIEW_DISTANCE, set.discover(viewer, index, npc -> true));
+        assertEquals(2, set.size());
+        assertSame(first, set.get(0));
+        assertSame(second, set.get(1));
+    }
+
+    @Test
+    void testCompact() {
+        Npc[] npcs = new Npc[5];
+
+        for (int i = 0; i < npcs.length; i++) {
+            npcs[i] = npc(3201 + i, 3200);
+            set.add(npcs[i]);
+        }
+        set.remove(1);
+        set.remove(3);
+        assertEquals(5, set.size());
+        assertNull(set.get(1));
+        assertFalse(set.contains(npcs[1]));
+        assertEquals(npcs[3].getSlot(), set.getSlot(3));
+
+        set.compact();
+        assertEquals(3, set.size());
+        assertSame(npcs[0], set.get(0));
+        assertSame(npcs[2], set.get(1));
+        assertSame(npcs[4], set.get(2));
+        assertEquals(npcs[4].getSlot(), set.getSlot(2));
+
+        set.add(npcs[1]);
+        assertSame(npcs[1], set.get(3));
+        assertTrue(set.contains(npcs[1]));
+    }
+
+    @Test
+    void testDiscover_Capacity() {
+        Npc[] near = npcs(200, 3201, 3200);
+        Npc[] far = npcs(100, 3205, 3200);
+
+        // The nearest entities are added first, and those at the distance which only partly fits are kept
+        assertEquals(5, set.discover(viewer, index, npc -> true));
+        assertEquals(LocalEntitySet.CAPACITY, set.size());
+
+        for (int i = 0; i < near.length; i++) {
+            assertSame(near[i], set.get(i));
+        }
+
+        for (int i = near.length; i < LocalEntitySet.CAPACITY; i++) {
+            assertSame(far[i - near.length], set.get(i));
+        }
+
+        // Nearer entities appear, so the farthest ones are no longer kept to make room for them
+        Npc[] middle = npcs(10, 3202, 3200);
+        assertEquals(4, set.discover(viewer, index, npc -> true));
+        assertEquals(LocalEntitySet.CAPACITY, set.size());
+        assertFalse(set.contains(middle[0]));
+
+        int keepDistance = 4;
+
+        for (int i = 0; i < set.size(); i++) {
+            if (LocalEntitySet.distance(viewer.getPosition(), set.get(i).getPosition()) > keepDistance) {
+                set.remove(i);
+            }
+        }
+        set.compact();
+        assertEquals(near.length, set.size());
+
+        assertEquals(5, set.discover(viewer, index, npc -> true));
+        assertEquals(LocalEntitySet.CAPACITY, set.size());
+
+        for (int i = 0; i < middle.length; i++) {
+            assertSame(middle[i], set.get(near.length + i));
+        }
+        assertSame(far[0], set.get(near.length + middle.length));
+    }
+
+    @Test
+    void testDiscover_NearerEntitiesDoNotFit() {
+        npcs(250, 3201, 3200);
+        set.discover(viewer, index, npc -> true);
+        npcs(10, 3203, 3200);
+
+        // Entities at distance 3 only partly fit, so those which are shown are kept
+        assertEquals(3, set.discover(viewer, index, npc -> true));
+        assertEquals(LocalEntitySet.CAPACITY, set.size());
+    }
+
+    private Npc npc(int x, int y) {
+        Npc npc = new Npc(1);
+        npc.setSlot(nextSlot++);
+        npc.getPosition().setAs(new Position(x, y));
+        index.add(npc);
+        return npc;
+    }
+
+    private Npc[] npcs(int amount, int x, int y) {
+        Npc[] npcs = new Npc[amount];
+
+        for (int i = 0; i < amount; i++) {
+            npcs[i] = npc(x, y);
+        }
+        return npcs;
+    }
+}
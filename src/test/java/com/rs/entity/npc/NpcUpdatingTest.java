@@ -0,0 +1,111 @@
+package com.rs.entity.npc;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.TestServer;
+import com.rs.WorldHandler;
+import com.rs.entity.Position;
+import com.rs.entity.action.Graphics;
+import com.rs.entity.action.Hit;
+import com.rs.entity.player.Player;
+import com.rs.net.BufferPool;
+import com.rs.net.ISAACCipher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class NpcUpdatingTest {
+
+    private final List<Npc> npcs = new ArrayList<>();
+    private Player player;
+
+    @BeforeEach
+    void setUp() {
+        TestServer.start("");
+        player = new Player(null);
+        player.setEncryptor(new ISAACCipher(new int[4]));
+    }
+
+    @AfterEach
+    void tearDown() {
+        npcs.forEach(WorldHandler.getInstance()::unregister);
+    }
+
+    @Test
+    void testUpdate_VisibleNpcsWithUpdates() {
+        for (int i = 0; i < 12; i++) {
+            npc(3220 + i % 4, 3220 + i / 4);
+        }
+
+        // They are added to the local NPCs, and updated as local NPCs in the next tick
+        NpcUpdating.update(player);
+        NpcUpdating.update(player);
+        assertEquals(npcs.size(), player.getNpcs().size());
+
+        for (int i = 0; i < npcs.size(); i++) {
+            assertSame(npcs.get(i), player.getNpcs().get(i));
+        }
+    }
+
+    @Test
+    void testUpdate_ForcedChat() {
+        Npc npc = npc(3223, 3223);
+        npc.setForceChatText("This forced chat message does not fit in the smallest pooled buffer on its own.");
+        npc.getUpdateContext().setForcedChatUpdateRequired();
+        npc.getUpdateContext().getBufferCache().setOutdated();
+        NpcUpdating.encodeStateBlock(npc);
+
+        NpcUpdating.update(player);
+        NpcUpdating.update(player);
+        assertEquals(1, player.getNpcs().size());
+    }
+
+    @Test
+    void testUpdate_ReleasesBuffersOnFailure() {
+        Npc npc = npc(3223, 3223);
+        npc.getUpdateContext().getBufferCache().setOutdated();
+        long outstanding = BufferPool.getOutstanding();
+
+        // The state block of the NPC was not encoded
+        assertThrows(IllegalStateException.class, () -> NpcUpdating.update(player));
+        assertEquals(outstanding, BufferPool.getOutstanding());
+    }
+
+    /**
+     * Registers a visible NPC which was hit and shows a graphic, and encodes its state block like the world does
+     * before the players are updated.
+     */
+    private Npc npc(int x, int y) {
+        Npc npc = new Npc(1);
+        npc.getPosition().setAs(new Position(x, y));
+        npc.setPrimaryHit(new Hit(5, 1));
+        npc.setGraphics(new Graphics(100, 0));
+        npc.getUpdateContext().setPrimaryHitUpdateRequired();
+        npc.getUpdateContext().setGraphicsUpdateRequired();
+        WorldHandler.getInstance().register(npc);
+        NpcUpdating.encodeStateBlock(npc);
+        npcs.add(npc);
+        return npc;
+    }
+}
@@ -0,0 +1,129 @@
+package com.rs.entity.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.TestServer;
+import com.rs.entity.Position;
+import com.rs.entity.player.skills.SkillType;
+import com.rs.entity.player.skills.Skills;
+import com.rs.net.ISAACCipher;
+import com.rs.util.Misc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.rs.entity.player.PlayerAttributes.DIRTY_ACCOUNT;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_APPEARANCE;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_EQUIPMENT;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_FRIENDS;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_INVENTORY;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_POSITION;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_SETTINGS;
+import static com.rs.entity.player.PlayerAttributes.DIRTY_SKILLS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class PlayerAttributesTest {
+
+    private Player player;
+
+    @BeforeEach
+    void setUp() {
+        TestServer.start("");
+        player = new Player(null);
+        player.setEncryptor(new ISAACCipher(new int[4]));
+    }
+
+    @Test
+    void testMutators_MarkDirty() throws Exception {
+        assertDirty(DIRTY_APPEARANCE, attributes -> attributes.setGender(Misc.GENDER_FEMALE));
+        assertDirty(DIRTY_ACCOUNT, attributes -> attributes.setPassword("secret"));
+        assertDirty(DIRTY_ACCOUNT, attributes -> attributes.setPrivilege(Player.Privilege.MODERATOR));
+        assertDirty(DIRTY_ACCOUNT, attributes -> attributes.setRunEnergy(50));
+        assertDirty(DIRTY_ACCOUNT, attributes -> attributes.decreaseRunEnergy(1));
+        assertDirty(DIRTY_ACCOUNT, attributes -> attributes.increaseRunEnergy(1));
+        assertDirty(DIRTY_SKILLS, attributes -> attributes.setSkills(new Skills()));
+        assertDirty(DIRTY_SKILLS, attributes -> attributes.getSkills().addExperience(SkillType.ATTACK, 100));
+        assertDirty(DIRTY_FRIENDS, attributes -> attributes.addFriend(Misc.encodeBase37("friend")));
+        assertDirty(DIRTY_FRIENDS, attributes -> attributes.removeFriend(Misc.encodeBase37("friend")));
+        assertDirty(DIRTY_FRIENDS, attributes -> attributes.addIgnored(Misc.encodeBase37("foe")));
+        assertDirty(DIRTY_FRIENDS, attributes -> attributes.removeIgnored(Misc.encodeBase37("foe")));
+        assertDirty(DIRTY_SETTINGS, attributes -> attributes.getSettings().setRunToggled(true));
+        assertDirty(DIRTY_SETTINGS, attributes -> attributes.getSettings().setPublicChatMode(1));
+        assertDirty(DIRTY_INVENTORY, attributes -> attributes.addInventoryItem(1277, 1, player));
+        assertDirty(DIRTY_INVENTORY, attributes -> attributes.removeInventoryItem(1277, 1));
+        assertDirty(DIRTY_INVENTORY, attributes -> attributes.swapInventoryItem(0, 1));
+        assertDirty(DIRTY_INVENTORY, attributes -> attributes.emptyInventory(player));
+        assertDirty(DIRTY_INVENTORY | DIRTY_EQUIPMENT, attributes -> {
+            attributes.getEquipment()[0] = 1153;
+            attributes.getEquipmentN()[0] = 1;
+            attributes.unequip(0, player);
+        });
+    }
+
+    @Test
+    void testPosition_MovedInPlace() {
+        PlayerAttributes attributes = player.getAttributes();
+        attributes.clearDirty();
+
+        // Walking moves the position in place, without any mutator of the attributes
+        attributes.getPosition().move(1, 0);
+        assertEquals(DIRTY_POSITION, attributes.getDirty());
+        attributes.getPosition().setZ(1);
+        assertEquals(DIRTY_POSITION, attributes.getDirty());
+
+        // Back where it was saved, so there is nothing to save
+        attributes.getPosition().move(-1, 0);
+        attributes.getPosition().setZ(0);
+        assertFalse(attributes.isDirty());
+
+        attributes.setPosition(new Position(3200, 3200));
+        assertEquals(DIRTY_POSITION, attributes.getDirty());
+    }
+
+    @Test
+    void testClearDirty() {
+        PlayerAttributes attributes = player.getAttributes();
+
+        // New attributes are not saved yet
+        assertTrue(attributes.isDirty());
+        attributes.setGender(Misc.GENDER_FEMALE);
+        attributes.addFriend(Misc.encodeBase37("friend"));
+        attributes.getSettings().setAcceptAid(true);
+        attributes.getSkills().addExperience(SkillType.ATTACK, 100);
+        attributes.getPosition().move(1, 1);
+
+        attributes.clearDirty();
+        assertEquals(0, attributes.getDirty());
+        assertFalse(attributes.isDirty());
+    }
+
+    /**
+     * Applies a change to attributes which were just saved, and checks which parts of them are dirty afterwards.
+     */
+    private void assertDirty(int expected, Change change) throws Exception {
+        PlayerAttributes attributes = player.getAttributes();
+        attributes.clearDirty();
+        change.apply(attributes);
+        assertEquals(expected, attributes.getDirty());
+    }
+
+    private interface Change {
+
+        void apply(PlayerAttributes attributes) throws Exception;
+    }
+}
@@ -0,0 +1,153 @@
+package com.rs.entity.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.TestServer;
+import com.rs.net.ISAACCipher;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class UpdateBudgetTest {
+
+    @Test
+    void testPlan_NearestFirst() {
+        UpdateBudget budget = budget(100);
+        budget.reset();
+        budget.count(1, 30);
+        budget.count(2, 30);
+        budget.count(3, 30);
+
+        // 80 bytes are left after the required parts, so the blocks at distance 1 and 2 are planned to fit
+        budget.plan(20);
+        assertTrue(budget.allowBlock(1, 30));
+        assertTrue(budget.allowBlock(2, 30));
+
+        // The 20 bytes left are shared by the farther blocks in the order they are written
+        long deferred = UpdateBudget.getDeferredBlocks();
+        assertFalse(budget.allowBlock(3, 30));
+        assertEquals(deferred + 1, UpdateBudget.getDeferredBlocks());
+        assertTrue(budget.allowBlock(3, 15));
+        assertFalse(budget.allowAddition(10));
+        assertTrue(budget.allowAddition(5));
+    }
+
+    @Test
+    void testPlan_NearestDoNotFit() {
+        UpdateBudget budget = budget(100);
+        budget.reset();
+        budget.count(1, 90);
+        budget.count(2, 10);
+
+        // No distance is planned, as the nearest blocks do not fit together
+        budget.plan(20);
+        assertFalse(budget.allowBlock(1, 90));
+        assertTrue(budget.allowBlock(2, 10));
+    }
+
+    @Test
+    void testPlan_Unlimited() {
+        UpdateBudget budget = budget(0);
+        budget.reset();
+        budget.count(1, 100000);
+        budget.plan(5000);
+        assertTrue(budget.allowBlock(1, 100000));
+        assertTrue(budget.allowBlock(15, 100000));
+        assertTrue(budget.allowAddition(100000));
+    }
+
+    @Test
+    void testDefer_NextTick() {
+        UpdateBudget budget = budget(100);
+        Player first = player();
+        Player second = player();
+        ByteBuffer block = block(40);
+
+        budget.reset();
+        assertNull(budget.getDeferred(first));
+        budget.defer(first, block);
+        budget.defer(second, block(20));
+
+        // The deferred block is sent in the next tick, and the block of that tick is deferred in turn
+        budget.reset();
+        assertSame(block, budget.getDeferred(first));
+        assertSame(block, budget.takeDeferred(first));
+        assertNull(budget.getDeferred(first));
+        ByteBuffer next = block(40);
+        budget.defer(first, next);
+
+        // The second player is no longer a local player
+        budget.discard(second);
+        assertNull(budget.takeDeferred(second));
+
+        budget.reset();
+        assertSame(next, budget.takeDeferred(first));
+        assertNull(budget.takeDeferred(first));
+    }
+
+    @Test
+    void testDefer_Dropped() {
+        UpdateBudget budget = budget(100);
+        Player first = player();
+        Player second = player();
+        Player third = player();
+        long dropped = UpdateBudget.getDroppedBlocks();
+
+        budget.reset();
+        budget.defer(first, block(60));
+        budget.defer(second, block(50));
+        assertEquals(dropped + 1, UpdateBudget.getDroppedBlocks());
+        assertNull(budget.getDeferred(second));
+
+        // Exactly the budget may be deferred
+        ByteBuffer block = block(40);
+        budget.defer(third, block);
+        assertEquals(dropped + 1, UpdateBudget.getDroppedBlocks());
+        assertSame(block, budget.getDeferred(third));
+
+        // The deferred size starts over in the next tick
+        budget.reset();
+        budget.takeDeferred(first);
+        budget.takeDeferred(third);
+        budget.defer(second, block(100));
+        assertEquals(dropped + 1, UpdateBudget.getDroppedBlocks());
+    }
+
+    private static UpdateBudget budget(int bytesPerTick) {
+        TestServer.start("\"playerUpdateBudget\": " + bytesPerTick);
+        return new UpdateBudget();
+    }
+
+    private static Player player() {
+        Player player = new Player(null);
+        player.setEncryptor(new ISAACCipher(new int[4]));
+        return player;
+    }
+
+    /**
+     * Creates an encoded state block, the size of which is its position.
+     */
+    private static ByteBuffer block(int size) {
+        return ByteBuffer.allocate(size).position(size);
+    }
+}
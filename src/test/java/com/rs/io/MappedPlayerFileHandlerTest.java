@@ -0,0 +1,218 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.Position;
+import com.rs.entity.player.PlayerAttributes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class MappedPlayerFileHandlerTest {
+
+    /**
+     * A segment size which fits only a few records, so that they cross into new segments.
+     */
+    private static final int SEGMENT_SIZE = 4096;
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("store");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void testSaveLoad_AcrossSegments() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        List<PlayerAttributes> accounts = accounts(40);
+
+        for (PlayerAttributes attributes : accounts) {
+            store.save(attributes);
+        }
+        assertTrue(store.getDataSize() > 4 * SEGMENT_SIZE);
+        assertLoads(store, accounts);
+        store.close();
+
+        // Opened with its index
+        store = store("players");
+        store.init();
+        assertEquals(accounts.size(), store.getPlayers());
+        assertLoads(store, accounts);
+        store.close();
+
+        // Opened without its index, so the records are read again past the end of each segment
+        Files.delete(store.getIndexPath());
+        store = store("players");
+        store.init();
+        assertEquals(accounts.size(), store.getPlayers());
+        assertLoads(store, accounts);
+        store.close();
+    }
+
+    @Test
+    void testLoad_NoSuchPlayer() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        assertThrows(NoSuchFileException.class, () -> store.load("nobody"));
+        store.close();
+    }
+
+    @Test
+    void testInit_RecordsAfterStaleIndex() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        List<PlayerAttributes> accounts = accounts(10);
+        store.save(accounts.get(0));
+        store.close();
+        byte[] staleIndex = Files.readAllBytes(store.getIndexPath());
+
+        store = store("players");
+        store.init();
+
+        for (PlayerAttributes attributes : accounts) {
+            attributes.setPosition(new Position(3000, 3000));
+            store.save(attributes);
+        }
+        store.close();
+
+        // The server crashed before the index was written again
+        Files.write(store.getIndexPath(), staleIndex);
+        store = store("players");
+        store.init();
+        assertEquals(accounts.size(), store.getPlayers());
+        assertLoads(store, accounts);
+        store.close();
+    }
+
+    @Test
+    void testInit_IndexOfAnotherDataFile() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        List<PlayerAttributes> accounts = accounts(3);
+        store.save(accounts.get(0));
+        store.close();
+
+        MappedPlayerFileHandler other = store("other");
+        other.init();
+        other.save(accounts.get(1));
+        other.save(accounts.get(2));
+        other.close();
+
+        // The index has a valid checksum, but the generation of the other data file
+        Files.copy(other.getIndexPath(), store.getIndexPath(), StandardCopyOption.REPLACE_EXISTING);
+        store = store("players");
+        store.init();
+        assertEquals(1, store.getPlayers());
+        assertLoads(store, accounts.subList(0, 1));
+        store.close();
+    }
+
+    @Test
+    void testInit_TruncatedIndex() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        List<PlayerAttributes> accounts = accounts(3);
+
+        for (PlayerAttributes attributes : accounts) {
+            store.save(attributes);
+        }
+        store.close();
+
+        for (int length : new int[]{0, 2, 20}) {
+            Files.write(store.getIndexPath(), new byte[length]);
+            store = store("players");
+            store.init();
+            assertLoads(store, accounts);
+            store.close();
+        }
+    }
+
+    @Test
+    void testCopyTo() throws Exception {
+        MappedPlayerFileHandler store = store("players");
+        store.init();
+        List<PlayerAttributes> accounts = accounts(10);
+
+        for (int i = 0; i < 5; i++) {
+            for (PlayerAttributes attributes : accounts) {
+                attributes.setRunEnergy(i);
+                store.save(attributes);
+            }
+        }
+        MappedPlayerFileHandler compacted = store("compacted");
+        compacted.init();
+        store.copyTo(compacted);
+
+        assertEquals(store.getLiveSize(), compacted.getLiveSize());
+        assertTrue(compacted.getDataSize() < store.getDataSize() / 4);
+        assertLoads(compacted, accounts);
+        store.close();
+        compacted.close();
+
+        compacted = store("compacted");
+        compacted.init();
+        assertEquals(accounts.size(), compacted.getPlayers());
+        assertLoads(compacted, accounts);
+        compacted.close();
+    }
+
+    private MappedPlayerFileHandler store(String name) {
+        return new MappedPlayerFileHandler(directory.toString(), name, SEGMENT_SIZE);
+    }
+
+    private static List<PlayerAttributes> accounts(int count) {
+        List<PlayerAttributes> accounts = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+            attributes.setUsername("player" + i);
+            attributes.getInventoryN()[0] = i;
+            accounts.add(attributes);
+        }
+        return accounts;
+    }
+
+    private static void assertLoads(MappedPlayerFileHandler store, List<PlayerAttributes> accounts) throws Exception {
+        for (PlayerAttributes attributes : accounts) {
+            assertArrayEquals(PlayerAttributesCodecTest.write(attributes),
+                    PlayerAttributesCodecTest.write(store.load(attributes.getUsername())));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.Position;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.entity.player.PlayerSettings;
+import com.rs.entity.player.skills.Skill;
+import com.rs.entity.player.skills.SkillType;
+import com.rs.entity.player.skills.Skills;
+import com.rs.io.PlayerAttributesCodec.Section;
+import com.rs.util.Misc;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class PlayerAttributesCodecTest {
+
+    @Test
+    void testEncodeDecode_EverySection() throws IOException {
+        PlayerAttributes attributes = attributes();
+
+        for (Section section : PlayerAttributesCodec.SECTIONS) {
+            byte[] encoded = encode(section, attributes);
+            PlayerAttributes decoded = new PlayerAttributes();
+            PlayerAttributesCodec.decode(section, decoded, new DataInputStream(new ByteArrayInputStream(encoded)));
+
+            // The section must hold something other than the defaults, or the round trip proves nothing
+            assertFalse(Arrays.equals(encode(section, new PlayerAttributes()), encoded), section.name());
+            assertArrayEquals(encoded, encode(section, decoded), section.name());
+        }
+    }
+
+    @Test
+    void testWriteRead() throws IOException {
+        PlayerAttributes attributes = attributes();
+        PlayerAttributes read = PlayerAttributesCodec.read(new DataInputStream(new ByteArrayInputStream(
+                write(attributes))));
+
+        assertEquals("codec", read.getUsername());
+        assertEquals("secret", read.getPassword());
+        assertEquals(new Position(3222, 3218, 1), read.getPosition());
+        assertEquals(50, read.getSkills().level(SkillType.ATTACK));
+        assertEquals(1, read.getFriends().size());
+        assertArrayEquals(write(attributes), write(read));
+    }
+
+    @Test
+    void testEncode_FriendsInAnyOrder() throws IOException {
+        PlayerAttributes first = new PlayerAttributes();
+        first.addFriend(Misc.encodeBase37("alice"));
+        first.addFriend(Misc.encodeBase37("bob"));
+        PlayerAttributes second = new PlayerAttributes();
+        second.addFriend(Misc.encodeBase37("bob"));
+        second.addFriend(Misc.encodeBase37("alice"));
+
+        assertArrayEquals(encode(Section.FRIENDS, first), encode(Section.FRIENDS, second));
+    }
+
+    @Test
+    void testRead_NotAPlayerFile() {
+        assertThrows(IOException.class, () -> PlayerAttributesCodec.read(new DataInputStream(
+                new ByteArrayInputStream(new byte[16]))));
+    }
+
+    /**
+     * Creates attributes which differ from the defaults in every section.
+     */
+    static PlayerAttributes attributes() {
+        PlayerAttributes attributes = new PlayerAttributes();
+        attributes.setUsername("codec");
+        attributes.setPassword("secret");
+        attributes.setPrivilege(Player.Privilege.MODERATOR);
+        attributes.setPosition(new Position(3222, 3218, 1));
+        attributes.setRunEnergy(42.5f);
+        attributes.setGender(1);
+        attributes.getAppearance()[0] = 3;
+        attributes.getColors()[1] = 4;
+        attributes.getInventory()[0] = 995;
+        attributes.getInventoryN()[0] = 1000;
+        attributes.getEquipment()[3] = 1277;
+        attributes.getEquipmentN()[3] = 1;
+        List<Skill> skills = new ArrayList<>();
+
+        for (SkillType type : SkillType.values()) {
+            skills.add(new Skill(type, 50, 60, 100_000 + type.ordinal()));
+        }
+        attributes.setSkills(new Skills(skills));
+        attributes.addFriend(Misc.encodeBase37("friend"));
+        attributes.addIgnored(Misc.encodeBase37("foe"));
+        PlayerSettings settings = attributes.getSettings();
+        settings.setMouseButtons(PlayerSettings.MouseButtons.TWO);
+        settings.setBrightness(PlayerSettings.Brightness.BRIGHT);
+        settings.setSplitPrivateChat(true);
+        settings.setPublicChatMode(2);
+        attributes.getInfractions().setBanned(true);
+        attributes.getInfractions().setBanExpirationDate(new Date(1_000_000L));
+        attributes.getInfractions().setMuted(true);
+        return attributes;
+    }
+
+    static byte[] write(PlayerAttributes attributes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PlayerAttributesCodec.write(attributes, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encode(Section section, PlayerAttributes attributes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PlayerAttributesCodec.encode(section, attributes, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,411 @@
+package com.rs.io;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.entity.Position;
+import com.rs.entity.player.PlayerAttributes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class PlayerJournalTest {
+
+    private Path directory;
+    private MemoryPlayerFileHandler playerFiles;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        playerFiles = new MemoryPlayerFileHandler(directory);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void testSave_Unchanged_AppendsNothing() throws Exception {
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0);
+        journal.open();
+        PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+        long emptySize = journal.getSize();
+        journal.save(attributes);
+        long size = journal.getSize();
+
+        journal.save(attributes.snapshot());
+        assertEquals(size, journal.getSize());
+        assertEquals(1, journal.getRecords());
+        assertEquals(1, journal.getUnchangedSaves());
+
+        // Only the changed section is appended
+        attributes.setRunEnergy(10f);
+        journal.save(attributes);
+        assertEquals(2, journal.getRecords());
+        assertTrue(journal.getSize() - size < (size - emptySize) / 4);
+        assertArrayEquals(PlayerAttributesCodecTest.write(attributes),
+                PlayerAttributesCodecTest.write(journal.load("codec")));
+        journal.close();
+    }
+
+    @Test
+    void testCheckpoint() throws Exception {
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0);
+        journal.open();
+        PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+        journal.save(attributes);
+        assertThrows(NoSuchFileException.class, () -> playerFiles.load("codec"));
+
+        journal.checkpoint();
+        assertNull(journal.load("codec"));
+        assertEquals(0, journal.getJournaledAccounts());
+        assertArrayEquals(PlayerAttributesCodecTest.write(attributes),
+                PlayerAttributesCodecTest.write(playerFiles.load("codec")));
+        journal.close();
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    void testReplay() throws Exception {
+        PlayerAttributes first = PlayerAttributesCodecTest.attributes();
+        PlayerAttributes second = secondAccount();
+        byte[] journalBytes = crashImage(first, second);
+
+        // The checkpoint which follows the crash never happened, so the player files are empty
+        MemoryPlayerFileHandler recovered = new MemoryPlayerFileHandler(directory);
+        Files.write(directory.resolve("players.journal"), journalBytes);
+        PlayerJournal journal = new PlayerJournal(recovered, 0);
+        journal.open();
+
+        assertArrayEquals(PlayerAttributesCodecTest.write(first),
+                PlayerAttributesCodecTest.write(recovered.load("codec")));
+        assertArrayEquals(PlayerAttributesCodecTest.write(second),
+                PlayerAttributesCodecTest.write(recovered.load("second")));
+        journal.close();
+    }
+
+    @Test
+    void testReplay_TruncatedLastRecord() throws Exception {
+        PlayerAttributes first = PlayerAttributesCodecTest.attributes();
+        byte[] journalBytes = crashImage(first, secondAccount());
+
+        MemoryPlayerFileHandler recovered = new MemoryPlayerFileHandler(directory);
+        Files.write(directory.resolve("players.journal"), Arrays.copyOf(journalBytes, journalBytes.length - 3));
+        PlayerJournal journal = new PlayerJournal(recovered, 0);
+        journal.open();
+
+        assertArrayEquals(PlayerAttributesCodecTest.write(first),
+                PlayerAttributesCodecTest.write(recovered.load("codec")));
+        assertThrows(NoSuchFileException.class, () -> recovered.load("second"));
+        journal.close();
+    }
+
+    @Test
+    void testReplay_ChecksumMismatch() throws Exception {
+        PlayerAttributes first = PlayerAttributesCodecTest.attributes();
+        byte[] journalBytes = crashImage(first, secondAccount());
+        journalBytes[journalBytes.length - 1] ^= 1;
+
+        MemoryPlayerFileHandler recovered = new MemoryPlayerFileHandler(directory);
+        Files.write(directory.resolve("players.journal"), journalBytes);
+        PlayerJournal journal = new PlayerJournal(recovered, 0);
+        journal.open();
+
+        assertArrayEquals(PlayerAttributesCodecTest.write(first),
+                PlayerAttributesCodecTest.write(recovered.load("codec")));
+        assertThrows(NoSuchFileException.class, () -> recovered.load("second"));
+        journal.close();
+    }
+
+    @Test
+    void testReplay_CrashBetweenCheckpointAndTruncate() throws Exception {
+        PlayerAttributes first = PlayerAttributesCodecTest.attributes();
+        PlayerAttributes second = secondAccount();
+        byte[] journalBytes = crashImage(first, second);
+
+        // The checkpoint wrote the player files, but the journal was not emptied
+        Files.write(directory.resolve("players.journal"), journalBytes);
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0);
+        journal.open();
+
+        assertEquals(0, journal.getJournaledAccounts());
+        assertEquals(1, journal.getCheckpoints());
+        assertArrayEquals(PlayerAttributesCodecTest.write(first),
+                PlayerAttributesCodecTest.write(playerFiles.load("codec")));
+        assertArrayEquals(PlayerAttributesCodecTest.write(second),
+                PlayerAttributesCodecTest.write(playerFiles.load("second")));
+        journal.close();
+    }
+
+    @Test
+    void testSave_FailedAppend() throws Exception {
+        FailingChannel[] channel = new FailingChannel[1];
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0, path -> channel[0] = new FailingChannel(path));
+        journal.open();
+        PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+        journal.save(attributes);
+
+        // The part of the record which was written is removed, so the records after it are replayed
+        channel[0].failWrites = true;
+        attributes.setRunEnergy(10f);
+        assertThrows(IOException.class, () -> journal.save(attributes));
+        channel[0].failWrites = false;
+        attributes.setRunEnergy(20f);
+        journal.save(attributes);
+        assertEquals(2, journal.getRecords());
+
+        assertArrayEquals(PlayerAttributesCodecTest.write(attributes), replay(journal));
+    }
+
+    @Test
+    void testSave_FailedAppendNotRemoved() throws Exception {
+        FailingChannel[] channel = new FailingChannel[1];
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0, path -> channel[0] = new FailingChannel(path));
+        journal.open();
+        PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+        PlayerAttributes saved = attributes.snapshot();
+        journal.save(attributes);
+
+        channel[0].failWrites = true;
+        channel[0].failTruncate = true;
+        attributes.setRunEnergy(10f);
+        assertThrows(IOException.class, () -> journal.save(attributes));
+        channel[0].failWrites = false;
+        channel[0].failTruncate = false;
+
+        // The journal is checkpointed before the next record, so that it does not follow the part which was written
+        attributes.setRunEnergy(20f);
+        journal.save(attributes);
+        assertEquals(2, journal.getCheckpoints());
+        assertArrayEquals(PlayerAttributesCodecTest.write(saved),
+                PlayerAttributesCodecTest.write(playerFiles.load("codec")));
+
+        assertArrayEquals(PlayerAttributesCodecTest.write(attributes), replay(journal));
+    }
+
+    /**
+     * Replays the journal as it is on disk into empty player files, as if the server crashed, and returns the
+     * recovered attributes of the test account. The journal is closed afterwards.
+     */
+    private byte[] replay(PlayerJournal journal) throws Exception {
+        journal.sync();
+        byte[] journalBytes = Files.readAllBytes(directory.resolve("players.journal"));
+        journal.close();
+
+        MemoryPlayerFileHandler recovered = new MemoryPlayerFileHandler(directory);
+        Files.write(directory.resolve("players.journal"), journalBytes);
+        PlayerJournal recovery = new PlayerJournal(recovered, 0);
+        recovery.open();
+        recovery.close();
+        return PlayerAttributesCodecTest.write(recovered.load("codec"));
+    }
+
+    /**
+     * Saves the first account twice and the second account once, and returns the journal as it was on disk before it
+     * was closed. The journal is then closed, which checkpoints it into the player files.
+     */
+    private byte[] crashImage(PlayerAttributes first, PlayerAttributes second) throws Exception {
+        PlayerJournal journal = new PlayerJournal(playerFiles, 0);
+        journal.open();
+        PlayerAttributes older = first.snapshot();
+        older.setPosition(new Position(3200, 3200));
+        journal.save(older);
+        journal.save(first);
+        journal.save(second);
+        journal.sync();
+        byte[] journalBytes = Files.readAllBytes(directory.resolve("players.journal"));
+        journal.close();
+        return journalBytes;
+    }
+
+    private static PlayerAttributes secondAccount() {
+        PlayerAttributes attributes = PlayerAttributesCodecTest.attributes();
+        attributes.setUsername("second");
+        attributes.setPassword("other");
+        return attributes;
+    }
+
+    /**
+     * Keeps the player files in memory.
+     */
+    private static final class MemoryPlayerFileHandler implements PlayerFileHandler {
+
+        private final Map<String, byte[]> files = new HashMap<>();
+        private final Path directory;
+
+        private MemoryPlayerFileHandler(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void save(PlayerAttributes attributes) throws Exception {
+            files.put(attributes.getUsername(), PlayerAttributesCodecTest.write(attributes));
+        }
+
+        @Override
+        public PlayerAttributes load(String username) throws Exception {
+            byte[] bytes = files.get(username);
+
+            if (bytes == null) {
+                throw new NoSuchFileException(username);
+            }
+            return PlayerAttributesCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+
+        @Override
+        public String getStorageDirectory() {
+            return directory.toString();
+        }
+    }
+
+    /**
+     * A journal file whose writes can be made to fail after writing part of the data, like when the disk is full.
+     */
+    private static final class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private boolean failWrites;
+        private boolean failTruncate;
+
+        private FailingChannel(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failWrites) {
+                src.limit(src.position() + src.remaining() / 2);
+                channel.write(src);
+                throw new IOException("No space left on device");
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("Input/output error");
+            }
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class BufferPoolTest {
+
+    @Test
+    void testOutstanding_Pooled() {
+        long outstanding = BufferPool.getOutstanding();
+        StreamBuffer.WriteBuffer buffer = StreamBuffer.acquireWriteBuffer(100);
+        assertEquals(outstanding + 1, BufferPool.getOutstanding());
+
+        buffer.release();
+        assertEquals(outstanding, BufferPool.getOutstanding());
+        assertThrows(IllegalStateException.class, buffer::release);
+    }
+
+    @Test
+    void testOutstanding_Unpooled() {
+        long outstanding = BufferPool.getOutstanding();
+        StreamBuffer.WriteBuffer buffer = StreamBuffer.acquireWriteBuffer(20000);
+        assertEquals(outstanding, BufferPool.getOutstanding());
+
+        buffer.release();
+        assertEquals(outstanding, BufferPool.getOutstanding());
+    }
+
+    @Test
+    void testAcquire_ReusesReleasedBuffer() {
+        StreamBuffer.WriteBuffer buffer = StreamBuffer.acquireWriteBuffer(1000);
+        buffer.writeByte(1);
+        buffer.release();
+
+        StreamBuffer.WriteBuffer reused = StreamBuffer.acquireWriteBuffer(600);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.getBuffer().position());
+        reused.release();
+    }
+}
@@ -0,0 +1,184 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class OutboundQueueTest {
+
+    @Test
+    void testFlush_PartialWrites() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        PartialChannel channel = new PartialChannel(3000);
+        byte[] data = data(20000);
+
+        try {
+            assertTrue(queue.append(ByteBuffer.wrap(data, 0, 12000)));
+
+            // The socket does not accept everything, so the client asks to be told once it can write again
+            assertFalse(queue.flush(channel));
+            assertEquals(9000, queue.getPendingBytes());
+            assertFalse(queue.flush(channel));
+            assertEquals(6000, queue.getPendingBytes());
+
+            // Appended behind the data which is left
+            assertTrue(queue.append(ByteBuffer.wrap(data, 12000, 8000)));
+            assertEquals(14000, queue.getPendingBytes());
+
+            assertEquals(4, flushAll(queue, channel));
+            assertEquals(0, queue.getPendingBytes());
+            assertArrayEquals(data, channel.toByteArray());
+            assertTrue(queue.flush(channel));
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    void testFlush_PartialWritesWithinChunk() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        PartialChannel channel = new PartialChannel(7);
+        byte[] data = data(100);
+
+        try {
+            for (int offset = 0; offset < data.length; offset += 10) {
+                assertTrue(queue.append(ByteBuffer.wrap(data, offset, 10)));
+                assertFalse(queue.flush(channel));
+            }
+
+            assertEquals(4, flushAll(queue, channel));
+            assertArrayEquals(data, channel.toByteArray());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    void testAppend_MaxPendingBytes() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        byte[] data = data(OutboundQueue.MAX_PENDING_BYTES);
+
+        try {
+            assertTrue(queue.append(ByteBuffer.wrap(data)));
+            ByteBuffer excess = ByteBuffer.wrap(new byte[1]);
+            assertFalse(queue.append(excess));
+            assertEquals(1, excess.remaining());
+            assertEquals(OutboundQueue.MAX_PENDING_BYTES, queue.getPendingBytes());
+
+            // Room is made as the data is written
+            PartialChannel channel = new PartialChannel(10);
+            assertFalse(queue.flush(channel));
+            assertFalse(queue.append(ByteBuffer.wrap(new byte[11])));
+            assertTrue(queue.append(ByteBuffer.wrap(new byte[10])));
+            assertEquals(OutboundQueue.MAX_PENDING_BYTES, queue.getPendingBytes());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    void testClose() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.append(ByteBuffer.wrap(data(100)));
+        queue.close();
+        assertEquals(0, queue.getPendingBytes());
+
+        // The client is disconnected, so anything it is sent afterwards is ignored
+        assertTrue(queue.append(ByteBuffer.wrap(data(100))));
+        assertEquals(0, queue.getPendingBytes());
+        assertTrue(queue.flush(new PartialChannel(100)));
+    }
+
+    /**
+     * Flushes the queue until it is fully written, and returns the amount of flushes which were not.
+     */
+    private static int flushAll(OutboundQueue queue, GatheringByteChannel channel) throws Exception {
+        for (int flushes = 0; flushes < 1000; flushes++) {
+            if (queue.flush(channel)) {
+                return flushes;
+            }
+        }
+        throw new AssertionError("The queue is never fully written");
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 256);
+        }
+        return data;
+    }
+
+    /**
+     * A socket which accepts at most a limited amount of bytes per write, like one whose send buffer is full.
+     */
+    private static final class PartialChannel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int bytesPerWrite;
+
+        private PartialChannel(int bytesPerWrite) {
+            this.bytesPerWrite = bytesPerWrite;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            int amount = 0;
+
+            for (int i = offset; i < offset + length && amount < bytesPerWrite; i++) {
+                while (srcs[i].hasRemaining() && amount < bytesPerWrite) {
+                    written.write(srcs[i].get());
+                    amount++;
+                }
+            }
+            return amount;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        byte[] toByteArray() {
+            return written.toByteArray();
+        }
+    }
+}
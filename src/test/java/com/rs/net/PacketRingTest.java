@@ -0,0 +1,156 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class PacketRingTest {
+
+    @Test
+    void testPoll_InOrder() {
+        PacketRing ring = new PacketRing(64);
+        assertTrue(ring.offer(4, payload(1, 2, 3), 3));
+        assertTrue(ring.offer(0, payload(), 0));
+        assertTrue(ring.offer(185, payload(9), 1));
+
+        assertPacket(ring.poll(), 4, 1, 2, 3);
+        assertPacket(ring.poll(), 0);
+        assertPacket(ring.poll(), 185, 9);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void testOffer_Full() {
+        PacketRing ring = new PacketRing(16);
+        assertTrue(ring.offer(1, payload(new byte[10]), 10));
+        assertFalse(ring.offer(2, payload(1), 1));
+
+        assertPacket(ring.poll(), 1, new byte[10]);
+        assertFalse(ring.offer(2, payload(1), 1));
+        ring.release();
+        assertTrue(ring.offer(2, payload(1), 1));
+        assertPacket(ring.poll(), 2, 1);
+    }
+
+    @Test
+    void testPoll_WrapMarker() {
+        // 13 bytes per packet, so the third packet does not fit in the 6 bytes left, which get a wrap marker
+        PacketRing ring = new PacketRing(32);
+        assertTrue(ring.offer(1, payload(new byte[10]), 10));
+        assertTrue(ring.offer(2, payload(new byte[10]), 10));
+        assertFalse(ring.offer(3, payload(new byte[10]), 10));
+
+        assertPacket(ring.poll(), 1, new byte[10]);
+        ring.release();
+        assertTrue(ring.offer(3, payload(5, 6, 7, 8, 9, 10, 11, 12, 13, 14), 10));
+        assertEquals(13 + 6 + 13, ring.size());
+
+        assertPacket(ring.poll(), 2, new byte[10]);
+        assertPacket(ring.poll(), 3, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void testPoll_WrapWithoutMarker() {
+        // Two packets leave 2 bytes at the end of the ring, which cannot fit a wrap marker
+        PacketRing ring = new PacketRing(28);
+        assertTrue(ring.offer(1, payload(new byte[10]), 10));
+        assertTrue(ring.offer(2, payload(new byte[10]), 10));
+        assertPacket(ring.poll(), 1, new byte[10]);
+        assertPacket(ring.poll(), 2, new byte[10]);
+        ring.release();
+
+        assertTrue(ring.offer(3, payload(7, 8), 2));
+        assertPacket(ring.poll(), 3, 7, 8);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void testPushBack() {
+        PacketRing ring = new PacketRing(64);
+        ring.offer(1, payload(1), 1);
+        ring.offer(2, payload(2), 1);
+
+        assertPacket(ring.poll(), 1, 1);
+        ring.pushBack();
+        assertPacket(ring.poll(), 1, 1);
+        assertPacket(ring.poll(), 2, 2);
+        ring.pushBack();
+        assertEquals(4, ring.size());
+        assertPacket(ring.poll(), 2, 2);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void testPushBack_WrapMarker() {
+        PacketRing ring = new PacketRing(32);
+        ring.offer(1, payload(new byte[10]), 10);
+        ring.offer(2, payload(new byte[10]), 10);
+        ring.poll();
+        ring.poll();
+        ring.release();
+        ring.offer(3, payload(3, 4, 5, 6), 4);
+
+        assertPacket(ring.poll(), 3, 3, 4, 5, 6);
+        ring.pushBack();
+        assertEquals(6 + 7, ring.size());
+        assertPacket(ring.poll(), 3, 3, 4, 5, 6);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    private static ByteBuffer payload(int... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+
+        for (int b : bytes) {
+            buffer.put((byte) b);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer payload(byte[] bytes) {
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void assertPacket(Packet packet, int opcode, byte[] payload) {
+        assertEquals(opcode, packet.getOpcode());
+        assertEquals(payload.length, packet.getLength());
+        byte[] data = new byte[packet.getPayload().remaining()];
+        packet.getPayload().duplicate().get(data);
+        assertArrayEquals(payload, data);
+    }
+
+    private static void assertPacket(Packet packet, int opcode, int... payload) {
+        byte[] bytes = new byte[payload.length];
+
+        for (int i = 0; i < payload.length; i++) {
+            bytes[i] = (byte) payload[i];
+        }
+        assertPacket(packet, opcode, bytes);
+    }
+}
@@ -0,0 +1,190 @@
+package com.rs.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class StreamBufferTest {
+
+    @Test
+    void testWriteBits_AcrossWords() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(64);
+        ReferenceWriter expected = new ReferenceWriter();
+        int[] amounts = {1, 11, 5, 32, 7, 30, 8, 1, 32, 13};
+
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+
+        for (int i = 0; i < amounts.length; i++) {
+            int value = 0x9E3779B9 * (i + 1);
+            out.writeBits(amounts[i], value);
+            expected.writeBits(amounts[i], value);
+        }
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+        assertArrayEquals(expected.toByteArray(), written(out));
+    }
+
+    @Test
+    void testWriteBits_WholeWord() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(8);
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        out.writeBits(20, 0xABCDE);
+        out.writeBits(12, 0x123);
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+        assertArrayEquals(new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xE1, 0x23}, written(out));
+    }
+
+    @Test
+    void testWriteBits_SwitchAccessType() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(16);
+        ReferenceWriter expected = new ReferenceWriter();
+
+        out.writeByte(81);
+        expected.writeByte(81);
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        out.writeBits(13, 0x1ABC);
+        out.writeBit(true);
+        expected.writeBits(13, 0x1ABC);
+        expected.writeBits(1, 1);
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+        out.writeByte(0x7F);
+        expected.writeByte(0x7F);
+        out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+        out.writeBits(30, 0x2468ACE);
+        out.writeBits(3, 5);
+        expected.writeBits(30, 0x2468ACE);
+        expected.writeBits(3, 5);
+        out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+        out.writeShort(0x1234);
+        expected.writeByte(0x12);
+        expected.writeByte(0x34);
+        assertArrayEquals(expected.toByteArray(), written(out));
+    }
+
+    @Test
+    void testWriteBits_Random() {
+        Random random = new Random(317);
+        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(16);
+        ReferenceWriter expected = new ReferenceWriter();
+
+        for (int block = 0; block < 50; block++) {
+            int value = random.nextInt(256);
+            out.writeByte(value);
+            expected.writeByte(value);
+            out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+
+            for (int i = random.nextInt(40); i > 0; i--) {
+                int amount = 1 + random.nextInt(32);
+                value = random.nextInt();
+                out.writeBits(amount, value);
+                expected.writeBits(amount, value);
+            }
+            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+        }
+        assertArrayEquals(expected.toByteArray(), written(out));
+    }
+
+    @Test
+    void testWriteBits_PooledBufferWithStaleData() {
+        StreamBuffer.WriteBuffer stale = StreamBuffer.acquireWriteBuffer(64);
+
+        for (int i = 0; i < 64; i++) {
+            stale.writeByte(0xFF);
+        }
+        stale.release();
+
+        StreamBuffer.WriteBuffer out = StreamBuffer.acquireWriteBuffer(64);
+        ReferenceWriter expected = new ReferenceWriter();
+
+        try {
+            out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+
+            for (int i = 0; i < 20; i++) {
+                out.writeBits(11, i * 3);
+                expected.writeBits(11, i * 3);
+            }
+            out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+            assertArrayEquals(expected.toByteArray(), written(out));
+        } finally {
+            out.release();
+        }
+    }
+
+    @Test
+    void testWriteBits_ByteAccess() {
+        StreamBuffer.WriteBuffer out = StreamBuffer.createWriteBuffer(8);
+        assertThrows(IllegalStateException.class, () -> out.writeBits(1, 1));
+    }
+
+    @Test
+    void testReadString() {
+        // A string which does not start at the beginning of the buffer, and one with a byte above 127
+        ByteBuffer data = ByteBuffer.wrap(new byte[]{1, 2, 3, 'm', 'o', 'p', 'a', 'r', 10, (byte) 0xE9, 10, 10, 42});
+        data.position(3);
+        StreamBuffer.ReadBuffer in = StreamBuffer.createReadBuffer(data);
+
+        assertEquals("mopar", in.readString());
+        assertEquals(String.valueOf((char) (byte) 0xE9), in.readString());
+        assertEquals("", in.readString());
+        assertEquals(42, in.readByte());
+    }
+
+    private static byte[] written(StreamBuffer.WriteBuffer out) {
+        ByteBuffer buffer = out.getBuffer().duplicate();
+        buffer.flip();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Writes bits one at a time, most significant first, like the bit writer which preceded the bit register. Bytes
+     * are written from the next whole byte after the bits.
+     */
+    private static final class ReferenceWriter {
+
+        private final byte[] data = new byte[4096];
+        private int bitPosition;
+
+        void writeBits(int amount, int value) {
+            for (int i = amount - 1; i >= 0; i--) {
+                if ((value >>> i & 1) != 0) {
+                    data[bitPosition >> 3] |= 0x80 >> (bitPosition & 7);
+                }
+                bitPosition++;
+            }
+        }
+
+        void writeByte(int value) {
+            bitPosition = (bitPosition + 7) & ~7;
+            data[bitPosition >> 3] = (byte) value;
+            bitPosition += 8;
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[(bitPosition + 7) >> 3];
+            System.arraycopy(data, 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.rs.service;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.rs.TestServer;
+import com.rs.WorldHandler;
+import com.rs.entity.player.Client;
+import com.rs.entity.player.Player;
+import com.rs.entity.player.PlayerAttributes;
+import com.rs.io.PlayerFileHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class SaveServiceTest {
+
+    private final List<Player> players = new ArrayList<>();
+    private Path directory;
+    private MemoryPlayerFileHandler playerFiles;
+    private SaveService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        TestServer.start("\"saveWorkers\": 1, \"autosaveInterval\": 2, \"autosavesPerTick\": 2");
+        directory = Files.createTempDirectory("saves");
+        playerFiles = new MemoryPlayerFileHandler(directory);
+        service = new SaveService(playerFiles);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        players.forEach(WorldHandler.getInstance()::unregister);
+
+        // Lets a worker which a failed test left waiting finish
+        playerFiles.unblock();
+        Files.delete(directory);
+    }
+
+    @Test
+    void testSave_CoalescedWhileActive() throws Exception {
+        PlayerAttributes attributes = attributes("alice", 10);
+        playerFiles.block();
+        service.save(attributes);
+        service.tick();
+        playerFiles.awaitSave();
+
+        // The account is being written, so the newer saves wait and replace each other
+        attributes.setRunEnergy(20);
+        service.save(attributes);
+        attributes.setRunEnergy(30);
+        service.save(attributes);
+        service.tick();
+        assertEquals(1, service.getCoalescedSaves());
+        assertEquals(2, service.getQueueDepth());
+
+        playerFiles.unblock();
+        service.cleanup();
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(2, service.getCompletedSaves());
+        assertEquals(2, playerFiles.saves.get());
+        assertEquals(30, playerFiles.load("alice").getRunEnergy());
+    }
+
+    @Test
+    void testLoad_NewestUnwrittenSave() throws Exception {
+        PlayerAttributes attributes = attributes("bob", 10);
+        playerFiles.save(attributes.snapshot());
+        attributes.setRunEnergy(20);
+        playerFiles.block();
+        service.save(attributes);
+        assertEquals(20, service.load("bob").getRunEnergy());
+
+        // The save being written is loaded, until a newer one waits
+        service.tick();
+        playerFiles.awaitSave();
+        assertEquals(20, service.load("bob").getRunEnergy());
+        attributes.setRunEnergy(30);
+        service.save(attributes);
+        assertEquals(30, service.load("bob").getRunEnergy());
+
+        playerFiles.unblock();
+        service.cleanup();
+        PlayerAttributes loaded = service.load("bob");
+        assertEquals(30, loaded.getRunEnergy());
+        assertFalse(loaded.isDirty());
+    }
+
+    @Test
+    void testSave_FailedSavesRetried() throws Exception {
+        playerFiles.fail = true;
+        service.save(attributes("carol", 10));
+
+        // The save is retried until the server shuts down, however often it fails
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            service.tick();
+            int failed = attempt;
+            await(() -> service.getFailedSaves() == failed);
+            assertEquals(1, service.getQueueDepth());
+        }
+
+        // Once the server shuts down, it is attempted once more as it failed too often already
+        service.cleanup();
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(5, service.getFailedSaves());
+        assertEquals(0, service.getCompletedSaves());
+    }
+
+    @Test
+    void testSave_FailedSavesDroppedOnShutdown() throws Exception {
+        playerFiles.fail = true;
+        service.save(attributes("dave", 10));
+
+        service.cleanup();
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(3, service.getFailedSaves());
+        assertEquals(3, playerFiles.saves.get());
+    }
+
+    @Test
+    void testAutosave_PerTick() {
+        Player[] dirty = {player("erin"), player("frank"), player("grace"), player("heidi"), player("ivan")};
+        Player clean = player("judy");
+        clean.getAttributes().clearDirty();
+        player("mallory").setConnectionStage(Client.ConnectionStage.LOGGING_IN);
+
+        // The first pass starts once the interval passed
+        service.tick();
+        assertEquals(0, service.getAutosaves());
+        assertEquals(0, service.getAutosaveBacklog());
+        service.tick();
+        assertEquals(2, service.getAutosaves());
+        assertEquals(3, service.getAutosaveBacklog());
+
+        // The pass continues after the players it saved, so a saved player which changed again waits for the next
+        dirty[0].getAttributes().setRunEnergy(50);
+        service.tick();
+        assertEquals(4, service.getAutosaves());
+        assertEquals(1, service.getAutosaveBacklog());
+        service.tick();
+        assertEquals(5, service.getAutosaves());
+        assertEquals(0, service.getAutosaveBacklog());
+        assertTrue(dirty[0].getAttributes().isDirty());
+
+        for (int i = 1; i < dirty.length; i++) {
+            assertFalse(dirty[i].getAttributes().isDirty());
+        }
+
+        service.tick();
+        assertEquals(6, service.getAutosaves());
+        assertFalse(dirty[0].getAttributes().isDirty());
+
+        service.cleanup();
+        assertEquals(6, service.getCompletedSaves());
+        assertEquals(6, playerFiles.saves.get());
+    }
+
+    /**
+     * Registers a logged in player, which is dirty as it was never saved.
+     */
+    private Player player(String username) {
+        Player player = new Player(null);
+        player.getAttributes().setUsername(username);
+        player.setConnectionStage(Client.ConnectionStage.LOGGED_IN);
+        WorldHandler.getInstance().register(player);
+        players.add(player);
+        return player;
+    }
+
+    private static PlayerAttributes attributes(String username, float runEnergy) {
+        PlayerAttributes attributes = new PlayerAttributes();
+        attributes.setUsername(username);
+        attributes.setRunEnergy(runEnergy);
+        return attributes;
+    }
+
+    /**
+     * Waits for a save worker to get to the expected state.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the save workers");
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Keeps the saved attributes in memory. Saves can be held up until unblocked, or made to fail.
+     */
+    private static final class MemoryPlayerFileHandler implements PlayerFileHandler {
+
+        private final Map<String, PlayerAttributes> files = new ConcurrentHashMap<>();
+        private final AtomicInteger saves = new AtomicInteger();
+        private final Path directory;
+        private volatile CountDownLatch unblocked = new CountDownLatch(0);
+        private volatile CountDownLatch started = new CountDownLatch(1);
+        private volatile boolean fail;
+
+        private MemoryPlayerFileHandler(Path directory) {
+            this.directory = directory;
+        }
+
+        void block() {
+            unblocked = new CountDownLatch(1);
+            started = new CountDownLatch(1);
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+
+        /**
+         * Waits until a save is being written.
+         */
+        void awaitSave() throws InterruptedException {
+            assertTrue(started.await(10, TimeUnit.SECONDS), "Timed out waiting for the save workers");
+        }
+
+        @Override
+        public void save(PlayerAttributes attributes) throws Exception {
+            saves.incrementAndGet();
+            started.countDown();
+            unblocked.await();
+
+            if (fail) {
+                throw new IOException("No space left on device");
+            }
+            files.put(attributes.getUsername(), attributes.snapshot());
+        }
+
+        @Override
+        public PlayerAttributes load(String username) throws Exception {
+            PlayerAttributes attributes = files.get(username);
+
+            if (attributes == null) {
+                throw new NoSuchFileException(username);
+            }
+            return attributes.snapshot();
+        }
+
+        @Override
+        public String getStorageDirectory() {
+            return directory.toString();
+        }
+    }
+}